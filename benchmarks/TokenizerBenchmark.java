@@ -0,0 +1,97 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import es.ulpgc.bigdata.analysis.TermFrequencies;
+
+/**
+ * Term-frequency throughput (MB/s of UTF-16 text) and allocation per document: the previous
+ * regex-split tokenizer against the shared char-scanning one.
+ *
+ * Usage (after building text-analysis):
+ *   java -cp text-analysis/target/classes benchmarks/TokenizerBenchmark.java <book.txt>... [--csv file] [--label corpus]
+ */
+public class TokenizerBenchmark {
+
+    private static final Pattern SPLIT = Pattern.compile("[^\\p{L}\\p{Nd}]+");
+    private static final int WARMUP = 5;
+    private static final int ROUNDS = 20;
+
+    public static void main(String[] args) throws IOException {
+        List<String> docs = new ArrayList<>();
+        String csv = null;
+        String label = "books";
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--csv")) csv = args[++i];
+            else if (args[i].equals("--label")) label = args[++i];
+            else docs.add(Files.readString(Path.of(args[i]), StandardCharsets.UTF_8));
+        }
+        if (docs.isEmpty()) {
+            System.err.println("usage: TokenizerBenchmark <book.txt>... [--csv file] [--label corpus]");
+            System.exit(1);
+        }
+
+        for (int i = 0; i < docs.size(); i++) {
+            if (!regex(docs.get(i)).equals(TermFrequencies.of(docs.get(i)))) {
+                // only expected for Greek text (final sigma, see Tokenizer)
+                System.err.println("warning: term counts differ on document " + i);
+            }
+        }
+
+        long bytes = docs.stream().mapToLong(d -> 2L * d.length()).sum();
+        String[] rows = {
+                run("regex", docs, bytes, true),
+                run("scanner", docs, bytes, false)
+        };
+        if (csv != null) {
+            Path out = Path.of(csv);
+            if (!Files.exists(out)) {
+                Files.writeString(out, "corpus,tokenizer,documents,mb,mb_per_s,alloc_kb_per_doc\n");
+            }
+            for (String row : rows) {
+                Files.writeString(out, label + "," + row + "\n", java.nio.file.StandardOpenOption.APPEND);
+            }
+        }
+    }
+
+    private static String run(String name, List<String> docs, long bytes, boolean regex) {
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().getId();
+        long sink = 0;
+        for (int i = 0; i < WARMUP; i++) {
+            for (String d : docs) sink += (regex ? regex(d) : TermFrequencies.of(d)).size();
+        }
+
+        long alloc0 = mx.getThreadAllocatedBytes(tid);
+        long t0 = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            for (String d : docs) sink += (regex ? regex(d) : TermFrequencies.of(d)).size();
+        }
+        long nanos = System.nanoTime() - t0;
+        long alloc = mx.getThreadAllocatedBytes(tid) - alloc0;
+
+        double mb = bytes / 1e6;
+        double mbPerS = mb * ROUNDS / (nanos / 1e9);
+        double kbPerDoc = alloc / 1024.0 / (ROUNDS * docs.size());
+        System.out.printf("%-8s %d docs, %.1f MB: %8.1f MB/s, %10.1f KB allocated per document (%d)%n",
+                name, docs.size(), mb, mbPerS, kbPerDoc, sink % 10);
+        return String.format(java.util.Locale.ROOT, "%s,%d,%.1f,%.1f,%.1f", name, docs.size(), mb, mbPerS, kbPerDoc);
+    }
+
+    // the tokenizer indexing-service used before text-analysis
+    private static Map<String, Integer> regex(String text) {
+        Map<String, Integer> tf = new HashMap<>();
+        Arrays.stream(SPLIT.split(text.toLowerCase()))
+                .filter(t -> !t.isBlank())
+                .forEach(t -> tf.merge(t, 1, Integer::sum));
+        return tf;
+    }
+}
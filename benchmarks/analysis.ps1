@@ -0,0 +1,62 @@
+param(
+  [int[]]$Docs = @(1342, 11, 84, 98, 1661, 2701, 74, 345),
+  [string[]]$Queries = @("the", "the whale", "pride and prejudice", "monsters of the sea"),
+  [int]$Repetitions = 50
+)
+
+Write-Host "=== ANALYSIS CHAIN BENCHMARK (standard vs language) ==="
+
+$ResultFile = "benchmarks/results/analysis.csv"
+
+if (-not (Test-Path $ResultFile)) {
+    "analyzer,documents,terms,postings,total_tokens,query,hits,avg_latency_ms" | Out-File $ResultFile -Encoding utf8
+}
+
+# Result cache off, so every request is evaluated
+$env:RESULT_CACHE_MAX_BYTES = "0"
+
+foreach ($analyzer in @("standard", "language")) {
+
+    Write-Host "Indexing with ANALYZER=$analyzer..."
+    $env:ANALYZER = $analyzer
+    docker compose down -v
+    docker compose up -d --build
+    Start-Sleep -Seconds 40
+
+    foreach ($d in $Docs) {
+        try { Invoke-RestMethod -Method POST -Uri "http://localhost:7001/ingest/$d" -TimeoutSec 20 | Out-Null }
+        catch { Write-Host "Ingest request failed for $d" }
+    }
+
+    $status = $null
+    $deadline = (Get-Date).AddSeconds(600)
+    while ((Get-Date) -lt $deadline) {
+        try {
+            $status = Invoke-RestMethod -Uri "http://localhost:7003/index/status" -TimeoutSec 5
+            if ([int]$status.indexedDocs -ge $Docs.Count) { break }
+        } catch {}
+        Start-Sleep -Seconds 2
+    }
+    Start-Sleep -Seconds 2   # collection stats refresh on the search side
+
+    foreach ($q in $Queries) {
+        $latencies = @()
+        $hits = 0
+        for ($i = 0; $i -lt $Repetitions; $i++) {
+            $sw = [System.Diagnostics.Stopwatch]::StartNew()
+            $res = Invoke-RestMethod -Uri ("http://localhost:7004/search?q=" + [uri]::EscapeDataString($q)) -TimeoutSec 5
+            $sw.Stop()
+            $latencies += $sw.Elapsed.TotalMilliseconds
+            $hits = $res.totalHits
+        }
+        $avg = [math]::Round(($latencies | Measure-Object -Average).Average, 2)
+        "$analyzer,$($status.indexedDocs),$($status.terms),$($status.indexing.postings),$($status.collection.totalLength),$q,$hits,$avg" | Add-Content $ResultFile
+    }
+}
+
+docker compose down
+Remove-Item Env:ANALYZER
+Remove-Item Env:RESULT_CACHE_MAX_BYTES
+
+Write-Host "Analysis benchmark finished."
+Write-Host "Results saved in $ResultFile"
@@ -0,0 +1,50 @@
+param(
+  [int[]]$Docs = @(1342, 11, 84, 98, 1661, 2701, 74, 345),
+  [string]$Label = "bulk"
+)
+
+Write-Host "=== INDEXING THROUGHPUT BENCHMARK ==="
+
+$ResultFile = "benchmarks/results/indexing.csv"
+
+if (-not (Test-Path $ResultFile)) {
+    "label,documents,postings,batches,docs_per_s_writing,avg_write_ms,elapsed_s" | Out-File $ResultFile -Encoding utf8
+}
+
+# Start the system from a clean index
+Write-Host "Starting system..."
+docker compose down -v
+docker compose up -d --build
+Start-Sleep -Seconds 40
+
+$sw = [System.Diagnostics.Stopwatch]::StartNew()
+
+foreach ($d in $Docs) {
+    try { Invoke-RestMethod -Method POST -Uri "http://localhost:7001/ingest/$d" -TimeoutSec 20 | Out-Null }
+    catch { Write-Host "Ingest request failed for $d" }
+}
+
+# Wait until every document has been indexed
+$status = $null
+$deadline = (Get-Date).AddSeconds(600)
+while ((Get-Date) -lt $deadline) {
+    try {
+        $status = Invoke-RestMethod -Uri "http://localhost:7003/index/status" -TimeoutSec 5
+        if ([int]$status.indexedDocs -ge $Docs.Count) { break }
+    } catch {}
+    Start-Sleep -Seconds 2
+}
+
+$sw.Stop()
+
+$ix = $status.indexing
+$docsPerSec = [math]::Round([double]$ix.docsPerSecondWriting, 2)
+$avgWrite = [math]::Round([double]$ix.avgWriteMillis, 2)
+$elapsed = [math]::Round($sw.Elapsed.TotalSeconds, 2)
+
+"$Label,$($ix.documents),$($ix.postings),$($ix.batches),$docsPerSec,$avgWrite,$elapsed" | Add-Content $ResultFile
+
+docker compose down
+
+Write-Host "Indexing benchmark finished."
+Write-Host "Results saved in benchmarks/results/indexing.csv"
@@ -0,0 +1,29 @@
+param(
+  [int[]]$Books = @(1342, 11, 84, 98, 1661, 2701, 74, 345),
+  [string]$Label = "gutenberg"
+)
+
+Write-Host "=== TOKENIZER BENCHMARK ==="
+
+$ResultFile = "benchmarks/results/tokenizer.csv"
+$DataDir = "benchmarks/data"
+
+New-Item -ItemType Directory -Force -Path $DataDir | Out-Null
+
+# Same books as the indexing benchmark, downloaded once
+$files = @()
+foreach ($b in $Books) {
+    $file = "$DataDir/$b.txt"
+    if (-not (Test-Path $file)) {
+        try { Invoke-WebRequest -Uri "https://www.gutenberg.org/cache/epub/$b/pg$b.txt" -OutFile $file -TimeoutSec 30 }
+        catch { Write-Host "Download failed for $b"; continue }
+    }
+    $files += $file
+}
+
+mvn -B -q install -pl text-analysis -am
+
+java -cp text-analysis/target/classes benchmarks/TokenizerBenchmark.java @files --csv $ResultFile --label $Label
+
+Write-Host "Tokenizer benchmark finished."
+Write-Host "Results saved in $ResultFile"
@@ -0,0 +1,111 @@
+package es.ulpgc.bigdata.datalake;
+
+import java.io.BufferedInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The body of a document stored as a directory: {@code body.txt}, or {@code body.txt.gz} when the
+ * datalake compresses. Readers get the plain text either way. Should both exist (a crash while the
+ * format of a document changed), the newer file is the body.
+ */
+public final class DocumentFiles {
+
+    public static final String BODY = "body.txt";
+    public static final String COMPRESSED_BODY = "body.txt.gz";
+
+    private static final int BUFFER = 64 * 1024;
+
+    private DocumentFiles() {
+    }
+
+    /** The body file of {@code dir}, or null when it has none. */
+    public static Path body(Path dir) throws IOException {
+        Path plain = dir.resolve(BODY);
+        Path compressed = dir.resolve(COMPRESSED_BODY);
+        boolean hasPlain = Files.isRegularFile(plain);
+        boolean hasCompressed = Files.isRegularFile(compressed);
+        if (hasPlain && hasCompressed) {
+            return Files.getLastModifiedTime(compressed).compareTo(Files.getLastModifiedTime(plain)) >= 0
+                    ? compressed : plain;
+        }
+        return hasCompressed ? compressed : hasPlain ? plain : null;
+    }
+
+    public static boolean isCompressed(Path bodyFile) {
+        return bodyFile.getFileName().toString().endsWith(".gz");
+    }
+
+    /** The plain body text (UTF-8) of {@code dir}, decompressed on the fly; null when it has none. */
+    public static InputStream openBody(Path dir) throws IOException {
+        Path file = body(dir);
+        return file == null ? null : open(file);
+    }
+
+    /** Reads a body file found by {@link #body}, decompressing it if needed. */
+    public static InputStream open(Path bodyFile) throws IOException {
+        InputStream in = Files.newInputStream(bodyFile);
+        return isCompressed(bodyFile) ? new GZIPInputStream(in, BUFFER) : new BufferedInputStream(in, BUFFER);
+    }
+
+    public static String readBody(Path dir) throws IOException {
+        try (InputStream in = openBody(dir)) {
+            return in == null ? null : new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Replaces the body of {@code dir} (written to a temporary file, then moved over the old one) and
+     * removes the body in the other format, if any.
+     *
+     * @return text bytes (UTF-8) and bytes written to disk
+     */
+    public static Written writeBody(Path dir, String body, boolean compress) throws IOException {
+        Path file = dir.resolve(compress ? COMPRESSED_BODY : BODY);
+        Path tmp = dir.resolve(file.getFileName() + ".tmp");
+        CountingOutputStream text;
+        try (OutputStream out = Files.newOutputStream(tmp)) {
+            text = new CountingOutputStream(compress ? new GZIPOutputStream(out, BUFFER) : out);
+            try (Writer w = new OutputStreamWriter(text, StandardCharsets.UTF_8)) {
+                w.write(body == null ? "" : body);
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(dir.resolve(compress ? BODY : COMPRESSED_BODY));
+        return new Written(text.count, Files.size(file));
+    }
+
+    public record Written(long textBytes, long storedBytes) {
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package es.ulpgc.bigdata.datalake;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Moves the per-document directories of a datalake ({@code <datalake>/docs/<id>/header.txt,
+ * body.txt or body.txt.gz, metadata.json}) into its packed store ({@code <datalake>/segments}).
+ * Documents already packed are skipped, so an interrupted run can be started again. Directories are
+ * only deleted with {@code --delete}, once their record is on disk.
+ * <pre>
+ * java -cp ingestion-service.jar es.ulpgc.bigdata.datalake.PackedMigration /data/datalake [--compress] [--segment-mb 64] [--delete]
+ * </pre>
+ * Run it while the ingestion service of that datalake is stopped: the store has a single writer.
+ */
+public final class PackedMigration {
+
+    private PackedMigration() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: PackedMigration <datalake dir> [--compress] [--segment-mb N] [--delete]");
+            System.exit(2);
+        }
+        Path root = Path.of(args[0]);
+        boolean compress = false;
+        boolean delete = false;
+        long segmentBytes = 64L << 20;
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--compress" -> compress = true;
+                case "--delete" -> delete = true;
+                case "--segment-mb" -> segmentBytes = Long.parseLong(args[++i]) << 20;
+                default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        Path docs = root.resolve("docs");
+        List<Path> dirs;
+        try (Stream<Path> list = Files.isDirectory(docs) ? Files.list(docs) : Stream.empty()) {
+            dirs = list.filter(Files::isDirectory).sorted().collect(Collectors.toList());
+        }
+
+        long start = System.currentTimeMillis();
+        int packed = 0;
+        int skipped = 0;
+        try (PackedStore store = PackedStore.open(root.resolve(PackedStore.SEGMENT_DIR), segmentBytes, compress)) {
+            for (Path dir : dirs) {
+                String id = dir.getFileName().toString();
+                if (store.contains(id)) {
+                    skipped++;
+                } else {
+                    store.append(id, read(dir.resolve("metadata.json")), read(dir.resolve("header.txt")),
+                            DocumentFiles.readBody(dir));
+                    packed++;
+                }
+                if (delete) deleteDirectory(dir);
+            }
+            System.out.printf("Packed %d documents (%d already packed) in %d ms: %s%n",
+                    packed, skipped, System.currentTimeMillis() - start, store.stats());
+        }
+    }
+
+    private static String read(Path file) throws IOException {
+        return Files.exists(file) ? Files.readString(file, StandardCharsets.UTF_8) : null;
+    }
+
+    private static void deleteDirectory(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path p : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(p);
+            }
+        }
+    }
+}
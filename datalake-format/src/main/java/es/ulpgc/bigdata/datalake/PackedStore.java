@@ -0,0 +1,499 @@
+package es.ulpgc.bigdata.datalake;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Documents packed into append-only segment files ({@code seg-000001.pack}, ...) instead of a
+ * directory of three small files per book.
+ * <p>
+ * A record is a fixed header (magic, flags, the length of every part and the uncompressed length of
+ * header and body), the ID, the metadata JSON, the header text, the body text and a CRC32 of all of
+ * it. Header and body are deflated per record when the store compresses. Storing an ID again appends
+ * a new record that replaces the old one, which stays in the file as dead bytes.
+ * <p>
+ * Every record's location is kept in memory, so reading a document by ID is one map lookup and
+ * positional reads. When a segment reaches its maximum size it is sealed and its locations are saved
+ * next to it ({@code .idx}); on open, sealed segments load that file and only the last segment is
+ * scanned (a torn record from a crash is cut off). A read-only store, like the indexers' view of an
+ * ingestion node's datalake, takes in the records appended since its last lookup before each one.
+ */
+public final class PackedStore implements Closeable {
+
+    public static final String SEGMENT_DIR = "segments";
+
+    static final int MAGIC = 0x444c4b31;        // "DLK1"
+    static final int INDEX_MAGIC = 0x444c4b49;  // "DLKI"
+    static final int RECORD_HEADER = 27;
+    static final int FLAG_DEFLATED = 1;
+
+    private static final String SUFFIX = ".pack";
+    private static final String INDEX_SUFFIX = ".idx";
+
+    private final Path dir;
+    private final boolean writable;
+    private final long maxSegmentBytes;
+    private final boolean compress;
+
+    private final Map<String, Location> index = new ConcurrentHashMap<>();
+    private final Map<Integer, FileChannel> readers = new ConcurrentHashMap<>();
+
+    // last segment: written by this store, or scanned up to scannedEnd by a read-only one
+    private int lastSegment;
+    private long scannedEnd;
+    private FileChannel writer;
+
+    private final AtomicLong deadRecords = new AtomicLong();
+    private final AtomicLong rawBytes = new AtomicLong();
+    private final AtomicLong storedBytes = new AtomicLong();
+
+    private PackedStore(Path dir, boolean writable, long maxSegmentBytes, boolean compress) {
+        this.dir = dir;
+        this.writable = writable;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.compress = compress;
+    }
+
+    /**
+     * Opens (creating it if needed) the store in {@code dir} for appending.
+     *
+     * @param compress deflate header and body of the records appended from now on
+     */
+    public static PackedStore open(Path dir, long maxSegmentBytes, boolean compress) throws IOException {
+        Files.createDirectories(dir);
+        PackedStore store = new PackedStore(dir, true, Math.max(RECORD_HEADER + 4, maxSegmentBytes), compress);
+        store.load();
+        return store;
+    }
+
+    /** Opens an existing store for reading, possibly while another process appends to it. */
+    public static PackedStore openReadOnly(Path dir) throws IOException {
+        PackedStore store = new PackedStore(dir, false, Long.MAX_VALUE, false);
+        store.load();
+        return store;
+    }
+
+    // ---- writing ----
+
+    /**
+     * Appends a document, replacing any previous record of {@code id}, and forces it to disk.
+     *
+     * @return the segment file that holds it
+     */
+    public synchronized Path append(String id, String metadataJson, String header, String body) throws IOException {
+        if (!writable) throw new IllegalStateException("Store opened read-only");
+
+        byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        byte[] meta = (metadataJson == null ? "{}" : metadataJson).getBytes(StandardCharsets.UTF_8);
+        byte[] headerRaw = (header == null ? "" : header).getBytes(StandardCharsets.UTF_8);
+        byte[] bodyRaw = (body == null ? "" : body).getBytes(StandardCharsets.UTF_8);
+        if (idBytes.length > Short.MAX_VALUE) throw new IllegalArgumentException("ID too long");
+        byte[] headerStored = compress ? deflate(headerRaw) : headerRaw;
+        byte[] bodyStored = compress ? deflate(bodyRaw) : bodyRaw;
+        int flags = compress ? FLAG_DEFLATED : 0;
+
+        ByteBuffer head = ByteBuffer.allocate(RECORD_HEADER)
+                .putInt(MAGIC).put((byte) flags).putShort((short) idBytes.length)
+                .putInt(meta.length).putInt(headerStored.length).putInt(bodyStored.length)
+                .putInt(headerRaw.length).putInt(bodyRaw.length);
+        head.flip();
+        CRC32 crc = new CRC32();
+        crc.update(head.duplicate());
+        crc.update(idBytes);
+        crc.update(meta);
+        crc.update(headerStored);
+        crc.update(bodyStored);
+        ByteBuffer tail = ByteBuffer.allocate(4).putInt((int) crc.getValue());
+        tail.flip();
+
+        long length = (long) RECORD_HEADER + idBytes.length + meta.length + headerStored.length + bodyStored.length + 4;
+        if (scannedEnd > 0 && scannedEnd + length > maxSegmentBytes) roll();
+
+        ByteBuffer[] parts = {head, ByteBuffer.wrap(idBytes), ByteBuffer.wrap(meta),
+                ByteBuffer.wrap(headerStored), ByteBuffer.wrap(bodyStored), tail};
+        long offset = scannedEnd;
+        writer.position(offset);
+        long remaining = length;
+        while (remaining > 0) remaining -= writer.write(parts);
+        writer.force(false);
+        scannedEnd = offset + length;
+
+        put(id, new Location(lastSegment, offset, flags, idBytes.length, meta.length,
+                headerStored.length, bodyStored.length, headerRaw.length, bodyRaw.length));
+        return segmentPath(lastSegment);
+    }
+
+    private void roll() throws IOException {
+        writer.force(true);
+        writeIndex(lastSegment, scannedEnd);
+        writer.close();
+        lastSegment++;
+        scannedEnd = 0;
+        writer = FileChannel.open(segmentPath(lastSegment), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    private static byte[] deflate(byte[] raw) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, raw.length / 3));
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try (DeflaterOutputStream deflating = new DeflaterOutputStream(out, deflater, 64 * 1024)) {
+            deflating.write(raw);
+        } finally {
+            deflater.end();
+        }
+        return out.toByteArray();
+    }
+
+    // ---- reading ----
+
+    public boolean contains(String id) {
+        return locate(id) != null;
+    }
+
+    /** Every stored ID (as of now). */
+    public List<String> ids() {
+        if (!writable) refresh();
+        return new ArrayList<>(index.keySet());
+    }
+
+    /** The segment file holding {@code id}, or null. */
+    public Path segmentOf(String id) {
+        Location location = locate(id);
+        return location == null ? null : segmentPath(location.segment);
+    }
+
+    /** The whole document with its CRC checked, or null when the ID is not stored. */
+    public Document read(String id) throws IOException {
+        Location l = locate(id);
+        if (l == null) return null;
+        ByteBuffer record = ByteBuffer.allocate((int) l.length());
+        readFully(l.segment, l.offset, record);
+        record.flip();
+        CRC32 crc = new CRC32();
+        crc.update(record.duplicate().limit(record.limit() - 4));
+        if ((int) crc.getValue() != record.getInt(record.limit() - 4)) {
+            throw new IOException("Corrupt record for " + id + " in " + segmentPath(l.segment));
+        }
+        byte[] bytes = record.array();
+        int pos = RECORD_HEADER + l.idLength;
+        String meta = new String(bytes, pos, l.metadataLength, StandardCharsets.UTF_8);
+        pos += l.metadataLength;
+        String header = decode(bytes, pos, l.headerLength, l.headerRawLength, l.flags);
+        pos += l.headerLength;
+        String body = decode(bytes, pos, l.bodyLength, l.bodyRawLength, l.flags);
+        return new Document(id, meta, header, body);
+    }
+
+    /** Metadata JSON of {@code id}, or null. */
+    public String metadata(String id) throws IOException {
+        Location l = locate(id);
+        if (l == null) return null;
+        ByteBuffer buffer = ByteBuffer.allocate(l.metadataLength);
+        readFully(l.segment, l.offset + RECORD_HEADER + l.idLength, buffer);
+        return new String(buffer.array(), StandardCharsets.UTF_8);
+    }
+
+    /** Streams the header text (UTF-8) of {@code id}, inflated on the fly; null when not stored. */
+    public InputStream openHeader(String id) {
+        Location l = locate(id);
+        if (l == null) return null;
+        return open(l, l.offset + RECORD_HEADER + l.idLength + l.metadataLength, l.headerLength);
+    }
+
+    /** Streams the body text (UTF-8) of {@code id}, inflated on the fly; null when not stored. */
+    public InputStream openBody(String id) {
+        Location l = locate(id);
+        if (l == null) return null;
+        return open(l, l.offset + RECORD_HEADER + l.idLength + l.metadataLength + l.headerLength, l.bodyLength);
+    }
+
+    private InputStream open(Location l, long position, int length) {
+        InputStream in = new RegionInputStream(reader(l.segment), position, length);
+        return (l.flags & FLAG_DEFLATED) != 0 ? new InflaterInputStream(in, new Inflater(), 64 * 1024) : in;
+    }
+
+    private static String decode(byte[] bytes, int pos, int length, int rawLength, int flags) throws IOException {
+        if ((flags & FLAG_DEFLATED) == 0) return new String(bytes, pos, length, StandardCharsets.UTF_8);
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(bytes, pos, length);
+            byte[] raw = new byte[rawLength];
+            int n = 0;
+            while (n < rawLength) {
+                int read = inflater.inflate(raw, n, rawLength - n);
+                if (read == 0 && (inflater.finished() || inflater.needsInput())) break;
+                n += read;
+            }
+            if (n != rawLength) throw new IOException("Truncated compressed text");
+            return new String(raw, StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed text: " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private Location locate(String id) {
+        // a read-only store may be behind the writer, also for IDs it knows (a newer record)
+        if (!writable) refresh();
+        return index.get(id);
+    }
+
+    private void readFully(int segment, long position, ByteBuffer buffer) throws IOException {
+        FileChannel channel = reader(segment);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) throw new EOFException();
+        }
+    }
+
+    private FileChannel reader(int segment) {
+        return readers.computeIfAbsent(segment, s -> {
+            try {
+                return FileChannel.open(segmentPath(s), StandardOpenOption.READ);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("segments", lastSegment);
+        out.put("documents", index.size());
+        out.put("deadRecords", deadRecords.get());
+        out.put("textBytes", rawBytes.get());
+        out.put("storedBytes", storedBytes.get());
+        out.put("compressionRatio", storedBytes.get() > 0 ? (double) rawBytes.get() / storedBytes.get() : 1.0);
+        out.put("compress", compress);
+        return out;
+    }
+
+    // ---- opening ----
+
+    private void load() throws IOException {
+        List<Integer> segments = segmentNumbers();
+        for (int i = 0; i < segments.size() - 1; i++) {
+            int segment = segments.get(i);
+            if (!readIndex(segment)) {
+                long end = scan(segment, 0);
+                if (writable) writeIndex(segment, end);
+            }
+        }
+        lastSegment = segments.isEmpty() ? 1 : segments.get(segments.size() - 1);
+        if (!segments.isEmpty()) scannedEnd = scan(lastSegment, 0);
+
+        if (writable) {
+            writer = FileChannel.open(segmentPath(lastSegment), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            if (writer.size() > scannedEnd) {
+                // a record cut by a crash
+                writer.truncate(scannedEnd);
+                writer.force(true);
+            }
+        }
+    }
+
+    /** Read-only stores: takes in what was appended since the last look. */
+    private synchronized void refresh() {
+        try {
+            if (Files.size(segmentPath(lastSegment)) <= scannedEnd && !Files.exists(segmentPath(lastSegment + 1))) return;
+            scannedEnd = scan(lastSegment, scannedEnd);
+            while (Files.exists(segmentPath(lastSegment + 1))) {
+                lastSegment++;
+                scannedEnd = scan(lastSegment, 0);
+            }
+        } catch (IOException e) {
+            // the next lookup tries again
+        }
+    }
+
+    /** Indexes the complete, CRC-checked records of a segment from {@code from}; returns where they end. */
+    private long scan(int segment, long from) throws IOException {
+        Path file = segmentPath(segment);
+        if (!Files.exists(file)) return from;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long pos = from;
+            ByteBuffer head = ByteBuffer.allocate(RECORD_HEADER);
+            while (pos + RECORD_HEADER <= size) {
+                head.clear();
+                channel.read(head, pos);
+                head.flip();
+                if (head.remaining() < RECORD_HEADER || head.getInt(0) != MAGIC) break;
+                Location l = new Location(segment, pos, head.get(4), head.getShort(5), head.getInt(7),
+                        head.getInt(11), head.getInt(15), head.getInt(19), head.getInt(23));
+                if (l.idLength < 0 || l.metadataLength < 0 || l.headerLength < 0 || l.bodyLength < 0
+                        || pos + l.length() > size) break;
+                ByteBuffer record = ByteBuffer.allocate((int) l.length());
+                while (record.hasRemaining()) {
+                    if (channel.read(record, pos + record.position()) < 0) break;
+                }
+                if (record.hasRemaining()) break;
+                CRC32 crc = new CRC32();
+                crc.update(record.array(), 0, record.capacity() - 4);
+                if ((int) crc.getValue() != record.getInt(record.capacity() - 4)) break;
+                String id = new String(record.array(), RECORD_HEADER, l.idLength, StandardCharsets.UTF_8);
+                put(id, l);
+                pos += l.length();
+            }
+            return pos;
+        }
+    }
+
+    private void put(String id, Location location) {
+        Location previous = index.put(id, location);
+        if (previous != null) {
+            deadRecords.incrementAndGet();
+            rawBytes.addAndGet(-previous.rawTextLength());
+            storedBytes.addAndGet(-previous.storedTextLength());
+        }
+        rawBytes.addAndGet(location.rawTextLength());
+        storedBytes.addAndGet(location.storedTextLength());
+    }
+
+    // segment size, record count, then (id length, id, location) per record
+    private void writeIndex(int segment, long end) throws IOException {
+        List<Map.Entry<String, Location>> entries = index.entrySet().stream()
+                .filter(e -> e.getValue().segment == segment)
+                .collect(Collectors.toList());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + entries.size() * 48);
+        ByteBuffer buffer = ByteBuffer.allocate(16).putInt(INDEX_MAGIC).putLong(end).putInt(entries.size());
+        bytes.write(buffer.array(), 0, buffer.position());
+        for (Map.Entry<String, Location> e : entries) {
+            byte[] id = e.getKey().getBytes(StandardCharsets.UTF_8);
+            Location l = e.getValue();
+            ByteBuffer entry = ByteBuffer.allocate(2 + id.length + 8 + 1 + 4 * 6)
+                    .putShort((short) id.length).put(id).putLong(l.offset).put((byte) l.flags)
+                    .putInt(l.idLength).putInt(l.metadataLength).putInt(l.headerLength)
+                    .putInt(l.bodyLength).putInt(l.headerRawLength).putInt(l.bodyRawLength);
+            bytes.write(entry.array(), 0, entry.position());
+        }
+        Path file = dir.resolve(segmentName(segment) + INDEX_SUFFIX);
+        Path tmp = dir.resolve(segmentName(segment) + INDEX_SUFFIX + ".tmp");
+        Files.write(tmp, bytes.toByteArray());
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Loads a sealed segment's saved locations; false when missing or not matching the segment. */
+    private boolean readIndex(int segment) {
+        Path file = dir.resolve(segmentName(segment) + INDEX_SUFFIX);
+        try {
+            if (!Files.exists(file)) return false;
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+            if (buffer.getInt() != INDEX_MAGIC || buffer.getLong() != Files.size(segmentPath(segment))) return false;
+            int count = buffer.getInt();
+            Map<String, Location> loaded = new LinkedHashMap<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                byte[] id = new byte[buffer.getShort()];
+                buffer.get(id);
+                loaded.put(new String(id, StandardCharsets.UTF_8), new Location(segment, buffer.getLong(), buffer.get(),
+                        buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt()));
+            }
+            loaded.forEach(this::put);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    private List<Integer> segmentNumbers() throws IOException {
+        if (!Files.isDirectory(dir)) return List.of();
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.map(p -> p.getFileName().toString())
+                    .filter(n -> n.startsWith("seg-") && n.endsWith(SUFFIX))
+                    .map(n -> Integer.parseInt(n.substring(4, n.length() - SUFFIX.length())))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private Path segmentPath(int segment) {
+        return dir.resolve(segmentName(segment) + SUFFIX);
+    }
+
+    private static String segmentName(int segment) {
+        return String.format("seg-%06d", segment);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (writer != null) {
+            writer.force(true);
+            writer.close();
+        }
+        for (FileChannel channel : readers.values()) channel.close();
+        readers.clear();
+    }
+
+    /** One stored document; the metadata is the JSON it was stored with. */
+    public record Document(String id, String metadataJson, String header, String body) {
+    }
+
+    private record Location(int segment, long offset, int flags, int idLength, int metadataLength,
+                            int headerLength, int bodyLength, int headerRawLength, int bodyRawLength) {
+
+        long length() {
+            return (long) RECORD_HEADER + idLength + metadataLength + headerLength + bodyLength + 4;
+        }
+
+        long rawTextLength() {
+            return (long) headerRawLength + bodyRawLength;
+        }
+
+        long storedTextLength() {
+            return (long) headerLength + bodyLength;
+        }
+    }
+
+    /** Positional reads of one region of a segment; the channel is shared, so no position is kept on it. */
+    private static final class RegionInputStream extends InputStream {
+
+        private final FileChannel channel;
+        private long position;
+        private final long end;
+
+        RegionInputStream(FileChannel channel, long position, long length) {
+            this.channel = channel;
+            this.position = position;
+            this.end = position + length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= end) return -1;
+            int n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+            if (n < 0) return -1;
+            position += n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package es.ulpgc.bigdata.index;
+
+import java.util.Map;
+
+import com.hazelcast.map.EntryProcessor;
+
+/**
+ * Merges one document into the posting lists of the keys it is executed on.
+ * Carries the term frequencies of a whole batch of terms, so a single processor instance can be
+ * shipped once per member with {@code IMap.submitToKeys}.
+ */
+public class AddPostings implements EntryProcessor<String, PostingList, Void> {
+
+    private final int ordinal;
+    private final Map<String, Integer> termFrequencies;
+
+    public AddPostings(int ordinal, Map<String, Integer> termFrequencies) {
+        this.ordinal = ordinal;
+        this.termFrequencies = termFrequencies;
+    }
+
+    @Override
+    public Void process(Map.Entry<String, PostingList> entry) {
+        Integer tf = termFrequencies.get(entry.getKey());
+        if (tf == null) return null;
+
+        PostingList list = entry.getValue();
+        if (list == null) list = new PostingList();
+        list.put(ordinal, tf);
+        entry.setValue(list);
+        return null;
+    }
+}
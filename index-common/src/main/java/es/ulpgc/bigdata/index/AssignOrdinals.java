@@ -0,0 +1,27 @@
+package es.ulpgc.bigdata.index;
+
+import java.util.Map;
+
+import com.hazelcast.map.EntryProcessor;
+
+/**
+ * Sets the candidate ordinal of each document ID it is executed on unless the document already has
+ * one, and returns the ordinal the document ends up with. The batched form of the put-if-absent in
+ * {@link DocumentDictionary#ordinalOf(String)}.
+ */
+public class AssignOrdinals implements EntryProcessor<String, Integer, Integer> {
+
+    private final Map<String, Integer> candidates;
+
+    public AssignOrdinals(Map<String, Integer> candidates) {
+        this.candidates = candidates;
+    }
+
+    @Override
+    public Integer process(Map.Entry<String, Integer> entry) {
+        if (entry.getValue() != null) return entry.getValue();
+        Integer candidate = candidates.get(entry.getKey());
+        if (candidate != null) entry.setValue(candidate);
+        return candidate;
+    }
+}
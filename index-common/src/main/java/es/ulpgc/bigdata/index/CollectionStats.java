@@ -0,0 +1,39 @@
+package es.ulpgc.bigdata.index;
+
+/**
+ * Global statistics of the indexed collection: number of documents (N) and total number of tokens,
+ * from which the average document length is derived. Lives under {@link #KEY} in the {@link #MAP}
+ * map and is only changed through {@link UpdateCollectionStats}, so concurrent indexers never lose
+ * an update.
+ */
+public class CollectionStats {
+
+    public static final String MAP = "index-stats";
+    public static final String KEY = "collection";
+
+    public static final CollectionStats EMPTY = new CollectionStats(0, 0);
+
+    private final long documents;
+    private final long totalLength;
+
+    public CollectionStats(long documents, long totalLength) {
+        this.documents = documents;
+        this.totalLength = totalLength;
+    }
+
+    public long getDocuments() {
+        return documents;
+    }
+
+    public long getTotalLength() {
+        return totalLength;
+    }
+
+    public double getAverageLength() {
+        return documents == 0 ? 0.0 : (double) totalLength / documents;
+    }
+
+    public CollectionStats plus(long documentsDelta, long lengthDelta) {
+        return new CollectionStats(Math.max(0, documents + documentsDelta), Math.max(0, totalLength + lengthDelta));
+    }
+}
@@ -0,0 +1,29 @@
+package es.ulpgc.bigdata.index;
+
+import com.hazelcast.nio.serialization.compact.CompactReader;
+import com.hazelcast.nio.serialization.compact.CompactSerializer;
+import com.hazelcast.nio.serialization.compact.CompactWriter;
+
+public class CollectionStatsSerializer implements CompactSerializer<CollectionStats> {
+
+    @Override
+    public CollectionStats read(CompactReader reader) {
+        return new CollectionStats(reader.readInt64("documents"), reader.readInt64("totalLength"));
+    }
+
+    @Override
+    public void write(CompactWriter writer, CollectionStats stats) {
+        writer.writeInt64("documents", stats.getDocuments());
+        writer.writeInt64("totalLength", stats.getTotalLength());
+    }
+
+    @Override
+    public String getTypeName() {
+        return "CollectionStats";
+    }
+
+    @Override
+    public Class<CollectionStats> getCompactClass() {
+        return CollectionStats.class;
+    }
+}
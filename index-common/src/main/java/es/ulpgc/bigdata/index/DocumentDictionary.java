@@ -0,0 +1,83 @@
+package es.ulpgc.bigdata.index;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.cp.IAtomicLong;
+import com.hazelcast.map.IMap;
+
+/**
+ * Maps document IDs to dense int ordinals (and back). Posting lists store ordinals only, which keeps
+ * them small and lets them be sorted and delta-encoded; IDs are resolved for the final hits only.
+ */
+public class DocumentDictionary {
+
+    /** CP counter the ordinals are allocated from. */
+    public static final String SEQUENCE = "doc-ordinal-seq";
+
+    private final IMap<String, Integer> ordinals;
+    private final IMap<Integer, String> documentIds;
+    private final IAtomicLong sequence;
+
+    public DocumentDictionary(HazelcastInstance hz) {
+        this.ordinals = hz.getMap("doc-ordinals");
+        this.documentIds = hz.getMap("doc-ids");
+        this.sequence = hz.getCPSubsystem().getAtomicLong(SEQUENCE);
+    }
+
+    /** Returns the ordinal of {@code documentId}, allocating the next free one on first use. */
+    public int ordinalOf(String documentId) {
+        Integer existing = ordinals.get(documentId);
+        if (existing != null) return existing;
+
+        int candidate = (int) sequence.getAndIncrement();
+        existing = ordinals.putIfAbsent(documentId, candidate);
+        if (existing != null) return existing; // lost the race, the candidate stays unused
+        documentIds.set(candidate, documentId);
+        return candidate;
+    }
+
+    /**
+     * Batched {@link #ordinalOf(String)}: one read for the known documents, one range of the sequence
+     * and one entry processor call for the new ones.
+     */
+    public Map<String, Integer> ordinalsOf(Collection<String> ids) {
+        Map<String, Integer> result = new HashMap<>(ordinals.getAll(new HashSet<>(ids)));
+        Map<String, Integer> candidates = new HashMap<>();
+        for (String id : ids) {
+            if (!result.containsKey(id)) candidates.put(id, 0);
+        }
+        if (candidates.isEmpty()) return result;
+
+        int next = (int) sequence.getAndAdd(candidates.size());
+        for (Map.Entry<String, Integer> e : candidates.entrySet()) {
+            e.setValue(next++);
+        }
+        Map<String, Integer> assigned = ordinals.executeOnKeys(candidates.keySet(), new AssignOrdinals(candidates));
+        Map<Integer, String> reverse = new HashMap<>();
+        for (Map.Entry<String, Integer> e : assigned.entrySet()) {
+            // a candidate that lost a race with ordinalOf stays unused
+            if (e.getValue().equals(candidates.get(e.getKey()))) reverse.put(e.getValue(), e.getKey());
+        }
+        documentIds.setAll(reverse);
+        result.putAll(assigned);
+        return result;
+    }
+
+    /** Ordinal of an already known document, or null. */
+    public Integer find(String documentId) {
+        return ordinals.get(documentId);
+    }
+
+    public String documentId(int ordinal) {
+        return documentIds.get(ordinal);
+    }
+
+    public Map<Integer, String> documentIds(Set<Integer> ordinalSet) {
+        return documentIds.getAll(ordinalSet);
+    }
+}
@@ -0,0 +1,133 @@
+package es.ulpgc.bigdata.index;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bibliographic metadata of an indexed document, as stored in the {@link #MAP} map.
+ * <p>
+ * Typed (and Compact-serialized through {@link DocumentMetadataSerializer}) rather than a free-form
+ * {@code Map<String, Object>}: field names live once in the schema instead of in every entry, and
+ * readers such as the search hit assembly get plain fields without walking a map.
+ */
+public class DocumentMetadata {
+
+    public static final String MAP = "metadata-index";
+
+    private String id;
+    private String title;
+    private String author;
+    private String language;
+    private String releaseDate;
+    private String sourceUrl;
+    private String timestamp;
+    private String path;
+
+    public DocumentMetadata() {
+    }
+
+    public DocumentMetadata(String id, String title, String path) {
+        this.id = id;
+        this.title = title;
+        this.path = path;
+    }
+
+    /** Builds the typed record from the JSON map produced by the ingestion service (metadata.json). */
+    public static DocumentMetadata fromMap(String id, Map<String, ?> raw) {
+        DocumentMetadata m = new DocumentMetadata();
+        m.id = id;
+        m.title = text(raw.get("title"));
+        m.author = text(raw.get("author"));
+        m.language = text(raw.get("language"));
+        m.releaseDate = text(raw.get("releaseDate"));
+        m.sourceUrl = text(raw.get("sourceUrl"));
+        m.timestamp = text(raw.get("timestamp"));
+        m.path = text(raw.get("path"));
+        return m;
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        putIfPresent(out, "id", id);
+        putIfPresent(out, "title", title);
+        putIfPresent(out, "author", author);
+        putIfPresent(out, "language", language);
+        putIfPresent(out, "releaseDate", releaseDate);
+        putIfPresent(out, "sourceUrl", sourceUrl);
+        putIfPresent(out, "timestamp", timestamp);
+        putIfPresent(out, "path", path);
+        return out;
+    }
+
+    private static String text(Object value) {
+        return value == null ? null : value.toString();
+    }
+
+    private static void putIfPresent(Map<String, Object> out, String key, String value) {
+        if (value != null) out.put(key, value);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getAuthor() {
+        return author;
+    }
+
+    public String getLanguage() {
+        return language;
+    }
+
+    public String getReleaseDate() {
+        return releaseDate;
+    }
+
+    public String getSourceUrl() {
+        return sourceUrl;
+    }
+
+    public String getTimestamp() {
+        return timestamp;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    public void setAuthor(String author) {
+        this.author = author;
+    }
+
+    public void setLanguage(String language) {
+        this.language = language;
+    }
+
+    public void setReleaseDate(String releaseDate) {
+        this.releaseDate = releaseDate;
+    }
+
+    public void setSourceUrl(String sourceUrl) {
+        this.sourceUrl = sourceUrl;
+    }
+
+    public void setTimestamp(String timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public void setPath(String path) {
+        this.path = path;
+    }
+}
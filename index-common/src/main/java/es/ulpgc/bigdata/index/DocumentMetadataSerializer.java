@@ -0,0 +1,44 @@
+package es.ulpgc.bigdata.index;
+
+import com.hazelcast.nio.serialization.compact.CompactReader;
+import com.hazelcast.nio.serialization.compact.CompactSerializer;
+import com.hazelcast.nio.serialization.compact.CompactWriter;
+
+public class DocumentMetadataSerializer implements CompactSerializer<DocumentMetadata> {
+
+    @Override
+    public DocumentMetadata read(CompactReader reader) {
+        DocumentMetadata m = new DocumentMetadata();
+        m.setId(reader.readString("id"));
+        m.setTitle(reader.readString("title"));
+        m.setAuthor(reader.readString("author"));
+        m.setLanguage(reader.readString("language"));
+        m.setReleaseDate(reader.readString("releaseDate"));
+        m.setSourceUrl(reader.readString("sourceUrl"));
+        m.setTimestamp(reader.readString("timestamp"));
+        m.setPath(reader.readString("path"));
+        return m;
+    }
+
+    @Override
+    public void write(CompactWriter writer, DocumentMetadata m) {
+        writer.writeString("id", m.getId());
+        writer.writeString("title", m.getTitle());
+        writer.writeString("author", m.getAuthor());
+        writer.writeString("language", m.getLanguage());
+        writer.writeString("releaseDate", m.getReleaseDate());
+        writer.writeString("sourceUrl", m.getSourceUrl());
+        writer.writeString("timestamp", m.getTimestamp());
+        writer.writeString("path", m.getPath());
+    }
+
+    @Override
+    public String getTypeName() {
+        return "DocumentMetadata";
+    }
+
+    @Override
+    public Class<DocumentMetadata> getCompactClass() {
+        return DocumentMetadata.class;
+    }
+}
@@ -0,0 +1,92 @@
+package es.ulpgc.bigdata.index;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Forward index entry: the terms of one document with their frequencies, stored under the document
+ * ID in {@link #MAP}. It is the inverse of the posting lists for that document, so deleting or
+ * reindexing a document only has to visit these terms instead of scanning the whole inverted index.
+ */
+public class DocumentTerms {
+
+    public static final String MAP = "doc-terms";
+
+    private final String[] terms;
+    private final int[] frequencies;
+
+    public DocumentTerms(String[] terms, int[] frequencies) {
+        this.terms = terms;
+        this.frequencies = frequencies;
+    }
+
+    public static DocumentTerms of(Map<String, Integer> termFrequencies) {
+        String[] terms = new String[termFrequencies.size()];
+        int[] frequencies = new int[terms.length];
+        int i = 0;
+        for (Map.Entry<String, Integer> e : termFrequencies.entrySet()) {
+            terms[i] = e.getKey();
+            frequencies[i++] = e.getValue();
+        }
+        return new DocumentTerms(terms, frequencies);
+    }
+
+    public String[] getTerms() {
+        return terms;
+    }
+
+    public int[] getFrequencies() {
+        return frequencies;
+    }
+
+    public int size() {
+        return terms.length;
+    }
+
+    public Map<String, Integer> toMap() {
+        Map<String, Integer> out = new HashMap<>(terms.length * 2);
+        for (int i = 0; i < terms.length; i++) {
+            out.put(terms[i], frequencies[i]);
+        }
+        return out;
+    }
+
+    /** Order-independent hash of the (term, tf) pairs; equal for equal contents. */
+    public long fingerprint() {
+        long h = 0;
+        for (int i = 0; i < terms.length; i++) {
+            h += mix(terms[i], frequencies[i]);
+        }
+        return h;
+    }
+
+    public static long fingerprint(Map<String, Integer> termFrequencies) {
+        long h = 0;
+        for (Map.Entry<String, Integer> e : termFrequencies.entrySet()) {
+            h += mix(e.getKey(), e.getValue());
+        }
+        return h;
+    }
+
+    // murmur3 finalizer over (term hash, tf), so that summing the pairs does not cancel out
+    private static long mix(String term, int tf) {
+        long h = ((long) term.hashCode() << 32) ^ tf;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /** Terms of this document that {@code next} no longer contains. */
+    public Set<String> missingFrom(Map<String, Integer> next) {
+        Set<String> out = new HashSet<>();
+        for (String term : terms) {
+            if (!next.containsKey(term)) out.add(term);
+        }
+        return out;
+    }
+}
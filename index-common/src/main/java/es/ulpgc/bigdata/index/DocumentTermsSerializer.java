@@ -0,0 +1,29 @@
+package es.ulpgc.bigdata.index;
+
+import com.hazelcast.nio.serialization.compact.CompactReader;
+import com.hazelcast.nio.serialization.compact.CompactSerializer;
+import com.hazelcast.nio.serialization.compact.CompactWriter;
+
+public class DocumentTermsSerializer implements CompactSerializer<DocumentTerms> {
+
+    @Override
+    public DocumentTerms read(CompactReader reader) {
+        return new DocumentTerms(reader.readArrayOfString("terms"), reader.readArrayOfInt32("frequencies"));
+    }
+
+    @Override
+    public void write(CompactWriter writer, DocumentTerms entry) {
+        writer.writeArrayOfString("terms", entry.getTerms());
+        writer.writeArrayOfInt32("frequencies", entry.getFrequencies());
+    }
+
+    @Override
+    public String getTypeName() {
+        return "DocumentTerms";
+    }
+
+    @Override
+    public Class<DocumentTerms> getCompactClass() {
+        return DocumentTerms.class;
+    }
+}
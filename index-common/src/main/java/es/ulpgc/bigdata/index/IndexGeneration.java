@@ -0,0 +1,28 @@
+package es.ulpgc.bigdata.index;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.cp.IAtomicLong;
+
+/**
+ * Monotonic counter bumped by the indexing service every time the set of indexed documents changes.
+ * Readers that cache anything derived from the index (e.g. query results) only need to compare one
+ * number to know whether their copy is still valid.
+ */
+public class IndexGeneration {
+
+    public static final String NAME = "index-generation";
+
+    private final IAtomicLong counter;
+
+    public IndexGeneration(HazelcastInstance hz) {
+        this.counter = hz.getCPSubsystem().getAtomicLong(NAME);
+    }
+
+    public long current() {
+        return counter.get();
+    }
+
+    public long bump() {
+        return counter.incrementAndGet();
+    }
+}
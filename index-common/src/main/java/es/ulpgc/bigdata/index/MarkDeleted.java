@@ -0,0 +1,34 @@
+package es.ulpgc.bigdata.index;
+
+import java.util.Map;
+
+import com.hazelcast.map.EntryProcessor;
+
+/**
+ * Marks documents as deleted in the segment catalog entries it is executed on (only where the segment
+ * contains them), optionally sealing the segment in the same update.
+ */
+public class MarkDeleted implements EntryProcessor<String, SegmentInfo, Boolean> {
+
+    private final int[] ordinals;
+    private final boolean seal;
+
+    public MarkDeleted(int[] ordinals) {
+        this(ordinals, false);
+    }
+
+    public MarkDeleted(int[] ordinals, boolean seal) {
+        this.ordinals = ordinals;
+        this.seal = seal;
+    }
+
+    @Override
+    public Boolean process(Map.Entry<String, SegmentInfo> entry) {
+        SegmentInfo info = entry.getValue();
+        if (info == null) return false;
+        SegmentInfo updated = info.withDeleted(ordinals, seal);
+        if (updated == info) return false;
+        entry.setValue(updated);
+        return true;
+    }
+}
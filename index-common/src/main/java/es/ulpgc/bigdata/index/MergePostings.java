@@ -0,0 +1,54 @@
+package es.ulpgc.bigdata.index;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.hazelcast.map.EntryProcessor;
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.DataSerializable;
+
+/**
+ * Merges whole posting lists (many documents per term) into the keys it is executed on; for a
+ * document already present the incoming posting wins. Used by bulk builds, where {@link AddPostings}
+ * would cost one operation per document. The lists travel in their compressed form.
+ */
+public class MergePostings implements EntryProcessor<String, PostingList, Void>, DataSerializable {
+
+    private Map<String, PostingList> postings;
+
+    public MergePostings() {
+    }
+
+    public MergePostings(Map<String, PostingList> postings) {
+        this.postings = postings;
+    }
+
+    @Override
+    public Void process(Map.Entry<String, PostingList> entry) {
+        PostingList incoming = postings.get(entry.getKey());
+        if (incoming == null || incoming.isEmpty()) return null;
+        entry.setValue(SegmentSet.combine(Arrays.asList(entry.getValue(), incoming)));
+        return null;
+    }
+
+    @Override
+    public void writeData(ObjectDataOutput out) throws IOException {
+        out.writeInt(postings.size());
+        for (Map.Entry<String, PostingList> e : postings.entrySet()) {
+            out.writeString(e.getKey());
+            e.getValue().writeTo(out);
+        }
+    }
+
+    @Override
+    public void readData(ObjectDataInput in) throws IOException {
+        int n = in.readInt();
+        postings = new HashMap<>(n * 2);
+        for (int i = 0; i < n; i++) {
+            postings.put(in.readString(), PostingList.readFrom(in));
+        }
+    }
+}
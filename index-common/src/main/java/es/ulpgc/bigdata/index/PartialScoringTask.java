@@ -0,0 +1,107 @@
+package es.ulpgc.bigdata.index;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.HazelcastInstanceAware;
+import com.hazelcast.map.IMap;
+
+/**
+ * Runs on the member that owns some of the query terms and scores only those terms' postings, which
+ * are read locally instead of being shipped to the search service. Three modes, used by the
+ * coordinator's three-phase merge:
+ * <ul>
+ *     <li>{@link #topK}: the member's best {@code k} documents by partial score;</li>
+ *     <li>{@link #atLeast}: every document whose partial score is {@code >= threshold};</li>
+ *     <li>{@link #exact}: the partial score of the given ordinals.</li>
+ * </ul>
+ */
+public class PartialScoringTask implements Callable<List<ScoredDocument>>, HazelcastInstanceAware, Serializable {
+
+    private final Map<String, Integer> queryTf;
+    private final long totalDocs;
+    private final int k;
+    private final double threshold;
+    private final int[] ordinals;
+
+    private transient HazelcastInstance hz;
+
+    private PartialScoringTask(Map<String, Integer> queryTf, long totalDocs, int k, double threshold, int[] ordinals) {
+        this.queryTf = new HashMap<>(queryTf);
+        this.totalDocs = totalDocs;
+        this.k = k;
+        this.threshold = threshold;
+        this.ordinals = ordinals;
+    }
+
+    public static PartialScoringTask topK(Map<String, Integer> queryTf, long totalDocs, int k) {
+        return new PartialScoringTask(queryTf, totalDocs, k, 0.0, null);
+    }
+
+    public static PartialScoringTask atLeast(Map<String, Integer> queryTf, long totalDocs, double threshold) {
+        return new PartialScoringTask(queryTf, totalDocs, 0, threshold, null);
+    }
+
+    /** {@code sortedOrdinals} must be in ascending order. */
+    public static PartialScoringTask exact(Map<String, Integer> queryTf, long totalDocs, int[] sortedOrdinals) {
+        return new PartialScoringTask(queryTf, totalDocs, 0, 0.0, sortedOrdinals);
+    }
+
+    @Override
+    public void setHazelcastInstance(HazelcastInstance hazelcastInstance) {
+        this.hz = hazelcastInstance;
+    }
+
+    @Override
+    public List<ScoredDocument> call() {
+        IMap<String, PostingList> invertedIndex = hz.getMap("inverted-index");
+
+        List<TopKScorer.Term> terms = new ArrayList<>();
+        for (Map.Entry<String, Integer> e : queryTf.entrySet()) {
+            PostingList postings = invertedIndex.get(e.getKey());
+            if (postings == null || postings.isEmpty()) continue;
+            terms.add(new TopKScorer.Term(postings, TfIdf.idf(totalDocs, postings.size()), TfIdf.queryWeight(e.getValue())));
+        }
+        if (terms.isEmpty()) return List.of();
+
+        if (ordinals != null) return scoreOrdinals(terms);
+        if (k > 0) return TopKScorer.topK(terms, k);
+        return scoreAtLeast(terms);
+    }
+
+    private List<ScoredDocument> scoreOrdinals(List<TopKScorer.Term> terms) {
+        double[] scores = new double[ordinals.length];
+        for (TopKScorer.Term term : terms) {
+            PostingList.Cursor c = term.postings().cursor();
+            for (int i = 0; i < ordinals.length; i++) {
+                if (!c.advance(ordinals[i])) break;
+                if (c.ordinal() == ordinals[i]) scores[i] += term.score(c.tf());
+            }
+        }
+        List<ScoredDocument> out = new ArrayList<>(ordinals.length);
+        for (int i = 0; i < ordinals.length; i++) {
+            out.add(new ScoredDocument(ordinals[i], scores[i]));
+        }
+        return out;
+    }
+
+    private List<ScoredDocument> scoreAtLeast(List<TopKScorer.Term> terms) {
+        Map<Integer, Double> scores = new HashMap<>();
+        for (TopKScorer.Term term : terms) {
+            PostingList.Cursor c = term.postings().cursor();
+            while (c.next()) {
+                scores.merge(c.ordinal(), term.score(c.tf()), Double::sum);
+            }
+        }
+        List<ScoredDocument> out = new ArrayList<>();
+        for (Map.Entry<Integer, Double> e : scores.entrySet()) {
+            if (e.getValue() >= threshold) out.add(new ScoredDocument(e.getKey(), e.getValue()));
+        }
+        return out;
+    }
+}
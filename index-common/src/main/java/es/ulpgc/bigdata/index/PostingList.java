@@ -0,0 +1,308 @@
+package es.ulpgc.bigdata.index;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Posting list of a single term, stored as (document ordinal, tf) pairs sorted by ordinal.
+ * <p>
+ * Pairs are grouped in blocks of {@link #BLOCK_SIZE}; inside a block each ordinal is written as the
+ * delta to the previous one, and both delta and tf are variable-byte encoded (7 bits per byte, high
+ * bit set on all bytes but the last). A small skip table keeps the byte offset and last ordinal of
+ * every block, so a reader can jump to a block without decoding the ones before it. The highest tf
+ * of the list is kept as well; it bounds the score any document can get from this term.
+ * <p>
+ * Instances are mutated only inside entry processors (partition thread); readers get their own copy.
+ */
+public class PostingList {
+
+    public static final int BLOCK_SIZE = 128;
+
+    private int size;
+    private int maxTf;
+    private byte[] data;
+    private int length;
+    private int[] blockOffset;
+    private int[] blockLast;
+
+    public PostingList() {
+        this(0, 0, new byte[16], 0, new int[1], new int[1]);
+    }
+
+    PostingList(int size, int maxTf, byte[] data, int length, int[] blockOffset, int[] blockLast) {
+        this.size = size;
+        this.maxTf = maxTf;
+        this.data = data;
+        this.length = length;
+        this.blockOffset = blockOffset;
+        this.blockLast = blockLast;
+    }
+
+    public static PostingList fromSorted(int[] ordinals, int[] tfs, int count) {
+        PostingList list = new PostingList();
+        for (int i = 0; i < count; i++) {
+            list.append(ordinals[i], tfs[i]);
+        }
+        return list;
+    }
+
+    /** Number of postings, i.e. the document frequency of the term. */
+    public int size() {
+        return size;
+    }
+
+    /** Highest term frequency in the list (0 when empty). */
+    public int maxTf() {
+        return maxTf;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int blocks() {
+        return (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    }
+
+    /** Encoded size of the postings in bytes (what travels over the wire, plus the skip table). */
+    public int byteSize() {
+        return length + blocks() * 8;
+    }
+
+    /** Adds or replaces the posting of {@code ordinal}. Appending a new highest ordinal is O(1). */
+    public void put(int ordinal, int tf) {
+        if (size == 0 || ordinal > blockLast[blocks() - 1]) {
+            append(ordinal, tf);
+            return;
+        }
+        int[][] all = decode();
+        int[] ords = all[0];
+        int[] freqs = all[1];
+        int pos = Arrays.binarySearch(ords, 0, size, ordinal);
+        if (pos >= 0) {
+            freqs[pos] = tf;
+            rebuild(ords, freqs, size);
+            return;
+        }
+        int insert = -pos - 1;
+        int[] newOrds = new int[size + 1];
+        int[] newTfs = new int[size + 1];
+        System.arraycopy(ords, 0, newOrds, 0, insert);
+        System.arraycopy(freqs, 0, newTfs, 0, insert);
+        newOrds[insert] = ordinal;
+        newTfs[insert] = tf;
+        System.arraycopy(ords, insert, newOrds, insert + 1, size - insert);
+        System.arraycopy(freqs, insert, newTfs, insert + 1, size - insert);
+        rebuild(newOrds, newTfs, size + 1);
+    }
+
+    /** Removes the posting of {@code ordinal}; returns false if it was not present. */
+    public boolean remove(int ordinal) {
+        if (size == 0 || ordinal > blockLast[blocks() - 1]) return false;
+        int[][] all = decode();
+        int pos = Arrays.binarySearch(all[0], 0, size, ordinal);
+        if (pos < 0) return false;
+        int n = size;
+        System.arraycopy(all[0], pos + 1, all[0], pos, n - pos - 1);
+        System.arraycopy(all[1], pos + 1, all[1], pos, n - pos - 1);
+        rebuild(all[0], all[1], n - 1);
+        return true;
+    }
+
+    /**
+     * Removes the postings of all {@code sortedOrdinals} (ascending) with a single decode and rebuild;
+     * returns how many of them were present.
+     */
+    public int removeAll(int[] sortedOrdinals) {
+        if (size == 0 || sortedOrdinals.length == 0) return 0;
+        int[][] all = decode();
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (Arrays.binarySearch(sortedOrdinals, all[0][i]) < 0) {
+                all[0][kept] = all[0][i];
+                all[1][kept++] = all[1][i];
+            }
+        }
+        int removed = size - kept;
+        if (removed > 0) rebuild(all[0], all[1], kept);
+        return removed;
+    }
+
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    private void append(int ordinal, int tf) {
+        int block = size / BLOCK_SIZE;
+        int previous;
+        if (size % BLOCK_SIZE == 0) {
+            // first posting of a new block: register it in the skip table
+            if (block == blockOffset.length) {
+                blockOffset = Arrays.copyOf(blockOffset, block * 2);
+                blockLast = Arrays.copyOf(blockLast, block * 2);
+            }
+            blockOffset[block] = length;
+            previous = block == 0 ? -1 : blockLast[block - 1];
+        } else {
+            previous = blockLast[block];
+        }
+        ensureCapacity(10);
+        writeVInt(ordinal - previous);
+        writeVInt(tf);
+        blockLast[block] = ordinal;
+        maxTf = Math.max(maxTf, tf);
+        size++;
+    }
+
+    private void rebuild(int[] ords, int[] tfs, int count) {
+        size = 0;
+        maxTf = 0;
+        length = 0;
+        for (int i = 0; i < count; i++) {
+            append(ords[i], tfs[i]);
+        }
+    }
+
+    private int[][] decode() {
+        int[] ords = new int[size];
+        int[] tfs = new int[size];
+        Cursor c = cursor();
+        for (int i = 0; c.next(); i++) {
+            ords[i] = c.ordinal();
+            tfs[i] = c.tf();
+        }
+        return new int[][]{ords, tfs};
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, length + extra));
+        }
+    }
+
+    private void writeVInt(int value) {
+        while ((value & ~0x7F) != 0) {
+            data[length++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        data[length++] = (byte) value;
+    }
+
+    /**
+     * Writes the list as size, maxTf, block count, data length, the skip table and the compressed
+     * blocks; the layout of segment and snapshot files.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        int blocks = blocks();
+        out.writeInt(size);
+        out.writeInt(maxTf);
+        out.writeInt(blocks);
+        out.writeInt(length);
+        for (int i = 0; i < blocks; i++) out.writeInt(blockOffset[i]);
+        for (int i = 0; i < blocks; i++) out.writeInt(blockLast[i]);
+        out.write(data, 0, length);
+    }
+
+    public static PostingList readFrom(DataInput in) throws IOException {
+        int size = in.readInt();
+        int maxTf = in.readInt();
+        int blocks = in.readInt();
+        byte[] data = new byte[in.readInt()];
+        int[] blockOffset = new int[blocks];
+        int[] blockLast = new int[blocks];
+        for (int i = 0; i < blocks; i++) blockOffset[i] = in.readInt();
+        for (int i = 0; i < blocks; i++) blockLast[i] = in.readInt();
+        in.readFully(data);
+        return decoded(size, maxTf, data, blockOffset, blockLast);
+    }
+
+    // ---- accessors used by PostingListSerializer and the segment files ----
+
+    byte[] encodedData() {
+        return Arrays.copyOf(data, length);
+    }
+
+    int[] blockOffsets() {
+        return Arrays.copyOf(blockOffset, blocks());
+    }
+
+    int[] blockLastOrdinals() {
+        return Arrays.copyOf(blockLast, blocks());
+    }
+
+    static PostingList decoded(int size, int maxTf, byte[] data, int[] blockOffset, int[] blockLast) {
+        int[] offsets = blockOffset.length == 0 ? new int[1] : blockOffset;
+        int[] lasts = blockLast.length == 0 ? new int[1] : blockLast;
+        return new PostingList(size, maxTf, data, data.length, offsets, lasts);
+    }
+
+    /** Forward-only iterator over the postings, in ordinal order. */
+    public final class Cursor {
+
+        private int index = -1;
+        private int offset;
+        private int ordinal = -1;
+        private int tf;
+
+        public boolean next() {
+            if (index + 1 >= size) {
+                index = size;
+                return false;
+            }
+            index++;
+            ordinal += readVInt();
+            tf = readVInt();
+            return true;
+        }
+
+        /**
+         * Moves to the first posting whose ordinal is {@code >= target}, skipping whole blocks through
+         * the skip table. Returns false when the list is exhausted.
+         */
+        public boolean advance(int target) {
+            if (index >= 0 && index < size && ordinal >= target) return true;
+            if (index >= size) return false;
+
+            int block = Math.max(index, 0) / BLOCK_SIZE;
+            if (blockLast[block] < target) {
+                int blocks = blocks();
+                int b = block + 1;
+                while (b < blocks && blockLast[b] < target) b++;
+                if (b >= blocks) {
+                    index = size;
+                    return false;
+                }
+                // position right before the first posting of block b
+                index = b * BLOCK_SIZE - 1;
+                offset = blockOffset[b];
+                ordinal = blockLast[b - 1];
+            }
+            while (next()) {
+                if (ordinal >= target) return true;
+            }
+            return false;
+        }
+
+        public int ordinal() {
+            return ordinal;
+        }
+
+        public int tf() {
+            return tf;
+        }
+
+        private int readVInt() {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[offset++];
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package es.ulpgc.bigdata.index;
+
+import com.hazelcast.nio.serialization.compact.CompactReader;
+import com.hazelcast.nio.serialization.compact.CompactSerializer;
+import com.hazelcast.nio.serialization.compact.CompactWriter;
+
+/**
+ * Compact serializer for {@link PostingList}: the already compressed blocks and the skip table are
+ * written as raw arrays, so (de)serializing a posting list is a couple of array copies.
+ * Must be registered in every member and client config (see HazelcastIndexProvider,
+ * HazelcastClientProvider and hazelcast/hazelcast.yaml).
+ */
+public class PostingListSerializer implements CompactSerializer<PostingList> {
+
+    public static final String TYPE_NAME = "PostingList";
+
+    @Override
+    public PostingList read(CompactReader reader) {
+        return PostingList.decoded(
+                reader.readInt32("size"),
+                reader.readInt32("maxTf"),
+                reader.readArrayOfInt8("data"),
+                reader.readArrayOfInt32("blockOffset"),
+                reader.readArrayOfInt32("blockLast"));
+    }
+
+    @Override
+    public void write(CompactWriter writer, PostingList list) {
+        writer.writeInt32("size", list.size());
+        writer.writeInt32("maxTf", list.maxTf());
+        writer.writeArrayOfInt8("data", list.encodedData());
+        writer.writeArrayOfInt32("blockOffset", list.blockOffsets());
+        writer.writeArrayOfInt32("blockLast", list.blockLastOrdinals());
+    }
+
+    @Override
+    public String getTypeName() {
+        return TYPE_NAME;
+    }
+
+    @Override
+    public Class<PostingList> getCompactClass() {
+        return PostingList.class;
+    }
+}
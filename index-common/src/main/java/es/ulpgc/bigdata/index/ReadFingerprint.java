@@ -0,0 +1,24 @@
+package es.ulpgc.bigdata.index;
+
+import java.util.Map;
+
+import com.hazelcast.core.ReadOnly;
+import com.hazelcast.map.EntryProcessor;
+
+/**
+ * Returns {@link DocumentTerms#fingerprint()} of the forward index entries it runs on, so a caller can
+ * tell whether a document changed without pulling its whole term list over the network.
+ */
+public class ReadFingerprint implements EntryProcessor<String, DocumentTerms, Long>, ReadOnly {
+
+    @Override
+    public Long process(Map.Entry<String, DocumentTerms> entry) {
+        DocumentTerms terms = entry.getValue();
+        return terms == null ? null : terms.fingerprint();
+    }
+
+    @Override
+    public EntryProcessor<String, DocumentTerms, Long> getBackupProcessor() {
+        return null;
+    }
+}
@@ -0,0 +1,30 @@
+package es.ulpgc.bigdata.index;
+
+import java.util.Map;
+
+import com.hazelcast.map.EntryProcessor;
+
+/** Drops documents from the posting lists it is executed on, deleting lists that become empty. */
+public class RemovePosting implements EntryProcessor<String, PostingList, Boolean> {
+
+    private final int[] ordinals;
+
+    public RemovePosting(int ordinal) {
+        this(new int[]{ordinal});
+    }
+
+    /** @param ordinals sorted ascending; ordinals missing from a list are ignored */
+    public RemovePosting(int[] ordinals) {
+        this.ordinals = ordinals;
+    }
+
+    @Override
+    public Boolean process(Map.Entry<String, PostingList> entry) {
+        PostingList list = entry.getValue();
+        if (list == null) return false;
+        boolean changed = ordinals.length == 1 ? list.remove(ordinals[0]) : list.removeAll(ordinals) > 0;
+        if (!changed) return false;
+        entry.setValue(list.isEmpty() ? null : list);
+        return true;
+    }
+}
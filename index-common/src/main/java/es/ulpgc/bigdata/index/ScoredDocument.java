@@ -0,0 +1,7 @@
+package es.ulpgc.bigdata.index;
+
+import java.io.Serializable;
+
+/** A document ordinal with its query score. */
+public record ScoredDocument(int ordinal, double score) implements Serializable {
+}
@@ -0,0 +1,117 @@
+package es.ulpgc.bigdata.index;
+
+import java.util.Arrays;
+
+/**
+ * Catalog entry of one immutable segment file, stored under {@link #getName()} in the {@link #MAP}
+ * map. The segment itself never changes; deleting or replacing one of its documents only adds the
+ * ordinal to {@code deleted} (see {@link MarkDeleted}), and readers drop those postings.
+ * <p>
+ * A segment is {@code sealed} once the indexer that flushed it has handed its documents off from the
+ * in-memory index; only sealed segments are merged.
+ */
+public class SegmentInfo {
+
+    public static final String MAP = "segment-catalog";
+    public static final String FILE_SUFFIX = ".seg";
+    /** CP counter segment sequence numbers are allocated from. */
+    public static final String SEQUENCE = "segment-seq";
+
+    private final String name;
+    private final long sequence;
+    private final long bytes;
+    private final int[] ordinals;
+    private final int[] deleted;
+    private final boolean sealed;
+
+    /**
+     * @param sequence cluster-wide creation order; where two segments hold the same live document, the
+     *                 higher sequence is the newer copy
+     * @param ordinals documents in the segment, sorted ascending
+     * @param deleted  sorted subset of {@code ordinals}
+     */
+    public SegmentInfo(String name, long sequence, long bytes, int[] ordinals, int[] deleted, boolean sealed) {
+        this.name = name;
+        this.sequence = sequence;
+        this.bytes = bytes;
+        this.ordinals = ordinals;
+        this.deleted = deleted;
+        this.sealed = sealed;
+    }
+
+    public static String name(long sequence) {
+        return String.format("seg-%012d", sequence);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String fileName() {
+        return name + FILE_SUFFIX;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public int[] getOrdinals() {
+        return ordinals;
+    }
+
+    public int[] getDeleted() {
+        return deleted;
+    }
+
+    public boolean isSealed() {
+        return sealed;
+    }
+
+    public int documents() {
+        return ordinals.length;
+    }
+
+    public int liveDocuments() {
+        return ordinals.length - deleted.length;
+    }
+
+    public double deletedRatio() {
+        return ordinals.length == 0 ? 0.0 : (double) deleted.length / ordinals.length;
+    }
+
+    /** Estimated size of the live postings, assuming deleted documents were average sized. */
+    public long liveBytes() {
+        return (long) (bytes * (1.0 - deletedRatio()));
+    }
+
+    public boolean contains(int ordinal) {
+        return Arrays.binarySearch(ordinals, ordinal) >= 0;
+    }
+
+    public boolean isDeleted(int ordinal) {
+        return Arrays.binarySearch(deleted, ordinal) >= 0;
+    }
+
+    /** Live ordinals, sorted. */
+    public int[] liveOrdinals() {
+        if (deleted.length == 0) return ordinals;
+        return Arrays.stream(ordinals).filter(o -> !isDeleted(o)).toArray();
+    }
+
+    /**
+     * Copy with the given ordinals (sorted or not) added to {@code deleted}, ignoring those the
+     * segment does not contain; returns {@code this} when nothing changes.
+     */
+    public SegmentInfo withDeleted(int[] more, boolean seal) {
+        int[] added = Arrays.stream(more).filter(o -> contains(o) && !isDeleted(o)).distinct().toArray();
+        if (added.length == 0 && (sealed || !seal)) return this;
+        int[] merged = Arrays.copyOf(deleted, deleted.length + added.length);
+        System.arraycopy(added, 0, merged, deleted.length, added.length);
+        Arrays.sort(merged);
+        return new SegmentInfo(name, sequence, bytes, ordinals, merged, sealed || seal);
+    }
+}
@@ -0,0 +1,39 @@
+package es.ulpgc.bigdata.index;
+
+import com.hazelcast.nio.serialization.compact.CompactReader;
+import com.hazelcast.nio.serialization.compact.CompactSerializer;
+import com.hazelcast.nio.serialization.compact.CompactWriter;
+
+public class SegmentInfoSerializer implements CompactSerializer<SegmentInfo> {
+
+    @Override
+    public SegmentInfo read(CompactReader reader) {
+        return new SegmentInfo(
+                reader.readString("name"),
+                reader.readInt64("sequence"),
+                reader.readInt64("bytes"),
+                reader.readArrayOfInt32("ordinals"),
+                reader.readArrayOfInt32("deleted"),
+                reader.readBoolean("sealed"));
+    }
+
+    @Override
+    public void write(CompactWriter writer, SegmentInfo info) {
+        writer.writeString("name", info.getName());
+        writer.writeInt64("sequence", info.getSequence());
+        writer.writeInt64("bytes", info.getBytes());
+        writer.writeArrayOfInt32("ordinals", info.getOrdinals());
+        writer.writeArrayOfInt32("deleted", info.getDeleted());
+        writer.writeBoolean("sealed", info.isSealed());
+    }
+
+    @Override
+    public String getTypeName() {
+        return "SegmentInfo";
+    }
+
+    @Override
+    public Class<SegmentInfo> getCompactClass() {
+        return SegmentInfo.class;
+    }
+}
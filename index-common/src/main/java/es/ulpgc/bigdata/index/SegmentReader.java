@@ -0,0 +1,189 @@
+package es.ulpgc.bigdata.index;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Read-only, memory-mapped view of a segment written by {@link SegmentWriter}. The file is checked
+ * against its CRC once when opened; after that a lookup binary-searches the sparse index kept on the
+ * heap and scans at most {@link SegmentWriter#SPARSE_INTERVAL} dictionary entries in the mapping,
+ * comparing UTF-8 bytes in place. Only absolute reads are used, so one reader is shared by all threads.
+ * <p>
+ * There is nothing to close: the channel is closed once mapped, and the mapping is released by the
+ * garbage collector when the last reference to the reader goes away. Unmapping it explicitly while a
+ * lookup could still be reading it would crash the JVM.
+ */
+public class SegmentReader {
+
+    private final Path file;
+    private final ByteBuffer buffer;
+    private final int termCount;
+    private final int dictionaryOffset;
+    private final byte[][] sparseTerms;
+    private final int[] sparseOffsets;
+    private final int[] ordinals;
+
+    private SegmentReader(Path file, ByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.buffer = buffer;
+
+        int size = buffer.capacity();
+        if (size < 8 + SegmentWriter.FOOTER_BYTES
+                || buffer.getInt(0) != SegmentWriter.MAGIC || buffer.getInt(size - 4) != SegmentWriter.MAGIC) {
+            throw new IOException("Not a segment file: " + file);
+        }
+        if (buffer.getInt(4) != SegmentWriter.VERSION) {
+            throw new IOException("Unsupported segment version " + buffer.getInt(4) + ": " + file);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.slice(0, size - 12));
+        if (crc.getValue() != buffer.getLong(size - 12)) {
+            throw new IOException("Segment checksum mismatch: " + file);
+        }
+
+        int footer = size - SegmentWriter.FOOTER_BYTES;
+        this.termCount = buffer.getInt(footer);
+        this.dictionaryOffset = buffer.getInt(footer + 4);
+        int sparseOffset = buffer.getInt(footer + 8);
+        int ordinalsOffset = buffer.getInt(footer + 12);
+
+        int samples = buffer.getInt(sparseOffset);
+        this.sparseOffsets = new int[samples];
+        this.sparseTerms = new byte[samples][];
+        for (int i = 0; i < samples; i++) {
+            int entry = buffer.getInt(sparseOffset + 4 + 4 * i);
+            sparseOffsets[i] = entry;
+            sparseTerms[i] = termAt(entry);
+        }
+
+        this.ordinals = new int[buffer.getInt(ordinalsOffset)];
+        for (int i = 0; i < ordinals.length; i++) {
+            ordinals[i] = buffer.getInt(ordinalsOffset + 4 + 4 * i);
+        }
+    }
+
+    public static SegmentReader open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) throw new IOException("Segment larger than 2 GB: " + file);
+            // the mapping stays valid after the channel is closed (and after the file is deleted)
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new SegmentReader(file, mapped);
+        }
+    }
+
+    public Path file() {
+        return file;
+    }
+
+    public int termCount() {
+        return termCount;
+    }
+
+    /** Sorted ordinals of the documents written to this segment, deleted ones included. */
+    public int[] ordinals() {
+        return ordinals;
+    }
+
+    /** A fresh copy of the postings of {@code term}, or null when the segment does not contain it. */
+    public PostingList postings(String term) {
+        return postings(term.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public PostingList postings(byte[] term) {
+        // last sample <= term
+        int lo = 0;
+        int hi = sparseTerms.length - 1;
+        int block = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = Arrays.compareUnsigned(sparseTerms[mid], term);
+            if (cmp == 0) return postingsAt(buffer.getInt(sparseOffsets[mid] + 2 + term.length));
+            if (cmp < 0) {
+                block = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        if (block < 0) return null;
+
+        int entry = sparseOffsets[block];
+        int last = Math.min(termCount, (block + 1) * SegmentWriter.SPARSE_INTERVAL);
+        for (int i = block * SegmentWriter.SPARSE_INTERVAL; i < last; i++) {
+            int length = Short.toUnsignedInt(buffer.getShort(entry));
+            int cmp = compareAt(entry + 2, length, term);
+            if (cmp == 0) return postingsAt(buffer.getInt(entry + 2 + length));
+            if (cmp > 0) return null;
+            entry += 2 + length + 4;
+        }
+        return null;
+    }
+
+    /** Iterates over all terms in byte order, for merges. */
+    public TermCursor terms() {
+        return new TermCursor();
+    }
+
+    private PostingList postingsAt(int offset) {
+        int size = buffer.getInt(offset);
+        int maxTf = buffer.getInt(offset + 4);
+        int blocks = buffer.getInt(offset + 8);
+        int dataLength = buffer.getInt(offset + 12);
+        int p = offset + 16;
+        int[] blockOffset = new int[blocks];
+        int[] blockLast = new int[blocks];
+        for (int i = 0; i < blocks; i++, p += 4) blockOffset[i] = buffer.getInt(p);
+        for (int i = 0; i < blocks; i++, p += 4) blockLast[i] = buffer.getInt(p);
+        byte[] data = new byte[dataLength];
+        buffer.get(p, data);
+        return PostingList.decoded(size, maxTf, data, blockOffset, blockLast);
+    }
+
+    private byte[] termAt(int entry) {
+        byte[] term = new byte[Short.toUnsignedInt(buffer.getShort(entry))];
+        buffer.get(entry + 2, term);
+        return term;
+    }
+
+    private int compareAt(int offset, int length, byte[] term) {
+        int n = Math.min(length, term.length);
+        for (int i = 0; i < n; i++) {
+            int cmp = Byte.toUnsignedInt(buffer.get(offset + i)) - Byte.toUnsignedInt(term[i]);
+            if (cmp != 0) return cmp;
+        }
+        return length - term.length;
+    }
+
+    /** Forward-only cursor over (term, postings) in dictionary order. */
+    public final class TermCursor {
+
+        private int index = -1;
+        private int entry = dictionaryOffset;
+        private byte[] term;
+        private int postingsOffset;
+
+        public boolean next() {
+            if (index + 1 >= termCount) return false;
+            if (term != null) entry += 2 + term.length + 4;
+            index++;
+            term = termAt(entry);
+            postingsOffset = buffer.getInt(entry + 2 + term.length);
+            return true;
+        }
+
+        public byte[] term() {
+            return term;
+        }
+
+        public PostingList postings() {
+            return postingsAt(postingsOffset);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package es.ulpgc.bigdata.index;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The segments of the catalog opened from a local directory, oldest first. {@link #refresh} is called
+ * with the current catalog entries: new segments are opened, dropped ones are no longer referenced,
+ * and the deleted documents of the others updated. Lookups see a consistent list of segments without
+ * locking. The mapping of a dropped segment is released by the garbage collector once no lookup still
+ * holds the list it was in (see {@link SegmentReader}).
+ */
+public class SegmentSet implements AutoCloseable {
+
+    private final Path directory;
+    private volatile List<Open> segments = List.of();
+
+    public SegmentSet(Path directory) {
+        this.directory = directory;
+    }
+
+    public Path directory() {
+        return directory;
+    }
+
+    /** Returns the names of the segments that could not be opened; they are retried on the next call. */
+    public synchronized List<String> refresh(Collection<SegmentInfo> catalog) {
+        Map<String, SegmentReader> opened = new HashMap<>();
+        for (Open o : segments) opened.put(o.info().getName(), o.reader());
+
+        List<Open> next = new ArrayList<>(catalog.size());
+        List<String> failed = new ArrayList<>();
+        for (SegmentInfo info : catalog) {
+            SegmentReader reader = opened.get(info.getName());
+            if (reader == null) {
+                try {
+                    reader = SegmentReader.open(directory.resolve(info.fileName()));
+                } catch (IOException e) {
+                    failed.add(info.getName() + ": " + e.getMessage());
+                    continue;
+                }
+            }
+            next.add(new Open(info, reader));
+        }
+        next.sort(Comparator.comparingLong(o -> o.info().getSequence()));
+        segments = List.copyOf(next);
+        return failed;
+    }
+
+    public boolean isEmpty() {
+        return segments.isEmpty();
+    }
+
+    public List<SegmentInfo> infos() {
+        return segments.stream().map(Open::info).toList();
+    }
+
+    public SegmentReader reader(String name) {
+        for (Open o : segments) {
+            if (o.info().getName().equals(name)) return o.reader();
+        }
+        return null;
+    }
+
+    /** Live postings of {@code term} across all segments, or null when none has it. */
+    public PostingList postings(String term) {
+        List<Open> current = segments;
+        if (current.isEmpty()) return null;
+        byte[] key = term.getBytes(StandardCharsets.UTF_8);
+        List<PostingList> found = new ArrayList<>(current.size());
+        for (Open o : current) {
+            PostingList list = o.reader().postings(key);
+            if (list != null) found.add(live(list, o.info()));
+        }
+        return combine(found);
+    }
+
+    /** Drops the postings of the documents deleted from {@code info}. */
+    public static PostingList live(PostingList list, SegmentInfo info) {
+        if (info.getDeleted().length > 0) list.removeAll(info.getDeleted());
+        return list;
+    }
+
+    /**
+     * Union of posting lists ordered oldest first; when several contain the same document the last one
+     * wins, so a newer segment (or the in-memory index, passed last) overrides older copies. Null and
+     * empty lists are ignored; returns null when nothing is left.
+     */
+    public static PostingList combine(List<PostingList> oldestFirst) {
+        List<PostingList> lists = new ArrayList<>(oldestFirst.size());
+        int total = 0;
+        for (PostingList l : oldestFirst) {
+            if (l != null && !l.isEmpty()) {
+                lists.add(l);
+                total += l.size();
+            }
+        }
+        if (lists.isEmpty()) return null;
+        if (lists.size() == 1) return lists.get(0);
+
+        // (ordinal, position) packed in a long: sorting orders by ordinal, then by source age
+        long[] keys = new long[total];
+        int[] tfs = new int[total];
+        int n = 0;
+        for (PostingList l : lists) {
+            PostingList.Cursor c = l.cursor();
+            while (c.next()) {
+                keys[n] = ((long) c.ordinal() << 32) | n;
+                tfs[n++] = c.tf();
+            }
+        }
+        Arrays.sort(keys);
+
+        int[] ordinals = new int[total];
+        int[] freqs = new int[total];
+        int count = 0;
+        for (int i = 0; i < total; i++) {
+            int ordinal = (int) (keys[i] >>> 32);
+            int tf = tfs[(int) keys[i]];
+            if (count > 0 && ordinals[count - 1] == ordinal) {
+                freqs[count - 1] = tf;
+            } else {
+                ordinals[count] = ordinal;
+                freqs[count++] = tf;
+            }
+        }
+        return PostingList.fromSorted(ordinals, freqs, count);
+    }
+
+    public Map<String, Object> snapshot() {
+        List<Open> current = segments;
+        long bytes = 0;
+        long documents = 0;
+        long deleted = 0;
+        for (Open o : current) {
+            bytes += o.info().getBytes();
+            documents += o.info().documents();
+            deleted += o.info().getDeleted().length;
+        }
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("segments", current.size());
+        out.put("documents", documents);
+        out.put("deletedDocuments", deleted);
+        out.put("bytes", bytes);
+        return out;
+    }
+
+    /** Forgets every segment; their mappings go with the garbage collector, as for dropped ones. */
+    @Override
+    public synchronized void close() {
+        segments = List.of();
+    }
+
+    private record Open(SegmentInfo info, SegmentReader reader) {
+    }
+}
@@ -0,0 +1,164 @@
+package es.ulpgc.bigdata.index;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Writes one immutable segment file. Terms must be added in unsigned UTF-8 byte order, each with its
+ * {@link PostingList}; the file only appears under its final name once {@link #finish} has synced it.
+ * <p>
+ * Layout (big endian, all offsets from the start of the file):
+ * <pre>
+ *   magic, version
+ *   postings     per term, see {@link PostingList#writeTo}: size, maxTf, blocks, dataLength,
+ *                blockOffset[blocks], blockLast[blocks], data
+ *   dictionary   per term: termLength (u16), UTF-8 term, postings offset
+ *   sparse index count, then the dictionary offset of every {@link #SPARSE_INTERVAL}th term
+ *   ordinals     count, then the sorted document ordinals of the segment
+ *   footer       termCount, dictionary offset, sparse offset, ordinals offset, CRC32 of all the above, magic
+ * </pre>
+ * Postings are stored exactly as {@link PostingList} keeps them in memory, so reading one back is a
+ * copy of its compressed blocks.
+ */
+public class SegmentWriter implements Closeable {
+
+    static final int MAGIC = 0x49445831; // "IDX1"
+    static final int VERSION = 1;
+    static final int SPARSE_INTERVAL = 32;
+    static final int FOOTER_BYTES = 4 * 4 + 8 + 4;
+    /** Offsets are 32-bit: no segment may be larger. */
+    public static final long MAX_BYTES = Integer.MAX_VALUE;
+
+    private final Path target;
+    private final Path temp;
+    private final FileOutputStream file;
+    private final CRC32 crc = new CRC32();
+    private final Counting counting;
+    private final DataOutputStream out;
+
+    private final List<byte[]> terms = new ArrayList<>();
+    private int[] postingOffsets = new int[1024];
+    private byte[] lastTerm;
+    private boolean finished;
+
+    public SegmentWriter(Path target) throws IOException {
+        this.target = target;
+        this.temp = target.resolveSibling(target.getFileName() + ".tmp");
+        this.file = new FileOutputStream(temp.toFile());
+        // counted here, not with DataOutputStream.size(), which stops at Integer.MAX_VALUE
+        this.counting = new Counting(new BufferedOutputStream(new CheckedOutputStream(file, crc), 1 << 16));
+        this.out = new DataOutputStream(counting);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+    }
+
+    /** Appends the postings of {@code term} (UTF-8); empty lists are skipped. */
+    public void add(byte[] term, PostingList postings) throws IOException {
+        if (postings == null || postings.isEmpty()) return;
+        if (term.length > 0xFFFF) throw new IllegalArgumentException("Term longer than 65535 bytes");
+        if (lastTerm != null && Arrays.compareUnsigned(lastTerm, term) >= 0) {
+            throw new IllegalArgumentException("Terms must be added in increasing byte order");
+        }
+        if (terms.size() == postingOffsets.length) {
+            postingOffsets = Arrays.copyOf(postingOffsets, postingOffsets.length * 2);
+        }
+        postingOffsets[terms.size()] = position();
+        terms.add(term);
+        lastTerm = term;
+
+        postings.writeTo(out);
+    }
+
+    /**
+     * Writes the dictionary, the ordinals of the segment's documents (sorted) and the footer, syncs the
+     * file and moves it to its final name. Returns the size of the file.
+     */
+    public long finish(int[] ordinals) throws IOException {
+        int dictionaryOffset = position();
+        int[] sparse = new int[(terms.size() + SPARSE_INTERVAL - 1) / SPARSE_INTERVAL];
+        for (int i = 0; i < terms.size(); i++) {
+            if (i % SPARSE_INTERVAL == 0) sparse[i / SPARSE_INTERVAL] = position();
+            byte[] term = terms.get(i);
+            out.writeShort(term.length);
+            out.write(term);
+            out.writeInt(postingOffsets[i]);
+        }
+
+        int sparseOffset = position();
+        out.writeInt(sparse.length);
+        for (int v : sparse) out.writeInt(v);
+
+        int ordinalsOffset = position();
+        out.writeInt(ordinals.length);
+        for (int v : ordinals) out.writeInt(v);
+
+        if (counting.count + FOOTER_BYTES > MAX_BYTES) throw new IOException("Segment larger than 2 GB");
+        out.writeInt(terms.size());
+        out.writeInt(dictionaryOffset);
+        out.writeInt(sparseOffset);
+        out.writeInt(ordinalsOffset);
+        out.flush();
+        // the checksum covers everything written so far; it and the trailing magic are outside it
+        out.writeLong(crc.getValue());
+        out.writeInt(MAGIC);
+        out.flush();
+        file.getFD().sync();
+        out.close();
+
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+        finished = true;
+        return Files.size(target);
+    }
+
+    public int terms() {
+        return terms.size();
+    }
+
+    private int position() throws IOException {
+        long size = counting.count;
+        if (size > MAX_BYTES) throw new IOException("Segment larger than 2 GB");
+        return (int) size;
+    }
+
+    /** Discards the temporary file unless {@link #finish} completed. */
+    @Override
+    public void close() throws IOException {
+        if (finished) return;
+        out.close();
+        Files.deleteIfExists(temp);
+    }
+
+    private static final class Counting extends FilterOutputStream {
+
+        long count;
+
+        Counting(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
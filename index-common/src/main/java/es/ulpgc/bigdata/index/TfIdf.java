@@ -0,0 +1,24 @@
+package es.ulpgc.bigdata.index;
+
+/** The ranking formula of the search service, shared by every scorer so they rank identically. */
+public final class TfIdf {
+
+    private TfIdf() {}
+
+    // Smoothed IDF: avoids idf=0 when N=df (very common with few docs)
+    // idf = log((N+1)/(df+1)) + 1
+    public static double idf(long totalDocs, int df) {
+        return Math.log((totalDocs + 1.0) / (df + 1.0)) + 1.0;
+    }
+
+    // Query weight (optional, but standard): (1 + log(qf))
+    public static double queryWeight(int qf) {
+        return 1.0 + Math.log(qf);
+    }
+
+    // TF log-normalized: (1 + log(tf))
+    public static double score(int tf, double idf, double queryWeight) {
+        double tfWeight = 1.0 + Math.log(tf);
+        return (tfWeight * idf) * queryWeight;
+    }
+}
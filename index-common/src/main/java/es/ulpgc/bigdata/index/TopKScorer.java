@@ -0,0 +1,134 @@
+package es.ulpgc.bigdata.index;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Document-at-a-time top-k evaluation with MaxScore pruning.
+ * <p>
+ * Each query term has a score upper bound derived from the max tf stored in its posting list. Terms
+ * are sorted by that bound; once the k-th best score (the threshold) exceeds the summed bounds of the
+ * lowest terms, those terms become "non-essential": they are never used to generate candidates and
+ * are only probed, through the skip table, for documents that can still reach the threshold. Only
+ * k entries are ever kept, in a bounded min-heap.
+ * <p>
+ * Scores are exactly {@link TfIdf#score}, so the ranking matches exhaustive scoring. Ties are broken
+ * by lower ordinal first; since documents are visited in ordinal order, a later document with the
+ * same score as the threshold can never enter the top-k, which keeps the pruning exact.
+ */
+public final class TopKScorer {
+
+    // Bounds and scores are summed in different orders; a tiny slack keeps pruning conservative
+    private static final double SLACK = 1e-9;
+
+    private static final Comparator<ScoredDocument> WORST_FIRST = Comparator
+            .comparingDouble(ScoredDocument::score)
+            .thenComparing(Comparator.comparingInt(ScoredDocument::ordinal).reversed());
+
+    /** Ranking order of the search results: higher score first, then lower ordinal. */
+    public static final Comparator<ScoredDocument> BEST_FIRST = WORST_FIRST.reversed();
+
+    /** One query term: its postings plus the idf and query weight used to score them. */
+    public static final class Term {
+        private final PostingList postings;
+        private final double idf;
+        private final double queryWeight;
+        private final double upperBound;
+
+        public Term(PostingList postings, double idf, double queryWeight) {
+            this.postings = postings;
+            this.idf = idf;
+            this.queryWeight = queryWeight;
+            this.upperBound = postings.isEmpty() ? 0.0 : TfIdf.score(postings.maxTf(), idf, queryWeight);
+        }
+
+        PostingList postings() {
+            return postings;
+        }
+
+        double score(int tf) {
+            return TfIdf.score(tf, idf, queryWeight);
+        }
+    }
+
+    private TopKScorer() {}
+
+    /** Returns the k best documents, best first. */
+    public static List<ScoredDocument> topK(List<Term> queryTerms, int k) {
+        List<Term> terms = new ArrayList<>();
+        for (Term t : queryTerms) {
+            if (!t.postings.isEmpty()) terms.add(t);
+        }
+        if (terms.isEmpty() || k <= 0) return List.of();
+        terms.sort(Comparator.comparingDouble(t -> t.upperBound));
+
+        int n = terms.size();
+        PostingList.Cursor[] cursors = new PostingList.Cursor[n];
+        boolean[] exhausted = new boolean[n];
+        // prefixBound[i] = sum of the bounds of terms 0..i (the i+1 lowest)
+        double[] prefixBound = new double[n];
+        for (int i = 0; i < n; i++) {
+            cursors[i] = terms.get(i).postings.cursor();
+            exhausted[i] = !cursors[i].next();
+            prefixBound[i] = terms.get(i).upperBound + (i > 0 ? prefixBound[i - 1] : 0.0);
+        }
+
+        PriorityQueue<ScoredDocument> heap = new PriorityQueue<>(k + 1, WORST_FIRST);
+        double threshold = Double.NEGATIVE_INFINITY;
+        int firstEssential = 0;
+
+        while (true) {
+            int doc = Integer.MAX_VALUE;
+            for (int i = firstEssential; i < n; i++) {
+                if (!exhausted[i]) doc = Math.min(doc, cursors[i].ordinal());
+            }
+            if (doc == Integer.MAX_VALUE) break;
+
+            double score = 0.0;
+            for (int i = n - 1; i >= firstEssential; i--) {
+                if (!exhausted[i] && cursors[i].ordinal() == doc) {
+                    score += terms.get(i).score(cursors[i].tf());
+                    exhausted[i] = !cursors[i].next();
+                }
+            }
+
+            boolean pruned = false;
+            for (int i = firstEssential - 1; i >= 0; i--) {
+                if (score + prefixBound[i] + SLACK <= threshold) {
+                    pruned = true;
+                    break;
+                }
+                if (!exhausted[i]) {
+                    if (!cursors[i].advance(doc)) {
+                        exhausted[i] = true;
+                    } else if (cursors[i].ordinal() == doc) {
+                        score += terms.get(i).score(cursors[i].tf());
+                    }
+                }
+            }
+            if (pruned) continue;
+
+            if (heap.size() < k) {
+                heap.add(new ScoredDocument(doc, score));
+            } else if (score > heap.peek().score()) {
+                heap.poll();
+                heap.add(new ScoredDocument(doc, score));
+            } else {
+                continue;
+            }
+
+            if (heap.size() == k) {
+                threshold = heap.peek().score();
+                while (firstEssential < n && prefixBound[firstEssential] + SLACK <= threshold) {
+                    firstEssential++;
+                }
+            }
+        }
+
+        List<ScoredDocument> result = new ArrayList<>(heap);
+        result.sort(BEST_FIRST);
+        return result;
+    }
+}
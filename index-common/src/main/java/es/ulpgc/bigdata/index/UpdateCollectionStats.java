@@ -0,0 +1,25 @@
+package es.ulpgc.bigdata.index;
+
+import java.util.Map;
+
+import com.hazelcast.map.EntryProcessor;
+
+/** Applies a (documents, tokens) delta to the collection statistics on the owning partition. */
+public class UpdateCollectionStats implements EntryProcessor<String, CollectionStats, CollectionStats> {
+
+    private final long documentsDelta;
+    private final long lengthDelta;
+
+    public UpdateCollectionStats(long documentsDelta, long lengthDelta) {
+        this.documentsDelta = documentsDelta;
+        this.lengthDelta = lengthDelta;
+    }
+
+    @Override
+    public CollectionStats process(Map.Entry<String, CollectionStats> entry) {
+        CollectionStats current = entry.getValue() == null ? CollectionStats.EMPTY : entry.getValue();
+        CollectionStats updated = current.plus(documentsDelta, lengthDelta);
+        entry.setValue(updated);
+        return updated;
+    }
+}
@@ -1,8 +1,13 @@
 package es.ulpgc.bigdata.indexing;
 
+import es.ulpgc.bigdata.analysis.AnalysisConfig;
+import es.ulpgc.bigdata.index.SegmentWriter;
 import es.ulpgc.bigdata.indexing.api.IndexingStatusController;
+import es.ulpgc.bigdata.indexing.index.BulkIndexBuilder;
 import es.ulpgc.bigdata.indexing.index.HazelcastIndexProvider;
+import es.ulpgc.bigdata.indexing.index.TieredMergePolicy;
 import es.ulpgc.bigdata.indexing.messaging.JmsIndexingConsumer;
+import es.ulpgc.bigdata.indexing.util.LocalDatalake;
 import io.javalin.Javalin;
 import org.apache.activemq.ActiveMQConnectionFactory;
 import org.slf4j.Logger;
@@ -13,6 +18,8 @@ import javax.jms.ConnectionFactory;
 import javax.jms.Destination;
 import javax.jms.MessageConsumer;
 import javax.jms.Session;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 public class IndexingApplication {
 
@@ -23,8 +30,42 @@ public class IndexingApplication {
         String clusterName = System.getenv().getOrDefault("HZ_CLUSTER_NAME", "search-cluster");
         int backupCount = Integer.parseInt(System.getenv().getOrDefault("HZ_BACKUP_COUNT", "2"));
         int asyncBackupCount = Integer.parseInt(System.getenv().getOrDefault("HZ_ASYNC_BACKUP_COUNT", "1"));
+        int batchSize = Integer.parseInt(System.getenv().getOrDefault("INDEX_BATCH_SIZE", "1000"));
 
-        HazelcastIndexProvider indexProvider = new HazelcastIndexProvider(clusterName, backupCount, asyncBackupCount);
+        HazelcastIndexProvider indexProvider
+                = new HazelcastIndexProvider(clusterName, backupCount, asyncBackupCount, batchSize);
+
+        // local snapshots of the index maps, loaded back when the cluster starts empty (unset = none);
+        // restored before the segment engine starts, which trusts the segment catalog to know its files
+        String snapshotDir = System.getenv("SNAPSHOT_DIR");
+        if (snapshotDir != null && !snapshotDir.isBlank()) {
+            long intervalMs = Long.parseLong(System.getenv().getOrDefault("SNAPSHOT_INTERVAL_MS", "60000"));
+            int fullEvery = Integer.parseInt(System.getenv().getOrDefault("SNAPSHOT_FULL_EVERY", "30"));
+            indexProvider.enableSnapshots(Path.of(snapshotDir), intervalMs, fullEvery);
+            log.info("Snapshots in {} every {} ms", snapshotDir, intervalMs);
+        }
+
+        // immutable on-disk segments; the heap maps then only hold what was not flushed yet (unset = heap only)
+        String segmentDir = System.getenv("SEGMENT_DIR");
+        if (segmentDir != null && !segmentDir.isBlank()) {
+            int flushDocs = Integer.parseInt(System.getenv().getOrDefault("SEGMENT_FLUSH_DOCS", "500"));
+            long flushMs = Long.parseLong(System.getenv().getOrDefault("SEGMENT_FLUSH_MS", "60000"));
+            // must exceed the search services' SEGMENT_REFRESH_MS: they need to see a segment before its
+            // documents leave the heap maps
+            long handoffMs = Long.parseLong(System.getenv().getOrDefault("SEGMENT_HANDOFF_MS", "5000"));
+            long mergeMs = Long.parseLong(System.getenv().getOrDefault("SEGMENT_MERGE_MS", "30000"));
+            int segmentsPerTier = Integer.parseInt(System.getenv().getOrDefault("SEGMENT_MERGE_FACTOR", "4"));
+            long floorMb = Long.parseLong(System.getenv().getOrDefault("SEGMENT_FLOOR_MB", "2"));
+            long maxMergedMb = Long.parseLong(System.getenv().getOrDefault("SEGMENT_MAX_MERGED_MB", "1024"));
+            // segment offsets are 32-bit
+            if (maxMergedMb << 20 >= SegmentWriter.MAX_BYTES) {
+                log.warn("SEGMENT_MAX_MERGED_MB={} is beyond the 2 GB segment limit, using 2047", maxMergedMb);
+                maxMergedMb = 2047;
+            }
+            indexProvider.enableSegments(Path.of(segmentDir), flushDocs, flushMs, handoffMs, mergeMs,
+                    new TieredMergePolicy(segmentsPerTier, floorMb << 20, maxMergedMb << 20, 0.3));
+            log.info("Segments in {} (flush every {} documents)", segmentDir, flushDocs);
+        }
 
         String brokerUrl = System.getenv().getOrDefault("BROKER_URL", "tcp://activemq:61616");
         String queueName = System.getenv().getOrDefault("BROKER_QUEUE_INGESTED", "document.ingested");
@@ -35,13 +76,28 @@ public class IndexingApplication {
         Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
         Destination queue = session.createQueue(queueName);
 
-        JmsIndexingConsumer consumerLogic = new JmsIndexingConsumer(indexProvider);
+        // stop words + light stemming per document language; must match the search service
+        AnalysisConfig analysis = AnalysisConfig.fromEnv();
+        log.info("Analyzer: {}", analysis.describe());
+
+        // bulk rebuild from the datalake: POST /index/rebuild, or before consuming when the index is empty
+        LocalDatalake datalake = new LocalDatalake(Path.of(System.getenv().getOrDefault("DATALAKE_DIR", "/data/datalake")));
+        int rebuildThreads = Integer.parseInt(System.getenv().getOrDefault("REBUILD_THREADS",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+        int rebuildBatchDocs = Integer.parseInt(System.getenv().getOrDefault("REBUILD_BATCH_DOCS", "2000"));
+        BulkIndexBuilder rebuild = new BulkIndexBuilder(indexProvider, analysis, datalake, rebuildThreads, rebuildBatchDocs);
+        if (Boolean.parseBoolean(System.getenv().getOrDefault("REBUILD_ON_START", "false"))
+                && indexProvider.indexedDocs().isEmpty() && Files.isDirectory(datalake.root())) {
+            rebuild.run();
+        }
+
+        JmsIndexingConsumer consumerLogic = new JmsIndexingConsumer(indexProvider, analysis, datalake);
         MessageConsumer consumer = session.createConsumer(queue);
         consumer.setMessageListener(consumerLogic);
 
         int port = Integer.parseInt(System.getenv().getOrDefault("INDEXING_PORT", "7003"));
         Javalin app = Javalin.create(cfg -> cfg.showJavalinBanner = false);
-        new IndexingStatusController(app, indexProvider).registerRoutes();
+        new IndexingStatusController(app, indexProvider, analysis, rebuild, datalake).registerRoutes();
         app.start(port);
 
         log.info("Indexing Service started on port {}", port);
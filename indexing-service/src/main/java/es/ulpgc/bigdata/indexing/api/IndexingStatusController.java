@@ -1,28 +1,35 @@
 package es.ulpgc.bigdata.indexing.api;
 
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
-import com.google.gson.Gson;
 import com.hazelcast.cluster.Member;
 
+import es.ulpgc.bigdata.analysis.AnalysisConfig;
+import es.ulpgc.bigdata.analysis.Analyzer;
+import es.ulpgc.bigdata.analysis.TermFrequencies;
+import es.ulpgc.bigdata.index.DocumentMetadata;
+import es.ulpgc.bigdata.indexing.index.BulkIndexBuilder;
 import es.ulpgc.bigdata.indexing.index.HazelcastIndexProvider;
-import es.ulpgc.bigdata.indexing.util.TextTokenizer;
+import es.ulpgc.bigdata.indexing.util.LocalDatalake;
 import io.javalin.Javalin;
 
 public class IndexingStatusController {
 
     private final Javalin app;
     private final HazelcastIndexProvider indexProvider;
-    private final Gson gson = new Gson();
+    private final AnalysisConfig analysis;
+    private final BulkIndexBuilder rebuild;
+    private final LocalDatalake datalake;
 
-    public IndexingStatusController(Javalin app, HazelcastIndexProvider provider) {
+    public IndexingStatusController(Javalin app, HazelcastIndexProvider provider, AnalysisConfig analysis,
+                                    BulkIndexBuilder rebuild, LocalDatalake datalake) {
         this.app = app;
         this.indexProvider = provider;
+        this.analysis = analysis;
+        this.rebuild = rebuild;
+        this.datalake = datalake;
     }
 
     public void registerRoutes() {
@@ -35,11 +42,23 @@ public class IndexingStatusController {
                     .map(m -> Map.of("uuid", m.getUuid().toString(), "address", m.getAddress().toString()))
                     .collect(Collectors.toList());
 
+            var collection = indexProvider.collectionStats();
+            var segments = indexProvider.segmentStats();
+            var snapshot = indexProvider.snapshotStats();
             ctx.json(Map.of(
                     "clusterName", indexProvider.hazelcast().getConfig().getClusterName(),
                     "members", nodes,
-                    "terms", indexProvider.terms().size(),
-                    "indexedDocs", indexProvider.indexedDocs().size()
+                    "terms", indexProvider.size(),
+                    "indexedDocs", indexProvider.indexedDocs().size(),
+                    "generation", indexProvider.generation(),
+                    "analyzer", analysis.describe(),
+                    "collection", Map.of(
+                            "documents", collection.getDocuments(),
+                            "totalLength", collection.getTotalLength(),
+                            "averageLength", collection.getAverageLength()),
+                    "indexing", indexProvider.stats().snapshot(),
+                    "segments", segments == null ? Map.of("enabled", false) : segments,
+                    "snapshot", snapshot == null ? Map.of("enabled", false) : snapshot
             ));
         });
 
@@ -49,7 +68,15 @@ public class IndexingStatusController {
                 ctx.status(400).result("Missing 'term'");
                 return;
             }
-            ctx.json(indexProvider.getDocs(term.toLowerCase()));
+            // the same analysis the documents went through, so stemmed or folded terms are found
+            Set<String> analyzed = TermFrequencies.of(term, analysis.analyzerFor(ctx.queryParam("language"))).keySet();
+            if (analyzed.size() != 1) {
+                ctx.status(400).result(analyzed.isEmpty()
+                        ? "No indexable term in '" + term + "'"
+                        : "'term' must be a single word");
+                return;
+            }
+            ctx.json(indexProvider.getDocs(analyzed.iterator().next()));
         });
 
         app.get("/index/metadata/{id}", ctx -> {
@@ -58,10 +85,21 @@ public class IndexingStatusController {
             if (meta == null) {
                 ctx.status(404).result("Not Found");
             } else {
-                ctx.json(meta);
+                ctx.json(meta.toMap());
             }
         });
 
+        // full rebuild from the local datalake, in the background; GET reports its progress
+        app.post("/index/rebuild", ctx -> {
+            if (!rebuild.start()) {
+                ctx.status(409).json(rebuild.snapshot());
+                return;
+            }
+            ctx.status(202).json(rebuild.snapshot());
+        });
+
+        app.get("/index/rebuild", ctx -> ctx.json(rebuild.snapshot()));
+
         app.post("/index/reindex/{id}", ctx -> {
             String id = ctx.pathParam("id");
             if (id == null || id.isBlank()) {
@@ -70,40 +108,37 @@ public class IndexingStatusController {
             }
 
             try {
-                // clean old existing entries
-                for (String term : indexProvider.terms()) {
-                    indexProvider.getDocs(term).removeIf(v -> v.equals(id));
-                }
-                indexProvider.indexedDocs().remove(id);
-                indexProvider.metadataIndex().remove(id);
-
-                Path docDir = Path.of("/data/datalake/docs/", id);
-                if (!Files.exists(docDir) || !Files.isDirectory(docDir)) {
+                if (!datalake.exists(id)) {
+                    // gone from the datalake: drop it from the index too
+                    indexProvider.removeDocument(id);
+                    indexProvider.markRemoved(id);
+                    indexProvider.metadataIndex().remove(id);
                     ctx.status(404).result("Document not found in datalake");
                     return;
                 }
 
-                Path headerFile = docDir.resolve("header.txt");
-                Path bodyFile = docDir.resolve("body.txt");
-                Path metadataFile = docDir.resolve("metadata.json");
-
-                String header = Files.exists(headerFile)
-                        ? Files.readString(headerFile, StandardCharsets.UTF_8) : "";
-                String body = Files.exists(bodyFile)
-                        ? Files.readString(bodyFile, StandardCharsets.UTF_8) : "";
-                String content = (header + "\n" + body).trim();
-
-                for (String term : TextTokenizer.tokens(content)) {
-                    indexProvider.invertedIndex().put(term, id);
+                // metadata first: its language picks the analyzer
+                DocumentMetadata metadata = null;
+                Map<String, Object> raw = datalake.metadata(id);
+                if (raw != null) {
+                    metadata = DocumentMetadata.fromMap(id, raw);
+                    if (metadata.getPath() == null) metadata.setPath(datalake.path(id));
                 }
-                indexProvider.indexedDocs().add(id);
 
-                if (Files.exists(metadataFile)) {
-                    String raw = Files.readString(metadataFile, StandardCharsets.UTF_8);
-                    Map<String, Object> metadata = gson.fromJson(raw, Map.class);
+                Analyzer analyzer = analysis.analyzerFor(metadata == null ? null : metadata.getLanguage());
+                // header and body are streamed from disk, never loaded or concatenated in memory;
+                // postings are replaced in place through the forward index, terms that disappeared are dropped
+                indexProvider.indexDocument(id, TermFrequencies.of(datalake.text(id, true), analyzer));
+
+                if (metadata != null) {
                     indexProvider.metadataIndex().put(id, metadata);
+                } else {
+                    indexProvider.metadataIndex().remove(id);
                 }
 
+                // last, so cached search results are invalidated only once the document is complete
+                indexProvider.markReindexed(id);
+
                 ctx.status(200).result("Reindexed " + id);
 
             } catch (Exception e) {
@@ -0,0 +1,280 @@
+package es.ulpgc.bigdata.indexing.index;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hazelcast.cp.lock.FencedLock;
+
+import es.ulpgc.bigdata.analysis.AnalysisConfig;
+import es.ulpgc.bigdata.analysis.TermFrequencies;
+import es.ulpgc.bigdata.index.DocumentMetadata;
+import es.ulpgc.bigdata.index.PostingList;
+import es.ulpgc.bigdata.indexing.util.LocalDatalake;
+
+/**
+ * Rebuilds the index from every document of the local datalake (directories and packed segments),
+ * for new clusters and disaster recovery, instead of one JMS message or reindex call per document.
+ * <p>
+ * Documents are processed in rounds of {@code batchDocs}: a fork-join pool reads and
+ * analyzes the documents (header and body, like the reindex endpoint) and every worker builds
+ * term -> postings for its share; the shares are merged, ordinals are allocated for the whole round
+ * at once and the result is loaded with {@link HazelcastIndexProvider#indexBatch}, a few large
+ * batches per member. A round is complete (postings, forward index, metadata, indexed set) before the
+ * next one starts, so a rebuild can run while the consumer keeps indexing; already indexed documents
+ * are replaced in place. Documents of the index that are not in this datalake are left alone.
+ */
+public class BulkIndexBuilder {
+
+    private static final Logger log = LoggerFactory.getLogger(BulkIndexBuilder.class);
+
+    // documents per fork-join leaf
+    private static final int LEAF_DOCS = 4;
+
+    private final HazelcastIndexProvider provider;
+    private final AnalysisConfig analysis;
+    private final LocalDatalake datalake;
+    private final int parallelism;
+    private final int batchDocs;
+    private final FencedLock lock;
+
+    private final AtomicLong found = new AtomicLong();
+    private final AtomicLong indexed = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private volatile String state = "idle";
+    private volatile long startedAt;
+    private volatile long finishedAt;
+    private Thread worker;
+
+    public BulkIndexBuilder(HazelcastIndexProvider provider, AnalysisConfig analysis, LocalDatalake datalake,
+                            int parallelism, int batchDocs) {
+        this.provider = provider;
+        this.analysis = analysis;
+        this.datalake = datalake;
+        this.parallelism = Math.max(1, parallelism);
+        this.batchDocs = Math.max(1, batchDocs);
+        this.lock = provider.hazelcast().getCPSubsystem().getLock("index-rebuild");
+    }
+
+    /** Starts a rebuild in the background; false if one is already running on this indexer. */
+    public synchronized boolean start() {
+        if (worker != null && worker.isAlive()) return false;
+        state = "starting";
+        worker = new Thread(this::run, "index-rebuild");
+        worker.setDaemon(true);
+        worker.start();
+        return true;
+    }
+
+    /** Runs a rebuild in the calling thread, unless another indexer of the cluster is running one. */
+    public void run() {
+        if (!lock.tryLock()) {
+            state = "running elsewhere";
+            log.warn("Another indexer is rebuilding the index, not starting");
+            return;
+        }
+        try {
+            rebuild();
+        } catch (Exception e) {
+            state = "failed: " + e.getMessage();
+            log.error("Index rebuild failed", e);
+        } finally {
+            finishedAt = System.currentTimeMillis();
+            lock.unlock();
+        }
+    }
+
+    private void rebuild() throws IOException {
+        found.set(0);
+        indexed.set(0);
+        skipped.set(0);
+        failed.set(0);
+        startedAt = System.currentTimeMillis();
+        finishedAt = 0;
+        state = "scanning";
+
+        List<String> ids = datalake.ids();
+        found.set(ids.size());
+        log.info("Rebuilding the index from {} documents in {} ({} threads)", ids.size(), datalake.root(), parallelism);
+
+        state = "indexing";
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            for (int from = 0; from < ids.size(); from += batchDocs) {
+                List<String> round = ids.subList(from, Math.min(ids.size(), from + batchDocs));
+                load(round, pool.invoke(new Analyze(round, 0, round.size())));
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        long millis = System.currentTimeMillis() - startedAt;
+        state = "done";
+        log.info("Index rebuilt: {} documents indexed, {} empty, {} failed in {} ms",
+                indexed.get(), skipped.get(), failed.get(), millis);
+    }
+
+    private void load(List<String> round, Partial result) {
+        if (result.termFrequencies.isEmpty()) return;
+
+        // postings were built with positions in the round, only documents with terms get an ordinal
+        Map<String, Integer> ordinals = provider.dictionary().ordinalsOf(result.termFrequencies.keySet());
+        int[] byPosition = new int[round.size()];
+        for (int i = 0; i < byPosition.length; i++) {
+            Integer ordinal = ordinals.get(round.get(i));
+            byPosition[i] = ordinal == null ? -1 : ordinal;
+        }
+        Map<String, PostingList> postings = new HashMap<>(result.postings.size() * 2);
+        result.postings.forEach((term, p) -> postings.put(term, p.toPostingList(byPosition)));
+        provider.indexBatch(ordinals, result.termFrequencies, postings);
+
+        if (!result.metadata.isEmpty()) provider.metadataIndex().setAll(result.metadata);
+        for (String id : result.termFrequencies.keySet()) {
+            if (!result.metadata.containsKey(id)) provider.metadataIndex().delete(id);
+        }
+        // last, so cached search results are invalidated only once the round is complete
+        provider.markIndexed(result.termFrequencies.keySet());
+        indexed.addAndGet(result.termFrequencies.size());
+    }
+
+    public Map<String, Object> snapshot() {
+        long end = finishedAt > 0 ? finishedAt : System.currentTimeMillis();
+        double seconds = startedAt > 0 ? (end - startedAt) / 1000.0 : 0;
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("state", state);
+        out.put("documents", found.get());
+        out.put("indexed", indexed.get());
+        out.put("empty", skipped.get());
+        out.put("failed", failed.get());
+        out.put("seconds", seconds);
+        out.put("docsPerSecond", seconds > 0 ? indexed.get() / seconds : 0.0);
+        return out;
+    }
+
+    // ---- analysis ----
+
+    /** Analyzes documents [from, to) of a round, splitting in halves down to {@link #LEAF_DOCS}. */
+    private final class Analyze extends RecursiveTask<Partial> {
+
+        private final List<String> ids;
+        private final int from;
+        private final int to;
+
+        Analyze(List<String> ids, int from, int to) {
+            this.ids = ids;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Partial compute() {
+            if (to - from > LEAF_DOCS) {
+                int mid = (from + to) >>> 1;
+                Analyze left = new Analyze(ids, from, mid);
+                left.fork();
+                Partial right = new Analyze(ids, mid, to).compute();
+                return left.join().merge(right);
+            }
+            Partial partial = new Partial();
+            for (int i = from; i < to; i++) {
+                analyze(ids.get(i), i, partial);
+            }
+            return partial;
+        }
+
+        private void analyze(String id, int position, Partial partial) {
+            try {
+                DocumentMetadata metadata = readMetadata(id);
+                Map<String, Integer> tf = TermFrequencies.of(datalake.text(id, true),
+                        analysis.analyzerFor(metadata == null ? null : metadata.getLanguage()));
+                if (tf.isEmpty()) {
+                    skipped.incrementAndGet();
+                    return;
+                }
+                partial.add(id, position, tf, metadata);
+            } catch (Exception e) {
+                failed.incrementAndGet();
+                log.warn("Rebuild could not read {}: {}", id, e.getMessage());
+            }
+        }
+    }
+
+    private DocumentMetadata readMetadata(String id) throws IOException {
+        Map<String, Object> raw = datalake.metadata(id);
+        if (raw == null) return null;
+        DocumentMetadata metadata = DocumentMetadata.fromMap(id, raw);
+        if (metadata.getPath() == null) metadata.setPath(datalake.path(id));
+        return metadata;
+    }
+
+    /** What one worker (or a merge of workers) built: postings per term and the documents themselves. */
+    private static final class Partial {
+
+        final Map<String, Postings> postings = new HashMap<>();
+        final Map<String, Map<String, Integer>> termFrequencies = new HashMap<>();
+        final Map<String, DocumentMetadata> metadata = new HashMap<>();
+
+        void add(String id, int position, Map<String, Integer> tf, DocumentMetadata meta) {
+            termFrequencies.put(id, tf);
+            if (meta != null) metadata.put(id, meta);
+            for (Map.Entry<String, Integer> e : tf.entrySet()) {
+                postings.computeIfAbsent(e.getKey(), t -> new Postings()).add(position, e.getValue());
+            }
+        }
+
+        Partial merge(Partial other) {
+            Partial big = postings.size() >= other.postings.size() ? this : other;
+            Partial small = big == this ? other : this;
+            small.postings.forEach((term, p) -> big.postings.merge(term, p, Postings::addAll));
+            big.termFrequencies.putAll(small.termFrequencies);
+            big.metadata.putAll(small.metadata);
+            return big;
+        }
+    }
+
+    /** Growable (position in the round, tf) pairs of one term, packed in longs. */
+    private static final class Postings {
+
+        private long[] entries = new long[4];
+        private int size;
+
+        void add(int position, int tf) {
+            if (size == entries.length) entries = Arrays.copyOf(entries, size * 2);
+            entries[size++] = ((long) position << 32) | (tf & 0xffffffffL);
+        }
+
+        Postings addAll(Postings other) {
+            if (size + other.size > entries.length) {
+                entries = Arrays.copyOf(entries, Math.max(size + other.size, size * 2));
+            }
+            System.arraycopy(other.entries, 0, entries, size, other.size);
+            size += other.size;
+            return this;
+        }
+
+        PostingList toPostingList(int[] ordinalByPosition) {
+            // same packing with the ordinal in the high half, so sorting orders by ordinal
+            for (int i = 0; i < size; i++) {
+                entries[i] = ((long) ordinalByPosition[(int) (entries[i] >>> 32)] << 32) | (entries[i] & 0xffffffffL);
+            }
+            Arrays.sort(entries, 0, size);
+            int[] ordinals = new int[size];
+            int[] tfs = new int[size];
+            for (int i = 0; i < size; i++) {
+                ordinals[i] = (int) (entries[i] >>> 32);
+                tfs[i] = (int) entries[i];
+            }
+            return PostingList.fromSorted(ordinals, tfs, size);
+        }
+    }
+}
@@ -1,49 +1,165 @@
 package es.ulpgc.bigdata.indexing.index;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Lock;
 
+import com.hazelcast.cluster.Member;
 import com.hazelcast.collection.ISet;
 import com.hazelcast.config.Config;
+import com.hazelcast.config.InMemoryFormat;
 import com.hazelcast.config.MapConfig;
-import com.hazelcast.config.MultiMapConfig;
 import com.hazelcast.core.Hazelcast;
 import com.hazelcast.core.HazelcastInstance;
 import com.hazelcast.map.IMap;
-import com.hazelcast.multimap.MultiMap;
+import com.hazelcast.partition.PartitionService;
+
+import es.ulpgc.bigdata.index.AddPostings;
+import es.ulpgc.bigdata.index.CollectionStats;
+import es.ulpgc.bigdata.index.CollectionStatsSerializer;
+import es.ulpgc.bigdata.index.DocumentDictionary;
+import es.ulpgc.bigdata.index.DocumentMetadata;
+import es.ulpgc.bigdata.index.DocumentMetadataSerializer;
+import es.ulpgc.bigdata.index.DocumentTerms;
+import es.ulpgc.bigdata.index.DocumentTermsSerializer;
+import es.ulpgc.bigdata.index.IndexGeneration;
+import es.ulpgc.bigdata.index.MergePostings;
+import es.ulpgc.bigdata.index.PostingList;
+import es.ulpgc.bigdata.index.PostingListSerializer;
+import es.ulpgc.bigdata.index.RemovePosting;
+import es.ulpgc.bigdata.index.SegmentInfo;
+import es.ulpgc.bigdata.index.SegmentInfoSerializer;
+import es.ulpgc.bigdata.index.SegmentSet;
+import es.ulpgc.bigdata.index.UpdateCollectionStats;
 
 public class HazelcastIndexProvider {
 
     private final HazelcastInstance hz;
-    private final MultiMap<String, String> invertedIndex;
+    private final IMap<String, PostingList> invertedIndex;
     private final ISet<String> indexedDocs;
-    private final IMap<String, Map<String, Object>> metadataIndex;
+    private final IMap<String, DocumentMetadata> metadataIndex;
+    private final DocumentDictionary dictionary;
+    private final IndexGeneration generation;
+    private final IMap<String, CollectionStats> indexStats;
+    private final IMap<String, Integer> docLengths;
+    private final IMap<String, DocumentTerms> forwardIndex;
+    private final int batchSize;
+    private final IndexingStats stats = new IndexingStats();
+    private SegmentIndexer segments;
+    private IndexSnapshots snapshots;
 
-    public HazelcastIndexProvider(String clusterName, int backupCount, int asyncBackupCount) {
+    public HazelcastIndexProvider(String clusterName, int backupCount, int asyncBackupCount, int batchSize) {
         Config cfg = new Config().setClusterName(clusterName);
 
-        // MultiMapConfig (no MapConfig) + LIST to allow duplicate values and TF counting
-        cfg.getMultiMapConfig("inverted-index")
+        // Flush near cache invalidations to search clients every second instead of every 10s
+        cfg.setProperty("hazelcast.map.invalidation.batchfrequency.seconds", "1");
+
+        cfg.getSerializationConfig().getCompactSerializationConfig()
+                .addSerializer(new PostingListSerializer())
+                .addSerializer(new CollectionStatsSerializer())
+                .addSerializer(new DocumentMetadataSerializer())
+                .addSerializer(new DocumentTermsSerializer())
+                .addSerializer(new SegmentInfoSerializer());
+
+        // term -> compressed PostingList of (ordinal, tf); OBJECT so entry processors skip a deserialize per update
+        cfg.addMapConfig(new MapConfig("inverted-index")
                 .setBackupCount(backupCount)
                 .setAsyncBackupCount(asyncBackupCount)
-                .setValueCollectionType(MultiMapConfig.ValueCollectionType.LIST);
+                .setInMemoryFormat(InMemoryFormat.OBJECT));
+
+        // typed DocumentMetadata records; hits read title and sourceUrl only
+        cfg.addMapConfig(new MapConfig(DocumentMetadata.MAP)
+                .setBackupCount(backupCount)
+                .setAsyncBackupCount(asyncBackupCount));
+
+        cfg.addMapConfig(new MapConfig("doc-ordinals")
+                .setBackupCount(backupCount)
+                .setAsyncBackupCount(asyncBackupCount));
+
+        cfg.addMapConfig(new MapConfig("doc-ids")
+                .setBackupCount(backupCount)
+                .setAsyncBackupCount(asyncBackupCount));
+
+        // N and total tokens (single entry) + per-document length, needed to undo a document's share
+        cfg.addMapConfig(new MapConfig(CollectionStats.MAP)
+                .setBackupCount(backupCount)
+                .setAsyncBackupCount(asyncBackupCount));
+
+        cfg.addMapConfig(new MapConfig("doc-lengths")
+                .setBackupCount(backupCount)
+                .setAsyncBackupCount(asyncBackupCount));
 
-        cfg.addMapConfig(new MapConfig("metadata-index")
+        // forward index: document ID -> terms and tf, so deletes and reindexes touch only those terms
+        cfg.addMapConfig(new MapConfig(DocumentTerms.MAP)
+                .setBackupCount(backupCount)
+                .setAsyncBackupCount(asyncBackupCount));
+
+        // name -> SegmentInfo of the on-disk segments (small: one entry per segment)
+        cfg.addMapConfig(new MapConfig(SegmentInfo.MAP)
                 .setBackupCount(backupCount)
                 .setAsyncBackupCount(asyncBackupCount));
 
         this.hz = Hazelcast.newHazelcastInstance(cfg);
-        this.invertedIndex = hz.getMultiMap("inverted-index");
+        this.invertedIndex = hz.getMap("inverted-index");
         this.indexedDocs = hz.getSet("indexed-docs");
-        this.metadataIndex = hz.getMap("metadata-index");
+        this.metadataIndex = hz.getMap(DocumentMetadata.MAP);
+        this.dictionary = new DocumentDictionary(hz);
+        this.generation = new IndexGeneration(hz);
+        this.indexStats = hz.getMap(CollectionStats.MAP);
+        this.docLengths = hz.getMap("doc-lengths");
+        this.forwardIndex = hz.getMap(DocumentTerms.MAP);
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Turns on the segment engine: documents indexed from now on are also flushed to immutable segment
+     * files in {@code directory}, and the in-memory index only keeps those not flushed yet.
+     * Must be called before indexing starts, and after {@link #enableSnapshots} when both are on: the
+     * segment catalog has to be restored before the engine looks at the files in {@code directory}.
+     */
+    public void enableSegments(Path directory, int flushDocs, long flushMillis, long handoffMillis,
+                               long mergeMillis, TieredMergePolicy policy) throws IOException {
+        this.segments = new SegmentIndexer(this, hz, directory, flushDocs, flushMillis, handoffMillis, mergeMillis,
+                policy, snapshots != null);
+    }
+
+    /** Segment engine state for /index/status; null when segments are disabled. */
+    public Map<String, Object> segmentStats() {
+        return segments == null ? null : segments.snapshot();
+    }
+
+    /**
+     * Turns on index snapshots in {@code directory}: if the cluster is empty the newest snapshot is
+     * loaded first (synchronously), then snapshots are written every {@code intervalMillis}, starting a
+     * new chain with a full one every {@code fullEvery} deltas. Must be called before indexing starts
+     * and before {@link #enableSegments}.
+     */
+    public void enableSnapshots(Path directory, long intervalMillis, int fullEvery) throws IOException {
+        if (segments != null) throw new IllegalStateException("Snapshots must be enabled before segments");
+        this.snapshots = new IndexSnapshots(hz, directory, intervalMillis, fullEvery);
+        snapshots.restoreIfEmpty();
+    }
+
+    /** Last snapshot written by this indexer for /index/status; null when snapshots are disabled. */
+    public Map<String, Object> snapshotStats() {
+        return snapshots == null ? null : snapshots.snapshot();
     }
 
     public HazelcastInstance hazelcast() {
         return hz;
     }
 
-    public MultiMap<String, String> invertedIndex() {
+    public IMap<String, PostingList> invertedIndex() {
         return invertedIndex;
     }
 
@@ -51,16 +167,260 @@ public class HazelcastIndexProvider {
         return indexedDocs;
     }
 
-    public IMap<String, Map<String, Object>> metadataIndex() {
+    /** Adds {@code documentId} to the indexed set and bumps the index generation if it was new. */
+    public void markIndexed(String documentId) {
+        if (indexedDocs.add(documentId)) {
+            generation.bump();
+        }
+    }
+
+    /** Adds a batch of documents to the indexed set with a single generation bump. */
+    public void markIndexed(Collection<String> documentIds) {
+        indexedDocs.addAll(documentIds);
+        generation.bump();
+    }
+
+    /** Removes {@code documentId} from the indexed set and bumps the index generation if it was there. */
+    public void markRemoved(String documentId) {
+        if (indexedDocs.remove(documentId)) {
+            generation.bump();
+        }
+    }
+
+    /** Bumps the index generation for a document whose postings were replaced in place. */
+    public void markReindexed(String documentId) {
+        indexedDocs.add(documentId);
+        generation.bump();
+    }
+
+    public long generation() {
+        return generation.current();
+    }
+
+    public IMap<String, DocumentMetadata> metadataIndex() {
         return metadataIndex;
     }
 
-    public Collection<String> getDocs(String term) {
-        return invertedIndex.get(term);
+    public DocumentDictionary dictionary() {
+        return dictionary;
+    }
+
+    // Decoded view of a posting list: document ID to term frequency, in ordinal order
+    public Map<String, Integer> getDocs(String term) {
+        PostingList list = segments == null
+                ? invertedIndex.get(term)
+                : SegmentSet.combine(Arrays.asList(segments.postings(term), invertedIndex.get(term)));
+        if (list == null) return Map.of();
+
+        Set<Integer> ordinals = new HashSet<>();
+        PostingList.Cursor c = list.cursor();
+        while (c.next()) {
+            ordinals.add(c.ordinal());
+        }
+        Map<Integer, String> ids = dictionary.documentIds(ordinals);
+
+        Map<String, Integer> postings = new LinkedHashMap<>();
+        c = list.cursor();
+        while (c.next()) {
+            postings.put(ids.get(c.ordinal()), c.tf());
+        }
+        return postings;
+    }
+
+    public IndexingStats stats() {
+        return stats;
     }
 
-    public Set<String> terms() {
-        return invertedIndex.keySet();
+    public CollectionStats collectionStats() {
+        CollectionStats current = indexStats.get(CollectionStats.KEY);
+        return current == null ? CollectionStats.EMPTY : current;
+    }
+
+    /**
+     * Bulk path: the document's terms are grouped by the member owning each term's partition and
+     * merged with an {@link AddPostings} entry processor in chunks of at most {@code batchSize} terms,
+     * so a book costs a few batched operations per member instead of one round-trip per term.
+     * <p>
+     * The forward index entry is written first, so a document whose postings were only partly
+     * written can still be removed. When the document was already indexed, terms it no longer
+     * contains are dropped the same way; the others are overwritten by {@link AddPostings}.
+     */
+    public void indexDocument(String documentId, Map<String, Integer> termFrequencies) {
+        long start = System.nanoTime();
+        int ordinal = dictionary.ordinalOf(documentId);
+        Lock handoff = segments == null ? null : segments.handoffLock().readLock();
+        if (handoff != null) handoff.lock();
+        List<CompletableFuture<?>> pending = new ArrayList<>();
+        try {
+            DocumentTerms previousTerms = forwardIndex.put(documentId, DocumentTerms.of(termFrequencies));
+
+            for (Map<String, Integer> chunk : chunksByOwner(termFrequencies)) {
+                pending.add(invertedIndex.submitToKeys(chunk.keySet(), new AddPostings(ordinal, chunk))
+                        .toCompletableFuture());
+            }
+            if (previousTerms != null) {
+                pending.addAll(removePostings(new int[]{ordinal}, previousTerms.missingFrom(termFrequencies)));
+            }
+            CompletableFuture.allOf(pending.toArray(new CompletableFuture[0])).join();
+
+            if (segments != null) {
+                // only now, so searches never miss the document: until then the copies resolve to the new one
+                if (previousTerms != null) segments.markDeleted(ordinal);
+                segments.record(documentId, ordinal, termFrequencies);
+            }
+        } finally {
+            if (handoff != null) handoff.unlock();
+        }
+
+        // Document length in tokens; a re-put of a known document only shifts the total length
+        int length = termFrequencies.values().stream().mapToInt(Integer::intValue).sum();
+        Integer previous = docLengths.put(documentId, length);
+        indexStats.executeOnKey(CollectionStats.KEY, new UpdateCollectionStats(
+                previous == null ? 1 : 0, length - (previous == null ? 0 : previous)));
+
+        stats.recordDocument(termFrequencies.size(), pending.size(), System.nanoTime() - start);
+    }
+
+    /**
+     * Bulk variant of {@link #indexDocument} for many documents at once: {@code postings} holds their
+     * postings already merged per term (sorted by ordinal), shipped with one {@link MergePostings} per
+     * owning member and chunk of terms. Forward index, lengths and statistics are written with one
+     * batched call each.
+     * <p>
+     * Documents that were already indexed are replaced: before the merge, their ordinals are dropped
+     * from the terms some of them no longer contain (a document still containing such a term gets it
+     * back with the merge), so until the batch completes those documents can be missing from a few
+     * results.
+     */
+    void indexBatch(Map<String, Integer> ordinals, Map<String, Map<String, Integer>> termFrequencies,
+                    Map<String, PostingList> postings) {
+        long start = System.nanoTime();
+        Map<String, DocumentTerms> forward = new HashMap<>(termFrequencies.size() * 2);
+        Map<String, Integer> lengths = new HashMap<>(termFrequencies.size() * 2);
+        for (Map.Entry<String, Map<String, Integer>> e : termFrequencies.entrySet()) {
+            forward.put(e.getKey(), DocumentTerms.of(e.getValue()));
+            lengths.put(e.getKey(), e.getValue().values().stream().mapToInt(Integer::intValue).sum());
+        }
+
+        int operations = 0;
+        Lock handoff = segments == null ? null : segments.handoffLock().readLock();
+        if (handoff != null) handoff.lock();
+        try {
+            Map<String, DocumentTerms> previous = forwardIndex.getAll(forward.keySet());
+            forwardIndex.setAll(forward);
+
+            int[] replaced = previous.keySet().stream().mapToInt(ordinals::get).sorted().toArray();
+            if (replaced.length > 0) {
+                Set<String> dropped = new HashSet<>();
+                previous.forEach((id, terms) -> dropped.addAll(terms.missingFrom(termFrequencies.get(id))));
+                List<CompletableFuture<?>> removals = removePostings(replaced, dropped);
+                operations += removals.size();
+                CompletableFuture.allOf(removals.toArray(new CompletableFuture[0])).join();
+            }
+
+            List<CompletableFuture<?>> pending = new ArrayList<>();
+            for (Map<String, PostingList> chunk : chunksByOwner(postings)) {
+                pending.add(invertedIndex.submitToKeys(chunk.keySet(), new MergePostings(chunk)).toCompletableFuture());
+            }
+            operations += pending.size();
+            CompletableFuture.allOf(pending.toArray(new CompletableFuture[0])).join();
+
+            if (segments != null) {
+                segments.markDeleted(replaced);
+                termFrequencies.forEach((id, tf) -> segments.record(id, ordinals.get(id), tf));
+            }
+        } finally {
+            if (handoff != null) handoff.unlock();
+        }
+
+        Map<String, Integer> previousLengths = docLengths.getAll(lengths.keySet());
+        docLengths.setAll(lengths);
+        long lengthDelta = 0;
+        for (Map.Entry<String, Integer> e : lengths.entrySet()) {
+            Integer before = previousLengths.get(e.getKey());
+            lengthDelta += e.getValue() - (before == null ? 0 : before);
+        }
+        indexStats.executeOnKey(CollectionStats.KEY, new UpdateCollectionStats(
+                lengths.size() - previousLengths.size(), lengthDelta));
+
+        long postingCount = postings.values().stream().mapToLong(PostingList::size).sum();
+        stats.recordBatch(termFrequencies.size(), postingCount, operations, System.nanoTime() - start);
+    }
+
+    /**
+     * Drops the document from the posting lists of the terms listed in its forward index entry only,
+     * with one batched {@link RemovePosting} per owning member. Documents indexed before the forward
+     * index existed have no entry and still fall back to a scan of the whole inverted index.
+     */
+    public void removeDocument(String documentId) {
+        Integer ordinal = dictionary.find(documentId);
+        if (ordinal == null) return;
+
+        Lock handoff = segments == null ? null : segments.handoffLock().readLock();
+        if (handoff != null) handoff.lock();
+        try {
+            DocumentTerms terms = forwardIndex.remove(documentId);
+            if (terms != null) {
+                Set<String> keys = new HashSet<>(List.of(terms.getTerms()));
+                CompletableFuture.allOf(removePostings(new int[]{ordinal}, keys).toArray(new CompletableFuture[0])).join();
+            } else if (docLengths.containsKey(documentId)) {
+                invertedIndex.executeOnEntries(new RemovePosting(ordinal));
+            }
+            if (segments != null) {
+                segments.forget(documentId);
+                segments.markDeleted(ordinal);
+            }
+        } finally {
+            if (handoff != null) handoff.unlock();
+        }
+
+        Integer previous = docLengths.remove(documentId);
+        if (previous != null) {
+            indexStats.executeOnKey(CollectionStats.KEY, new UpdateCollectionStats(-1, -previous));
+        }
+    }
+
+    /** Drops documents written to a segment from the in-memory posting lists of {@code terms}. */
+    void removeFromMemory(Set<String> terms, int[] sortedOrdinals) {
+        CompletableFuture.allOf(removePostings(sortedOrdinals, terms).toArray(new CompletableFuture[0])).join();
+    }
+
+    private List<CompletableFuture<?>> removePostings(int[] sortedOrdinals, Set<String> terms) {
+        Map<String, Integer> keys = new HashMap<>();
+        for (String term : terms) keys.put(term, 0);
+
+        List<CompletableFuture<?>> pending = new ArrayList<>();
+        for (Map<String, Integer> chunk : chunksByOwner(keys)) {
+            pending.add(invertedIndex.submitToKeys(chunk.keySet(), new RemovePosting(sortedOrdinals))
+                    .toCompletableFuture());
+        }
+        return pending;
+    }
+
+    // Splits terms by the member owning their partition, in chunks of at most batchSize terms
+    private <V> List<Map<String, V>> chunksByOwner(Map<String, V> termValues) {
+        PartitionService partitions = hz.getPartitionService();
+        Map<Member, Map<String, V>> byOwner = new HashMap<>();
+        for (Map.Entry<String, V> e : termValues.entrySet()) {
+            Member owner = partitions.getPartition(e.getKey()).getOwner();
+            byOwner.computeIfAbsent(owner, m -> new HashMap<>()).put(e.getKey(), e.getValue());
+        }
+
+        List<Map<String, V>> chunks = new ArrayList<>();
+        for (Map<String, V> ownerBatch : byOwner.values()) {
+            Map<String, V> chunk = new HashMap<>();
+            for (Map.Entry<String, V> e : ownerBatch.entrySet()) {
+                chunk.put(e.getKey(), e.getValue());
+                if (chunk.size() >= batchSize) {
+                    chunks.add(chunk);
+                    chunk = new HashMap<>();
+                }
+            }
+            if (!chunk.isEmpty()) {
+                chunks.add(chunk);
+            }
+        }
+        return chunks;
     }
 
     public int size() {
@@ -68,6 +428,8 @@ public class HazelcastIndexProvider {
     }
 
     public void shutdown() {
+        if (snapshots != null) snapshots.close();
+        if (segments != null) segments.close();
         hz.shutdown();
     }
 }
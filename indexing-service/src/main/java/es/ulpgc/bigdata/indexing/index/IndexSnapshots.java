@@ -0,0 +1,532 @@
+package es.ulpgc.bigdata.indexing.index;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hazelcast.collection.ISet;
+import com.hazelcast.collection.ItemEvent;
+import com.hazelcast.collection.ItemListener;
+import com.hazelcast.core.EntryEvent;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.cp.lock.FencedLock;
+import com.hazelcast.map.IMap;
+import com.hazelcast.map.listener.EntryAddedListener;
+import com.hazelcast.map.listener.EntryEvictedListener;
+import com.hazelcast.map.listener.EntryRemovedListener;
+import com.hazelcast.map.listener.EntryUpdatedListener;
+
+import es.ulpgc.bigdata.index.CollectionStats;
+import es.ulpgc.bigdata.index.DocumentDictionary;
+import es.ulpgc.bigdata.index.DocumentMetadata;
+import es.ulpgc.bigdata.index.DocumentTerms;
+import es.ulpgc.bigdata.index.IndexGeneration;
+import es.ulpgc.bigdata.index.SegmentInfo;
+
+/**
+ * Periodic snapshots of the index maps to local binary files, and bulk restore from them into a
+ * cold cluster.
+ * <p>
+ * One indexer at a time (the holder of a CP lock) writes snapshots. It starts a chain with a full
+ * snapshot, then every {@code intervalMillis} writes a delta with only the keys changed since the
+ * previous file, tracked with key-only entry listeners; every {@code fullEvery} deltas a new chain
+ * starts. Entries are read while indexing goes on, so a single file is not a point-in-time view, but
+ * a key that changes while a file is written is tracked again and lands in the next delta: replaying
+ * a chain in order converges to the state at the time of its last file.
+ * <p>
+ * Segment files are not copied: they are immutable and already on disk, only their catalog is. The
+ * catalog (one entry per segment) is written whole in every file, with tombstones for the segments
+ * dropped since the previous one, so it never depends on listener events having arrived; after each
+ * file the segment sequence it read is published as {@link #SEGMENT_MARK}, and merged-away segment
+ * files are only deleted once that mark has passed their drop.
+ */
+public class IndexSnapshots implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(IndexSnapshots.class);
+
+    /** CP counter: value of {@link SegmentInfo#SEQUENCE} read by the last snapshot written. */
+    public static final String SEGMENT_MARK = "index-snapshot-segment-mark";
+
+    private static final int BATCH = 1000;
+    private static final int KEEP_CHAINS = 2;
+
+    private final HazelcastInstance hz;
+    private final Path directory;
+    private final int fullEvery;
+    private final List<Section<?>> sections = new ArrayList<>();
+    private final FencedLock writerLock;
+    private final FencedLock restoreLock;
+    private final ScheduledExecutorService scheduler;
+
+    // owned by the scheduler thread
+    private boolean tracking;
+    private long chain;
+    private int delta;
+
+    private volatile Map<String, Object> last = Map.of();
+
+    IndexSnapshots(HazelcastInstance hz, Path directory, long intervalMillis, int fullEvery) throws IOException {
+        Files.createDirectories(directory);
+        this.hz = hz;
+        this.directory = directory;
+        this.fullEvery = Math.max(1, fullEvery);
+        this.writerLock = hz.getCPSubsystem().getLock("index-snapshot-writer");
+        this.restoreLock = hz.getCPSubsystem().getLock("index-snapshot-restore");
+
+        sections.add(new MapSection<>(hz.<String, Integer>getMap("doc-ordinals"), SnapshotFile.STRING, SnapshotFile.INT));
+        sections.add(new MapSection<>(hz.<Integer, String>getMap("doc-ids"), SnapshotFile.INT, SnapshotFile.STRING));
+        sections.add(new MapSection<>(hz.<String, Integer>getMap("doc-lengths"), SnapshotFile.STRING, SnapshotFile.INT));
+        sections.add(new MapSection<>(hz.<String, CollectionStats>getMap(CollectionStats.MAP),
+                SnapshotFile.STRING, SnapshotFile.COLLECTION_STATS));
+        sections.add(new MapSection<>(hz.<String, DocumentMetadata>getMap(DocumentMetadata.MAP),
+                SnapshotFile.STRING, SnapshotFile.METADATA));
+        sections.add(new MapSection<>(hz.<String, DocumentTerms>getMap(DocumentTerms.MAP),
+                SnapshotFile.STRING, SnapshotFile.DOCUMENT_TERMS));
+        sections.add(new CatalogSection(hz.getMap(SegmentInfo.MAP)));
+        sections.add(new MapSection<>(hz.getMap("inverted-index"), SnapshotFile.STRING, SnapshotFile.POSTINGS));
+        sections.add(new SetSection(hz.getSet("indexed-docs")));
+
+        this.chain = latestChain();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "index-snapshots");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::snapshotQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public Map<String, Object> snapshot() {
+        return last;
+    }
+
+    // ---- writing ----
+
+    private void snapshotQuietly() {
+        try {
+            snapshotNow();
+        } catch (Exception e) {
+            log.error("Index snapshot failed", e);
+        }
+    }
+
+    /** Writes the next file of the chain if this indexer holds the writer lock (scheduler thread only). */
+    private void snapshotNow() throws IOException {
+        if (!writerLock.isLockedByCurrentThread() && !writerLock.tryLock()) return;
+        if (!tracking) {
+            // changes made before the listeners existed are unknown: start with a full snapshot
+            sections.forEach(Section::track);
+            tracking = true;
+            delta = fullEvery;
+        }
+        boolean full = delta >= fullEvery;
+        if (!full && sections.stream().allMatch(s -> s.dirty.isEmpty())) return;
+        if (full) {
+            chain++;
+            delta = 0;
+        } else {
+            delta++;
+        }
+
+        long start = System.nanoTime();
+        Path file = directory.resolve(SnapshotFile.fileName(chain, delta));
+        long entries = 0;
+        long bytes;
+        // read before any section: everything dropped before these values is absent from this file
+        Map<String, Long> counters = counters();
+        try (SnapshotFile.Writer writer = new SnapshotFile.Writer(file, full, chain, delta, counters, sections.size())) {
+            for (Section<?> section : sections) {
+                entries += section.write(writer, full);
+            }
+            bytes = writer.commit();
+        } catch (IOException | RuntimeException e) {
+            // the keys taken for this file are lost from tracking: make the next file a full one
+            delta = fullEvery;
+            throw e;
+        }
+        long segmentSequence = counters.get(SegmentInfo.SEQUENCE);
+        hz.getCPSubsystem().getAtomicLong(SEGMENT_MARK).alter(mark -> Math.max(mark, segmentSequence));
+        if (full) deleteOldChains();
+
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Map<String, Object> info = new LinkedHashMap<>();
+        info.put("file", file.getFileName().toString());
+        info.put("full", full);
+        info.put("entries", entries);
+        info.put("bytes", bytes);
+        info.put("millis", millis);
+        info.put("at", System.currentTimeMillis());
+        last = info;
+        log.info("Snapshot {} written: {} entries, {} bytes in {} ms", file.getFileName(), entries, bytes, millis);
+    }
+
+    private Map<String, Long> counters() {
+        Map<String, Long> out = new LinkedHashMap<>();
+        for (String name : List.of(IndexGeneration.NAME, DocumentDictionary.SEQUENCE, SegmentInfo.SEQUENCE)) {
+            out.put(name, hz.getCPSubsystem().getAtomicLong(name).get());
+        }
+        return out;
+    }
+
+    private void deleteOldChains() {
+        TreeMap<Long, List<Path>> chains = listChains();
+        while (chains.size() > KEEP_CHAINS) {
+            for (Path p : chains.pollFirstEntry().getValue()) {
+                try {
+                    Files.deleteIfExists(p);
+                } catch (IOException e) {
+                    log.warn("Could not delete old snapshot {}: {}", p, e.getMessage());
+                }
+            }
+        }
+    }
+
+    // ---- restore ----
+
+    /**
+     * Loads the newest readable chain (its full snapshot, then its deltas in order up to the first
+     * unreadable one) if the cluster holds no index yet. Must run before indexing starts. Returns the
+     * number of entries loaded, 0 when nothing was restored.
+     */
+    public long restoreIfEmpty() {
+        restoreLock.lock();
+        try {
+            if (!hz.getSet("indexed-docs").isEmpty() || !hz.getMap("doc-ordinals").isEmpty()
+                    || !hz.getMap("inverted-index").isEmpty()) {
+                log.info("Index already populated, not restoring a snapshot");
+                return 0;
+            }
+            TreeMap<Long, List<Path>> chains = listChains();
+            for (Long c : chains.descendingKeySet()) {
+                List<Path> files = chains.get(c);
+                if (!files.get(0).getFileName().toString().equals(SnapshotFile.fileName(c, 0))) continue;
+                try {
+                    return restore(files);
+                } catch (IOException e) {
+                    log.warn("Snapshot chain {} unusable, trying an older one: {}", c, e.getMessage());
+                }
+            }
+            log.info("No snapshot to restore in {}", directory);
+            return 0;
+        } finally {
+            restoreLock.unlock();
+        }
+    }
+
+    private long restore(List<Path> files) throws IOException {
+        long start = System.nanoTime();
+        Map<String, Section<?>> byName = new HashMap<>();
+        sections.forEach(s -> byName.put(s.name(), s));
+
+        long entries = 0;
+        Map<String, Long> counters = null;
+        for (int i = 0; i < files.size(); i++) {
+            Path file = files.get(i);
+            SnapshotFile.Reader reader;
+            try {
+                reader = SnapshotFile.Reader.open(file);
+            } catch (IOException e) {
+                // a full snapshot must be readable; a bad delta only ends the chain early
+                if (i == 0) throw e;
+                log.warn("Stopping restore at {}: {}", file.getFileName(), e.getMessage());
+                break;
+            }
+            try (reader) {
+                for (int s = 0; s < reader.sections; s++) {
+                    String name = reader.nextSection();
+                    Section<?> section = byName.get(name);
+                    if (section == null) throw new IOException("Unknown section " + name + " in " + file);
+                    entries += section.load(reader.input());
+                }
+                counters = reader.counters;
+            }
+            log.info("Restored {}", file.getFileName());
+        }
+
+        if (counters != null) {
+            for (Map.Entry<String, Long> c : counters.entrySet()) {
+                var counter = hz.getCPSubsystem().getAtomicLong(c.getKey());
+                // the generation moves past the snapshot, so nothing cached before the restart is served
+                long value = c.getKey().equals(IndexGeneration.NAME) ? c.getValue() + 1 : c.getValue();
+                counter.alter(current -> Math.max(current, value));
+            }
+        }
+        log.info("Restored {} entries from {} snapshot files in {} ms", entries, files.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return entries;
+    }
+
+    // ---- files ----
+
+    private long latestChain() {
+        TreeMap<Long, List<Path>> chains = listChains();
+        return chains.isEmpty() ? 0 : chains.lastKey();
+    }
+
+    // chain -> its files in delta order
+    private TreeMap<Long, List<Path>> listChains() {
+        TreeMap<Long, List<Path>> chains = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "snapshot-*-*.bin")) {
+            for (Path file : files) {
+                String[] parts = file.getFileName().toString().replace(".bin", "").split("-");
+                try {
+                    chains.computeIfAbsent(Long.parseLong(parts[1]), c -> new ArrayList<>()).add(file);
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Could not list snapshots in {}: {}", directory, e.getMessage());
+        }
+        chains.values().forEach(list -> list.sort(null));
+        return chains;
+    }
+
+    /** Writes a last delta (if this indexer is the writer) so a restart loses as little as possible. */
+    @Override
+    public void close() {
+        try {
+            scheduler.submit(() -> {
+                if (writerLock.isLockedByCurrentThread()) {
+                    snapshotQuietly();
+                    writerLock.unlock();
+                }
+            }).get(60, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | java.util.concurrent.TimeoutException e) {
+            log.warn("Final snapshot failed: {}", e.getMessage());
+        }
+        scheduler.shutdownNow();
+    }
+
+    // ---- sections ----
+
+    /** One map of the index: its tracked changes, how to dump them and how to load them back. */
+    private abstract static class Section<K> {
+
+        final Set<K> dirty = ConcurrentHashMap.newKeySet();
+
+        abstract String name();
+
+        abstract void track();
+
+        abstract Collection<K> allKeys();
+
+        abstract int write(SnapshotFile.Writer writer, Collection<K> keys) throws IOException;
+
+        abstract int load(DataInput in) throws IOException;
+
+        /** Takes the keys to write first: changes arriving meanwhile stay tracked for the next file. */
+        int write(SnapshotFile.Writer writer, boolean full) throws IOException {
+            List<K> keys = new ArrayList<>(dirty);
+            dirty.removeAll(keys);
+            if (full) {
+                keys = new ArrayList<>(allKeys());
+            }
+            return write(writer, keys);
+        }
+    }
+
+    private static class MapSection<K, V> extends Section<K>
+            implements EntryAddedListener<K, V>, EntryUpdatedListener<K, V>, EntryRemovedListener<K, V>,
+            EntryEvictedListener<K, V> {
+
+        private final IMap<K, V> map;
+        private final SnapshotFile.Codec<K> keyCodec;
+        private final SnapshotFile.Codec<V> valueCodec;
+
+        MapSection(IMap<K, V> map, SnapshotFile.Codec<K> keyCodec, SnapshotFile.Codec<V> valueCodec) {
+            this.map = map;
+            this.keyCodec = keyCodec;
+            this.valueCodec = valueCodec;
+        }
+
+        @Override
+        String name() {
+            return map.getName();
+        }
+
+        @Override
+        void track() {
+            map.addEntryListener(this, false);
+        }
+
+        @Override
+        Collection<K> allKeys() {
+            return map.keySet();
+        }
+
+        @Override
+        int write(SnapshotFile.Writer writer, Collection<K> keys) throws IOException {
+            DataOutput out = writer.section(name(), keys.size());
+            List<K> batch = new ArrayList<>(BATCH);
+            for (K key : keys) {
+                batch.add(key);
+                if (batch.size() == BATCH) {
+                    writeBatch(out, batch);
+                    batch.clear();
+                }
+            }
+            writeBatch(out, batch);
+            return keys.size();
+        }
+
+        private void writeBatch(DataOutput out, List<K> batch) throws IOException {
+            if (batch.isEmpty()) return;
+            Map<K, V> values = map.getAll(new HashSet<>(batch));
+            for (K key : batch) {
+                V value = values.get(key);
+                keyCodec.write(out, key);
+                out.writeBoolean(value != null); // removed since: tombstone
+                if (value != null) valueCodec.write(out, value);
+            }
+        }
+
+        @Override
+        int load(DataInput in) throws IOException {
+            int count = in.readInt();
+            Map<K, V> batch = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                K key = keyCodec.read(in);
+                if (in.readBoolean()) {
+                    batch.put(key, valueCodec.read(in));
+                    if (batch.size() == BATCH) {
+                        map.setAll(batch);
+                        batch.clear();
+                    }
+                } else {
+                    batch.remove(key);
+                    map.delete(key);
+                }
+            }
+            if (!batch.isEmpty()) map.setAll(batch);
+            return count;
+        }
+
+        @Override
+        public void entryAdded(EntryEvent<K, V> event) {
+            dirty.add(event.getKey());
+        }
+
+        @Override
+        public void entryUpdated(EntryEvent<K, V> event) {
+            dirty.add(event.getKey());
+        }
+
+        @Override
+        public void entryRemoved(EntryEvent<K, V> event) {
+            dirty.add(event.getKey());
+        }
+
+        @Override
+        public void entryEvicted(EntryEvent<K, V> event) {
+            dirty.add(event.getKey());
+        }
+    }
+
+    /** The segment catalog, written whole every time; see the class comment. */
+    private static final class CatalogSection extends MapSection<String, SegmentInfo> {
+
+        // segments the chain holds as of its last file
+        private Set<String> written = Set.of();
+
+        CatalogSection(IMap<String, SegmentInfo> catalog) {
+            super(catalog, SnapshotFile.STRING, SnapshotFile.SEGMENT);
+        }
+
+        @Override
+        int write(SnapshotFile.Writer writer, boolean full) throws IOException {
+            dirty.clear();
+            Set<String> live = new HashSet<>(allKeys());
+            Set<String> keys = new HashSet<>(live);
+            if (!full) keys.addAll(written);
+            written = live;
+            return write(writer, keys);
+        }
+    }
+
+    private static final class SetSection extends Section<String> implements ItemListener<String> {
+
+        private final ISet<String> set;
+
+        SetSection(ISet<String> set) {
+            this.set = set;
+        }
+
+        @Override
+        String name() {
+            return set.getName();
+        }
+
+        @Override
+        void track() {
+            set.addItemListener(this, true);
+        }
+
+        @Override
+        Collection<String> allKeys() {
+            return new ArrayList<>(set);
+        }
+
+        @Override
+        int write(SnapshotFile.Writer writer, Collection<String> keys) throws IOException {
+            DataOutput out = writer.section(name(), keys.size());
+            Set<String> present = keys.size() > BATCH ? new HashSet<>(set) : null;
+            for (String key : keys) {
+                SnapshotFile.STRING.write(out, key);
+                out.writeBoolean(present != null ? present.contains(key) : set.contains(key));
+            }
+            return keys.size();
+        }
+
+        @Override
+        int load(DataInput in) throws IOException {
+            int count = in.readInt();
+            List<String> batch = new ArrayList<>(BATCH);
+            for (int i = 0; i < count; i++) {
+                String key = SnapshotFile.STRING.read(in);
+                if (in.readBoolean()) {
+                    batch.add(key);
+                    if (batch.size() == BATCH) {
+                        set.addAll(batch);
+                        batch.clear();
+                    }
+                } else {
+                    batch.remove(key);
+                    set.remove(key);
+                }
+            }
+            if (!batch.isEmpty()) set.addAll(batch);
+            return count;
+        }
+
+        @Override
+        public void itemAdded(ItemEvent<String> event) {
+            dirty.add(event.getItem());
+        }
+
+        @Override
+        public void itemRemoved(ItemEvent<String> event) {
+            dirty.add(event.getItem());
+        }
+    }
+}
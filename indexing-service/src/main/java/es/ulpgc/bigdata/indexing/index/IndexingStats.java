@@ -0,0 +1,45 @@
+package es.ulpgc.bigdata.indexing.index;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Local indexing throughput counters, exposed by /index/status
+public class IndexingStats {
+
+    private final long startedAt = System.nanoTime();
+    private final AtomicLong documents = new AtomicLong();
+    private final AtomicLong postings = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong writeNanos = new AtomicLong();
+
+    public void recordDocument(int postingCount, int batchCount, long nanos) {
+        documents.incrementAndGet();
+        postings.addAndGet(postingCount);
+        batches.addAndGet(batchCount);
+        writeNanos.addAndGet(nanos);
+    }
+
+    public void recordBatch(int documentCount, long postingCount, int batchCount, long nanos) {
+        documents.addAndGet(documentCount);
+        postings.addAndGet(postingCount);
+        batches.addAndGet(batchCount);
+        writeNanos.addAndGet(nanos);
+    }
+
+    public Map<String, Object> snapshot() {
+        long docs = documents.get();
+        double writeSeconds = writeNanos.get() / 1e9;
+        double uptimeSeconds = (System.nanoTime() - startedAt) / 1e9;
+
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("documents", docs);
+        out.put("postings", postings.get());
+        out.put("batches", batches.get());
+        // docs/s while writing to the index vs. docs/s over the whole process lifetime
+        out.put("docsPerSecondWriting", writeSeconds > 0 ? docs / writeSeconds : 0.0);
+        out.put("docsPerSecondOverall", uptimeSeconds > 0 ? docs / uptimeSeconds : 0.0);
+        out.put("avgWriteMillis", docs > 0 ? writeNanos.get() / 1e6 / docs : 0.0);
+        return out;
+    }
+}
@@ -0,0 +1,442 @@
+package es.ulpgc.bigdata.indexing.index;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.cp.IAtomicLong;
+import com.hazelcast.cp.lock.FencedLock;
+import com.hazelcast.map.IMap;
+
+import es.ulpgc.bigdata.index.DocumentTerms;
+import es.ulpgc.bigdata.index.MarkDeleted;
+import es.ulpgc.bigdata.index.PostingList;
+import es.ulpgc.bigdata.index.ReadFingerprint;
+import es.ulpgc.bigdata.index.SegmentInfo;
+import es.ulpgc.bigdata.index.SegmentReader;
+import es.ulpgc.bigdata.index.SegmentSet;
+import es.ulpgc.bigdata.index.SegmentWriter;
+
+/**
+ * Moves indexed documents from the Hazelcast heap maps into immutable segment files.
+ * <p>
+ * Every document indexed on this node is also accumulated in a local buffer. Once the buffer holds
+ * {@code flushDocs} documents (or every {@code flushMillis}) it is written as a segment and registered
+ * in the {@link SegmentInfo#MAP} catalog. {@code handoffMillis} later, when search services have had
+ * time to open the new file, the segment is sealed and the buffered documents are removed from the
+ * in-memory inverted index, which therefore only keeps the recent deltas. A document that changed or
+ * was removed after it was buffered is marked deleted in the segment instead and left in memory.
+ * <p>
+ * A background task merges sealed segments following a {@link TieredMergePolicy}; a cluster-wide lock
+ * makes sure only one indexer merges at a time.
+ */
+public class SegmentIndexer implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(SegmentIndexer.class);
+
+    // merged-away files are kept this long for readers that still have them in their catalog view
+    private static final long FILE_DELETE_GRACE_MS = 60_000;
+    private static final long FILE_DELETE_CHECK_MS = 10_000;
+    private static final long ORPHAN_AGE_MS = 3_600_000;
+
+    private final HazelcastIndexProvider provider;
+    private final IMap<String, SegmentInfo> catalog;
+    private final IMap<String, DocumentTerms> forwardIndex;
+    private final IAtomicLong sequence;
+    // segment sequence covered by the last snapshot written (null: snapshots off)
+    private final IAtomicLong snapshotMark;
+    private final FencedLock mergeLock;
+    private final Path directory;
+    private final SegmentSet segments;
+    private final TieredMergePolicy policy;
+    private final int flushDocs;
+    private final long handoffMillis;
+    private final ReadWriteLock handoffLock = new ReentrantReadWriteLock();
+    private final ScheduledExecutorService scheduler;
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong merges = new AtomicLong();
+    // merged-away files waiting to be deleted (scheduler thread only)
+    private final List<Dropped> dropped = new ArrayList<>();
+    private Buffer buffer = new Buffer();
+
+    /**
+     * With {@code snapshots} on, a merged-away file is also kept until a snapshot written after the
+     * merge no longer lists it, so a restore never brings back a catalog naming deleted files.
+     */
+    SegmentIndexer(HazelcastIndexProvider provider, HazelcastInstance hz, Path directory, int flushDocs,
+                   long flushMillis, long handoffMillis, long mergeMillis, TieredMergePolicy policy,
+                   boolean snapshots) throws IOException {
+        Files.createDirectories(directory);
+        this.provider = provider;
+        this.catalog = hz.getMap(SegmentInfo.MAP);
+        this.forwardIndex = hz.getMap(DocumentTerms.MAP);
+        this.sequence = hz.getCPSubsystem().getAtomicLong(SegmentInfo.SEQUENCE);
+        this.snapshotMark = snapshots ? hz.getCPSubsystem().getAtomicLong(IndexSnapshots.SEGMENT_MARK) : null;
+        this.mergeLock = hz.getCPSubsystem().getLock("segment-merge");
+        this.directory = directory;
+        this.segments = new SegmentSet(directory);
+        this.policy = policy;
+        this.flushDocs = Math.max(1, flushDocs);
+        this.handoffMillis = handoffMillis;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "segment-indexer");
+            t.setDaemon(true);
+            return t;
+        });
+
+        refresh();
+        scheduler.execute(this::deleteOrphans);
+        scheduler.scheduleWithFixedDelay(this::flushQuietly, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::mergeQuietly, mergeMillis, mergeMillis, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::deleteDropped, FILE_DELETE_CHECK_MS, FILE_DELETE_CHECK_MS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /** Held (shared) by indexing and removals; the handoff takes it exclusively. */
+    ReadWriteLock handoffLock() {
+        return handoffLock;
+    }
+
+    /** Buffers a document just written to the in-memory index. */
+    void record(String documentId, int ordinal, Map<String, Integer> termFrequencies) {
+        boolean full;
+        synchronized (this) {
+            buffer.add(documentId, ordinal, termFrequencies);
+            full = buffer.documents() >= flushDocs;
+        }
+        if (full && flushRequested.compareAndSet(false, true)) {
+            scheduler.execute(this::flushQuietly);
+        }
+    }
+
+    /** A buffered copy of a removed document must not be handed off. */
+    synchronized void forget(String documentId) {
+        buffer.invalidate(documentId);
+    }
+
+    /** Marks a replaced or removed document as deleted in every segment holding a copy of it. */
+    void markDeleted(int ordinal) {
+        markDeleted(new int[]{ordinal});
+    }
+
+    void markDeleted(int[] sortedOrdinals) {
+        if (sortedOrdinals.length > 0 && !catalog.isEmpty()) {
+            catalog.executeOnEntries(new MarkDeleted(sortedOrdinals));
+        }
+    }
+
+    /** Live postings of {@code term} in the segments, with the catalog re-read first (diagnostics only). */
+    PostingList postings(String term) {
+        refresh();
+        return segments.postings(term);
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> out = new LinkedHashMap<>(segments.snapshot());
+        synchronized (this) {
+            out.put("bufferedDocuments", buffer.documents());
+        }
+        out.put("flushes", flushes.get());
+        out.put("merges", merges.get());
+        return out;
+    }
+
+    // ---- flush and handoff ----
+
+    private void flushQuietly() {
+        flushRequested.set(false);
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("Segment flush failed", e);
+        }
+    }
+
+    void flush() {
+        Buffer full;
+        synchronized (this) {
+            if (buffer.documents() == 0) return;
+            full = buffer;
+            buffer = new Buffer();
+        }
+
+        long seq = sequence.incrementAndGet();
+        String name = SegmentInfo.name(seq);
+        int[] ordinals = sorted(full.ordinals.values());
+        int[] dirty = sorted(full.dirty);
+
+        long bytes;
+        try (SegmentWriter writer = new SegmentWriter(directory.resolve(name + SegmentInfo.FILE_SUFFIX))) {
+            List<Map.Entry<byte[], PostingList>> terms = new ArrayList<>(full.postings.size());
+            for (Map.Entry<String, PostingList> e : full.postings.entrySet()) {
+                terms.add(Map.entry(e.getKey().getBytes(StandardCharsets.UTF_8), e.getValue()));
+            }
+            terms.sort((a, b) -> Arrays.compareUnsigned(a.getKey(), b.getKey()));
+            for (Map.Entry<byte[], PostingList> e : terms) {
+                writer.add(e.getKey(), e.getValue());
+            }
+            bytes = writer.finish(ordinals);
+        } catch (IOException e) {
+            // nothing is lost: the documents simply stay in the in-memory index
+            log.error("Could not write segment {}; its {} documents stay in memory: {}",
+                    name, full.documents(), e.getMessage());
+            return;
+        }
+
+        catalog.set(name, new SegmentInfo(name, seq, bytes, ordinals, dirty, false));
+        flushes.incrementAndGet();
+        refresh();
+        log.info("Flushed {} documents ({} terms, {} bytes) to segment {}",
+                full.documents(), full.postings.size(), bytes, name);
+
+        scheduler.schedule(() -> handoffQuietly(full, name), handoffMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void handoffQuietly(Buffer full, String name) {
+        try {
+            handoff(full, name);
+        } catch (Exception e) {
+            log.error("Handoff of segment {} failed; its documents stay in memory", name, e);
+        }
+    }
+
+    /**
+     * Seals the segment and drops its documents from the in-memory index. A document whose forward
+     * index entry no longer matches the buffered copy was reindexed or removed meanwhile: its copy in
+     * the segment is stale, so it is marked deleted there and the in-memory postings are kept. So is
+     * a document already deleted in the segment: reindexed with identical content, its fingerprint is
+     * unchanged, but the reindex deleted the segment copy and only the in-memory one is live.
+     */
+    private void handoff(Buffer full, String name) {
+        handoffLock.writeLock().lock();
+        try {
+            Map<String, Long> current = forwardIndex.executeOnKeys(full.fingerprints.keySet(), new ReadFingerprint());
+            Set<Integer> changed = new HashSet<>(full.dirty);
+            full.fingerprints.forEach((id, fingerprint) -> {
+                if (!fingerprint.equals(current.get(id))) changed.add(full.ordinals.get(id));
+            });
+            SegmentInfo info = catalog.get(name);
+            if (info != null) {
+                for (int ordinal : info.getDeleted()) changed.add(ordinal);
+            }
+            catalog.executeOnKey(name, new MarkDeleted(sorted(changed), true));
+
+            Set<Integer> handedOff = new HashSet<>(full.ordinals.values());
+            handedOff.removeAll(changed);
+            if (!handedOff.isEmpty()) {
+                provider.removeFromMemory(full.postings.keySet(), sorted(handedOff));
+            }
+            log.info("Segment {} sealed: {} documents handed off, {} kept in memory",
+                    name, handedOff.size(), changed.size());
+        } finally {
+            handoffLock.writeLock().unlock();
+        }
+    }
+
+    // ---- merging ----
+
+    private void mergeQuietly() {
+        try {
+            refresh();
+            if (!mergeLock.tryLock()) return;
+            try {
+                for (List<SegmentInfo> group : policy.findMerges(catalog.values())) {
+                    merge(group);
+                }
+            } finally {
+                mergeLock.unlock();
+            }
+        } catch (Exception e) {
+            log.error("Segment merge failed", e);
+        }
+    }
+
+    /**
+     * K-way merge of the groups' term dictionaries into a new segment without their deleted documents.
+     * The new segment is registered before the old ones are dropped from the catalog, so readers
+     * always see every document in at least one of them (duplicates resolve to the same postings).
+     */
+    private void merge(List<SegmentInfo> group) throws IOException {
+        int[] ordinals = group.stream().flatMapToInt(s -> Arrays.stream(s.liveOrdinals())).distinct().sorted().toArray();
+        if (ordinals.length == 0) {
+            drop(group);
+            return;
+        }
+
+        long seq = sequence.incrementAndGet();
+        String name = SegmentInfo.name(seq);
+        long bytes;
+        try (SegmentWriter writer = new SegmentWriter(directory.resolve(name + SegmentInfo.FILE_SUFFIX))) {
+            // ordered by term, then by age, so the postings of one term are collected oldest first
+            PriorityQueue<Source> queue = new PriorityQueue<>((a, b) -> {
+                int cmp = Arrays.compareUnsigned(a.cursor().term(), b.cursor().term());
+                return cmp != 0 ? cmp : Long.compare(a.info().getSequence(), b.info().getSequence());
+            });
+            for (SegmentInfo info : group) {
+                SegmentReader reader = segments.reader(info.getName());
+                if (reader == null) reader = SegmentReader.open(directory.resolve(info.fileName()));
+                Source source = new Source(info, reader.terms());
+                if (source.cursor().next()) queue.add(source);
+            }
+
+            List<PostingList> lists = new ArrayList<>();
+            List<Source> advanced = new ArrayList<>();
+            while (!queue.isEmpty()) {
+                byte[] term = queue.peek().cursor().term();
+                lists.clear();
+                advanced.clear();
+                while (!queue.isEmpty() && Arrays.equals(queue.peek().cursor().term(), term)) {
+                    Source s = queue.poll();
+                    lists.add(SegmentSet.live(s.cursor().postings(), s.info()));
+                    advanced.add(s);
+                }
+                writer.add(term, SegmentSet.combine(lists));
+                for (Source s : advanced) {
+                    if (s.cursor().next()) queue.add(s);
+                }
+            }
+            bytes = writer.finish(ordinals);
+        }
+
+        catalog.set(name, new SegmentInfo(name, seq, bytes, ordinals, new int[0], true));
+        // deletions that reached the sources while they were being merged (only those: an ordinal deleted
+        // in an older source may well be live in a newer one)
+        Map<String, SegmentInfo> before = new HashMap<>();
+        group.forEach(s -> before.put(s.getName(), s));
+        int[] late = catalog.getAll(before.keySet()).values().stream()
+                .flatMapToInt(now -> Arrays.stream(now.getDeleted())
+                        .filter(o -> !before.get(now.getName()).isDeleted(o)))
+                .distinct().sorted().toArray();
+        if (late.length > 0) {
+            catalog.executeOnKey(name, new MarkDeleted(late));
+        }
+        drop(group);
+        merges.incrementAndGet();
+        refresh();
+        log.info("Merged {} segments into {} ({} documents, {} bytes)", group.size(), name, ordinals.length, bytes);
+    }
+
+    private void drop(List<SegmentInfo> group) {
+        for (SegmentInfo info : group) {
+            catalog.delete(info.getName());
+        }
+        // a snapshot that read the sequence past this value read the catalog after the deletes above
+        long after = snapshotMark == null ? 0 : sequence.incrementAndGet();
+        long deadline = System.currentTimeMillis() + FILE_DELETE_GRACE_MS;
+        for (SegmentInfo info : group) {
+            dropped.add(new Dropped(directory.resolve(info.fileName()), after, deadline));
+        }
+    }
+
+    private void deleteDropped() {
+        if (dropped.isEmpty()) return;
+        long now = System.currentTimeMillis();
+        long snapshotted = snapshotMark == null ? Long.MAX_VALUE : snapshotMark.get();
+        dropped.removeIf(d -> {
+            if (now < d.deadline || snapshotted < d.sequence) return false;
+            try {
+                Files.deleteIfExists(d.file);
+            } catch (IOException e) {
+                log.warn("Could not delete {}: {}", d.file, e.getMessage());
+            }
+            return true;
+        });
+    }
+
+    // ---- housekeeping ----
+
+    private void refresh() {
+        for (String failure : segments.refresh(catalog.values())) {
+            log.warn("Could not open segment {}", failure);
+        }
+    }
+
+    // segment files of crashed flushes or merges: old and not in the catalog. An empty catalog proves
+    // nothing (a cold cluster before its snapshot is restored), so nothing is deleted then.
+    private void deleteOrphans() {
+        Set<String> known = new HashSet<>();
+        catalog.values().forEach(s -> known.add(s.fileName()));
+        if (known.isEmpty()) return;
+        dropped.forEach(d -> known.add(d.file.getFileName().toString()));
+        long cutoff = System.currentTimeMillis() - ORPHAN_AGE_MS;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "seg-*")) {
+            for (Path file : files) {
+                if (!known.contains(file.getFileName().toString())
+                        && Files.getLastModifiedTime(file).toMillis() < cutoff) {
+                    Files.deleteIfExists(file);
+                    log.info("Deleted orphan segment file {}", file);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Could not clean up {}: {}", directory, e.getMessage());
+        }
+    }
+
+    private static int[] sorted(Collection<Integer> values) {
+        return values.stream().mapToInt(Integer::intValue).distinct().sorted().toArray();
+    }
+
+    /** Documents still in memory are left there; they are served from the heap maps as before. */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        segments.close();
+    }
+
+    private record Source(SegmentInfo info, SegmentReader.TermCursor cursor) {
+    }
+
+    private record Dropped(Path file, long sequence, long deadline) {
+    }
+
+    /** Documents indexed on this node since the last flush, as the postings of the next segment. */
+    private static final class Buffer {
+
+        final Map<String, PostingList> postings = new HashMap<>();
+        final Map<String, Integer> ordinals = new HashMap<>();
+        final Map<String, Long> fingerprints = new HashMap<>();
+        final Set<Integer> dirty = new HashSet<>();
+
+        void add(String documentId, int ordinal, Map<String, Integer> termFrequencies) {
+            // indexed twice before a flush: the postings now mix both versions
+            if (ordinals.put(documentId, ordinal) != null) dirty.add(ordinal);
+            fingerprints.put(documentId, DocumentTerms.fingerprint(termFrequencies));
+            for (Map.Entry<String, Integer> e : termFrequencies.entrySet()) {
+                postings.computeIfAbsent(e.getKey(), t -> new PostingList()).put(ordinal, e.getValue());
+            }
+        }
+
+        void invalidate(String documentId) {
+            Integer ordinal = ordinals.get(documentId);
+            if (ordinal != null) dirty.add(ordinal);
+        }
+
+        int documents() {
+            return ordinals.size();
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package es.ulpgc.bigdata.indexing.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import es.ulpgc.bigdata.index.CollectionStats;
+import es.ulpgc.bigdata.index.DocumentMetadata;
+import es.ulpgc.bigdata.index.DocumentTerms;
+import es.ulpgc.bigdata.index.PostingList;
+import es.ulpgc.bigdata.index.SegmentInfo;
+
+/**
+ * Binary format of index snapshots. A full snapshot holds every entry of the index maps; a delta
+ * holds the entries changed since the previous file of its chain, with a tombstone for removed keys.
+ * <pre>
+ *   magic, version, full (boolean), chain, delta number, created at (epoch millis)
+ *   counters   count, then (name, value) of the CP counters
+ *   sections   count, then per map: name, entry count, entries of key, present (boolean), value if present
+ *   footer     CRC32 of all the above, magic
+ * </pre>
+ * The whole file is checksummed before anything is applied from it, so a torn or corrupt file is
+ * skipped rather than half-loaded.
+ */
+final class SnapshotFile {
+
+    static final int MAGIC = 0x49534e50; // "ISNP"
+    static final int VERSION = 1;
+
+    private SnapshotFile() {
+    }
+
+    static String fileName(long chain, int delta) {
+        return String.format("snapshot-%06d-%05d.bin", chain, delta);
+    }
+
+    /** Streams one snapshot to a temporary file, synced and renamed into place by {@link #commit}. */
+    static final class Writer implements Closeable {
+
+        private final Path target;
+        private final Path temp;
+        private final FileOutputStream file;
+        private final CRC32 crc = new CRC32();
+        private final DataOutputStream out;
+        private boolean committed;
+
+        Writer(Path target, boolean full, long chain, int delta, Map<String, Long> counters, int sections)
+                throws IOException {
+            this.target = target;
+            this.temp = target.resolveSibling(target.getFileName() + ".tmp");
+            this.file = new FileOutputStream(temp.toFile());
+            this.out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(file, crc), 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeBoolean(full);
+            out.writeLong(chain);
+            out.writeInt(delta);
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(counters.size());
+            for (Map.Entry<String, Long> c : counters.entrySet()) {
+                out.writeUTF(c.getKey());
+                out.writeLong(c.getValue());
+            }
+            out.writeInt(sections);
+        }
+
+        DataOutput section(String name, int entries) throws IOException {
+            out.writeUTF(name);
+            out.writeInt(entries);
+            return out;
+        }
+
+        /** Returns the size of the file. */
+        long commit() throws IOException {
+            out.flush();
+            out.writeLong(crc.getValue());
+            out.writeInt(MAGIC);
+            out.flush();
+            file.getFD().sync();
+            out.close();
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            committed = true;
+            return Files.size(target);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (committed) return;
+            out.close();
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /** Header of a verified file; {@link #open} positions the stream at the first section. */
+    static final class Reader implements Closeable {
+
+        final boolean full;
+        final long chain;
+        final int delta;
+        final long createdAt;
+        final Map<String, Long> counters = new LinkedHashMap<>();
+        final int sections;
+        private final DataInputStream in;
+
+        private Reader(DataInputStream in) throws IOException {
+            this.in = in;
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) throw new IOException("Not a snapshot file");
+            this.full = in.readBoolean();
+            this.chain = in.readLong();
+            this.delta = in.readInt();
+            this.createdAt = in.readLong();
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                counters.put(in.readUTF(), in.readLong());
+            }
+            this.sections = in.readInt();
+        }
+
+        /** Verifies the checksum of the whole file, then opens it for reading. */
+        static Reader open(Path file) throws IOException {
+            long size = Files.size(file);
+            if (size < 12) throw new IOException("Truncated snapshot " + file);
+            CRC32 crc = new CRC32();
+            byte[] buffer = new byte[1 << 16];
+            long remaining = size - 12;
+            long stored;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                while (remaining > 0) {
+                    int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (n < 0) throw new IOException("Truncated snapshot " + file);
+                    crc.update(buffer, 0, n);
+                    remaining -= n;
+                }
+                stored = in.readLong();
+                if (in.readInt() != MAGIC) throw new IOException("Truncated snapshot " + file);
+            }
+            if (stored != crc.getValue()) throw new IOException("Checksum mismatch in " + file);
+
+            InputStream stream = new BufferedInputStream(Files.newInputStream(file), 1 << 16);
+            return new Reader(new DataInputStream(stream));
+        }
+
+        String nextSection() throws IOException {
+            return in.readUTF();
+        }
+
+        DataInput input() {
+            return in;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    // ---- value encodings ----
+
+    interface Codec<T> {
+        void write(DataOutput out, T value) throws IOException;
+
+        T read(DataInput in) throws IOException;
+    }
+
+    static final Codec<String> STRING = new Codec<>() {
+        @Override
+        public void write(DataOutput out, String value) throws IOException {
+            writeString(out, value);
+        }
+
+        @Override
+        public String read(DataInput in) throws IOException {
+            return readString(in);
+        }
+    };
+
+    static final Codec<Integer> INT = new Codec<>() {
+        @Override
+        public void write(DataOutput out, Integer value) throws IOException {
+            out.writeInt(value);
+        }
+
+        @Override
+        public Integer read(DataInput in) throws IOException {
+            return in.readInt();
+        }
+    };
+
+    static final Codec<PostingList> POSTINGS = new Codec<>() {
+        @Override
+        public void write(DataOutput out, PostingList value) throws IOException {
+            value.writeTo(out);
+        }
+
+        @Override
+        public PostingList read(DataInput in) throws IOException {
+            return PostingList.readFrom(in);
+        }
+    };
+
+    static final Codec<CollectionStats> COLLECTION_STATS = new Codec<>() {
+        @Override
+        public void write(DataOutput out, CollectionStats value) throws IOException {
+            out.writeLong(value.getDocuments());
+            out.writeLong(value.getTotalLength());
+        }
+
+        @Override
+        public CollectionStats read(DataInput in) throws IOException {
+            return new CollectionStats(in.readLong(), in.readLong());
+        }
+    };
+
+    static final Codec<DocumentMetadata> METADATA = new Codec<>() {
+        @Override
+        public void write(DataOutput out, DocumentMetadata m) throws IOException {
+            writeString(out, m.getId());
+            writeString(out, m.getTitle());
+            writeString(out, m.getAuthor());
+            writeString(out, m.getLanguage());
+            writeString(out, m.getReleaseDate());
+            writeString(out, m.getSourceUrl());
+            writeString(out, m.getTimestamp());
+            writeString(out, m.getPath());
+        }
+
+        @Override
+        public DocumentMetadata read(DataInput in) throws IOException {
+            DocumentMetadata m = new DocumentMetadata();
+            m.setId(readString(in));
+            m.setTitle(readString(in));
+            m.setAuthor(readString(in));
+            m.setLanguage(readString(in));
+            m.setReleaseDate(readString(in));
+            m.setSourceUrl(readString(in));
+            m.setTimestamp(readString(in));
+            m.setPath(readString(in));
+            return m;
+        }
+    };
+
+    static final Codec<DocumentTerms> DOCUMENT_TERMS = new Codec<>() {
+        @Override
+        public void write(DataOutput out, DocumentTerms value) throws IOException {
+            out.writeInt(value.size());
+            for (String term : value.getTerms()) writeString(out, term);
+            for (int tf : value.getFrequencies()) out.writeInt(tf);
+        }
+
+        @Override
+        public DocumentTerms read(DataInput in) throws IOException {
+            int n = in.readInt();
+            String[] terms = new String[n];
+            int[] frequencies = new int[n];
+            for (int i = 0; i < n; i++) terms[i] = readString(in);
+            for (int i = 0; i < n; i++) frequencies[i] = in.readInt();
+            return new DocumentTerms(terms, frequencies);
+        }
+    };
+
+    static final Codec<SegmentInfo> SEGMENT = new Codec<>() {
+        @Override
+        public void write(DataOutput out, SegmentInfo value) throws IOException {
+            writeString(out, value.getName());
+            out.writeLong(value.getSequence());
+            out.writeLong(value.getBytes());
+            writeInts(out, value.getOrdinals());
+            writeInts(out, value.getDeleted());
+            out.writeBoolean(value.isSealed());
+        }
+
+        @Override
+        public SegmentInfo read(DataInput in) throws IOException {
+            return new SegmentInfo(readString(in), in.readLong(), in.readLong(), readInts(in), readInts(in),
+                    in.readBoolean());
+        }
+    };
+
+    // length-prefixed UTF-8, -1 for null (writeUTF is limited to 64 KB and rejects null)
+    private static void writeString(DataOutput out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeInts(DataOutput out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int v : values) out.writeInt(v);
+    }
+
+    private static int[] readInts(DataInput in) throws IOException {
+        int[] values = new int[in.readInt()];
+        for (int i = 0; i < values.length; i++) values[i] = in.readInt();
+        return values;
+    }
+}
@@ -0,0 +1,67 @@
+package es.ulpgc.bigdata.indexing.index;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import es.ulpgc.bigdata.index.SegmentInfo;
+
+/**
+ * Picks segments to merge. Segments are grouped in size tiers, each {@code segmentsPerTier} times
+ * larger than the previous one starting at {@code floorBytes}; once a tier holds
+ * {@code segmentsPerTier} segments the oldest of them are merged into one segment of the next tier.
+ * The number of segments therefore grows logarithmically with the index, and a document is rewritten
+ * about once per tier. Segments with many deleted documents are rewritten on their own to reclaim
+ * the space, and no merge produces a segment above {@code maxMergedBytes}.
+ */
+public class TieredMergePolicy {
+
+    private final int segmentsPerTier;
+    private final long floorBytes;
+    private final long maxMergedBytes;
+    private final double expungeDeletesRatio;
+
+    public TieredMergePolicy(int segmentsPerTier, long floorBytes, long maxMergedBytes, double expungeDeletesRatio) {
+        this.segmentsPerTier = Math.max(2, segmentsPerTier);
+        this.floorBytes = Math.max(1, floorBytes);
+        this.maxMergedBytes = maxMergedBytes;
+        this.expungeDeletesRatio = expungeDeletesRatio;
+    }
+
+    /** Groups of segments to merge, each group into one new segment; only sealed segments qualify. */
+    public List<List<SegmentInfo>> findMerges(Collection<SegmentInfo> segments) {
+        Map<Integer, List<SegmentInfo>> tiers = new TreeMap<>();
+        for (SegmentInfo s : segments) {
+            if (s.isSealed()) tiers.computeIfAbsent(tier(s.liveBytes()), t -> new ArrayList<>()).add(s);
+        }
+
+        List<List<SegmentInfo>> merges = new ArrayList<>();
+        for (List<SegmentInfo> tier : tiers.values()) {
+            tier.sort(Comparator.comparingLong(SegmentInfo::getSequence));
+            while (tier.size() >= segmentsPerTier) {
+                List<SegmentInfo> group = new ArrayList<>(tier.subList(0, segmentsPerTier));
+                long bytes = group.stream().mapToLong(SegmentInfo::liveBytes).sum();
+                if (bytes > maxMergedBytes) break;
+                merges.add(group);
+                tier.subList(0, segmentsPerTier).clear();
+            }
+            for (SegmentInfo s : tier) {
+                if (s.deletedRatio() >= expungeDeletesRatio) merges.add(List.of(s));
+            }
+        }
+        return merges;
+    }
+
+    int tier(long bytes) {
+        int tier = 0;
+        long limit = floorBytes;
+        while (bytes > limit && limit <= Long.MAX_VALUE / segmentsPerTier) {
+            limit *= segmentsPerTier;
+            tier++;
+        }
+        return tier;
+    }
+}
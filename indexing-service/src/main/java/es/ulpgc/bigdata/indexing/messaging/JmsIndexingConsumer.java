@@ -3,15 +3,22 @@ package es.ulpgc.bigdata.indexing.messaging;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
+import es.ulpgc.bigdata.analysis.AnalysisConfig;
+import es.ulpgc.bigdata.analysis.Analyzer;
+import es.ulpgc.bigdata.analysis.TermFrequencies;
+import es.ulpgc.bigdata.datalake.DocumentFiles;
+import es.ulpgc.bigdata.index.DocumentMetadata;
 import es.ulpgc.bigdata.indexing.api.dto.DocumentContent;
 import es.ulpgc.bigdata.indexing.index.HazelcastIndexProvider;
-import es.ulpgc.bigdata.indexing.util.TextTokenizer;
+import es.ulpgc.bigdata.indexing.util.DocumentReader;
+import es.ulpgc.bigdata.indexing.util.LocalDatalake;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.jms.Message;
 import javax.jms.MessageListener;
 import javax.jms.TextMessage;
+import java.io.IOException;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
@@ -20,17 +27,23 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Duration;
+import java.util.List;
+import java.util.Map;
 
 public class JmsIndexingConsumer implements MessageListener {
 
     private static final Logger log = LoggerFactory.getLogger(JmsIndexingConsumer.class);
     private final HazelcastIndexProvider indexProvider;
+    private final AnalysisConfig analysis;
+    private final LocalDatalake datalake;
     private final HttpClient http = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(3)).build();
     private final String ingestionBase = System.getenv().getOrDefault("INGESTION_BASE", "http://ingestion1:7001");
     private final Gson gson = new Gson();
 
-    public JmsIndexingConsumer(HazelcastIndexProvider indexProvider) {
+    public JmsIndexingConsumer(HazelcastIndexProvider indexProvider, AnalysisConfig analysis, LocalDatalake datalake) {
         this.indexProvider = indexProvider;
+        this.analysis = analysis;
+        this.datalake = datalake;
     }
 
     @Override
@@ -57,25 +70,43 @@ public class JmsIndexingConsumer implements MessageListener {
                 return;
             }
 
-            DocumentContent doc = tryReadLocal(path);
-            if (doc == null || doc.body == null || doc.body.isBlank()) {
-                doc = fetchFromIngestion(id);
+            // local datalake copy first (the event's directory, else packed segments), streamed from disk;
+            // the ingestion service otherwise
+            Map<String, Object> metadata = null;
+            Map<String, Integer> termFrequencies = null;
+            Path dir = localDocument(path);
+            try {
+                if (dir != null) {
+                    metadata = readMetadata(dir);
+                    termFrequencies = TermFrequencies.of(
+                            DocumentReader.ofParts(List.of(DocumentReader.body(dir))), analyzerFor(metadata));
+                } else if (datalake.exists(id)) {
+                    metadata = datalake.metadata(id);
+                    termFrequencies = TermFrequencies.of(datalake.text(id, false), analyzerFor(metadata));
+                }
+            } catch (Exception e) {
+                log.warn("Local read failed for {}: {}", id, e.getMessage());
             }
 
-            if (doc == null || doc.body == null || doc.body.isBlank()) {
-                log.warn("Empty content for {}, skipping", id);
-                return;
+            if (termFrequencies == null || termFrequencies.isEmpty()) {
+                DocumentContent doc = fetchFromIngestion(id);
+                if (doc == null || doc.body == null || doc.body.isBlank()) {
+                    log.warn("Empty content for {}, skipping", id);
+                    return;
+                }
+                metadata = doc.metadata;
+                termFrequencies = TermFrequencies.of(doc.body, analyzerFor(metadata));
             }
 
-            for (String term : TextTokenizer.tokens(doc.body)) {
-                indexProvider.invertedIndex().put(term, id);
-            }
+            indexProvider.indexDocument(id, termFrequencies);
 
-            if (doc.metadata != null) {
-                indexProvider.metadataIndex().put(id, doc.metadata);
+            if (metadata != null) {
+                DocumentMetadata documentMetadata = DocumentMetadata.fromMap(id, metadata);
+                if (documentMetadata.getPath() == null) documentMetadata.setPath(path);
+                indexProvider.metadataIndex().put(id, documentMetadata);
             }
 
-            indexProvider.indexedDocs().add(id);
+            indexProvider.markIndexed(id);
             log.info("Indexed {}", id);
 
         } catch (Exception e) {
@@ -83,35 +114,31 @@ public class JmsIndexingConsumer implements MessageListener {
         }
     }
 
-    private DocumentContent tryReadLocal(String path) {
+    private Analyzer analyzerFor(Map<String, Object> metadata) {
+        Object language = metadata == null ? null : metadata.get("language");
+        return analysis.analyzerFor(language == null ? null : language.toString());
+    }
+
+    // datalake directory of the event, if it holds a non-empty body
+    private Path localDocument(String path) {
         if (path == null || path.isBlank()) return null;
         try {
             Path p = Path.of(path);
-            if (!Files.isDirectory(p)) return null;
-
-            DocumentContent doc = new DocumentContent();
-
-            Path header = p.resolve("header.txt");
-            Path body = p.resolve("body.txt");
-            Path metadata = p.resolve("metadata.json");
-
-            doc.header = Files.exists(header)
-                    ? Files.readString(header, StandardCharsets.UTF_8) : "";
-            doc.body = Files.exists(body)
-                    ? Files.readString(body, StandardCharsets.UTF_8) : "";
-
-            if (Files.exists(metadata)) {
-                String raw = Files.readString(metadata, StandardCharsets.UTF_8);
-                doc.metadata = gson.fromJson(raw, java.util.Map.class);
-            }
-
-            return doc;
+            Path body = Files.isDirectory(p) ? DocumentFiles.body(p) : null;
+            return body != null && Files.size(body) > 0 ? p : null;
         } catch (Exception e) {
             log.warn("Local read failed for {}: {}", path, e.getMessage());
             return null;
         }
     }
 
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> readMetadata(Path dir) throws IOException {
+        Path metadata = dir.resolve("metadata.json");
+        if (!Files.exists(metadata)) return null;
+        return gson.fromJson(Files.readString(metadata, StandardCharsets.UTF_8), Map.class);
+    }
+
     private DocumentContent fetchFromIngestion(String id) {
         try {
             HttpRequest req = HttpRequest.newBuilder(URI.create(ingestionBase + "/ingest/raw/" + id))
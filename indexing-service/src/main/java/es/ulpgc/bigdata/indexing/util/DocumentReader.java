@@ -0,0 +1,122 @@
+package es.ulpgc.bigdata.indexing.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import es.ulpgc.bigdata.analysis.TermFrequencies;
+import es.ulpgc.bigdata.datalake.DocumentFiles;
+
+/**
+ * Streams datalake text into the tokenizer: a channel (a {@link FileChannel}, a record of a packed
+ * datalake, or a gzip-compressed body being inflated) fills a fixed direct buffer, UTF-8 is decoded
+ * incrementally into a fixed char buffer and every decoded chunk goes straight to the analyzer.
+ * Each indexing thread reuses one direct byte buffer and one char buffer of {@value #CHUNK} entries,
+ * whatever the size of the book. Malformed bytes become U+FFFD (a term separator) instead of failing
+ * the whole document as {@code Files.readString} did.
+ */
+public final class DocumentReader {
+
+    static final int CHUNK = 64 * 1024;
+
+    private static final ThreadLocal<ByteBuffer> BYTES = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(CHUNK));
+    private static final ThreadLocal<CharBuffer> CHARS = ThreadLocal.withInitial(() -> CharBuffer.allocate(CHUNK));
+
+    private DocumentReader() {
+    }
+
+    /**
+     * The files, in order, as one text: a newline separates them (header and body used to be joined
+     * the same way) and missing files are skipped.
+     */
+    public static TermFrequencies.TextSource of(List<Path> files) {
+        return ofParts(files.stream().map(DocumentReader::file).collect(Collectors.toList()));
+    }
+
+    public static TermFrequencies.TextSource of(Path file) {
+        return of(List.of(file));
+    }
+
+    /** Same as {@link #of(List)} for parts that are not plain files; a part opening to null is skipped. */
+    public static TermFrequencies.TextSource ofParts(List<Part> parts) {
+        return chunks -> {
+            boolean first = true;
+            for (Part part : parts) {
+                try (ReadableByteChannel channel = part.open()) {
+                    if (channel == null) continue;
+                    if (!first) chunks.accept("\n");
+                    stream(channel, chunks);
+                    first = false;
+                }
+            }
+        };
+    }
+
+    /** A plain file; skipped when missing. */
+    public static Part file(Path file) {
+        return () -> Files.isRegularFile(file) ? FileChannel.open(file, StandardOpenOption.READ) : null;
+    }
+
+    /** The body of a document directory: read straight from its file, or inflated when stored compressed. */
+    public static Part body(Path dir) {
+        return () -> {
+            Path file = DocumentFiles.body(dir);
+            if (file == null) return null;
+            return DocumentFiles.isCompressed(file)
+                    ? Channels.newChannel(DocumentFiles.open(file))
+                    : FileChannel.open(file, StandardOpenOption.READ);
+        };
+    }
+
+    private static void stream(ReadableByteChannel channel, Consumer<CharSequence> out) throws IOException {
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer bytes = BYTES.get();
+        CharBuffer chars = CHARS.get();
+        bytes.clear();
+        chars.clear();
+
+        while (true) {
+            boolean eof = channel.read(bytes) < 0;
+            bytes.flip();
+            CoderResult result;
+            do {
+                // a multi-byte sequence cut at the end of the buffer stays in `bytes` for the next read
+                result = decoder.decode(bytes, chars, eof);
+                drain(chars, out);
+            } while (result.isOverflow());
+            bytes.compact();
+            if (eof) break;
+        }
+        while (decoder.flush(chars).isOverflow()) {
+            drain(chars, out);
+        }
+        drain(chars, out);
+    }
+
+    /** Opens one part of a text, or returns null when the document does not have it. */
+    @FunctionalInterface
+    public interface Part {
+        ReadableByteChannel open() throws IOException;
+    }
+
+    private static void drain(CharBuffer chars, Consumer<CharSequence> out) {
+        chars.flip();
+        if (chars.hasRemaining()) out.accept(chars);
+        chars.clear();
+    }
+}
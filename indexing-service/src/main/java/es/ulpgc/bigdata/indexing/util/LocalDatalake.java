@@ -0,0 +1,115 @@
+package es.ulpgc.bigdata.indexing.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+import com.google.gson.Gson;
+
+import es.ulpgc.bigdata.analysis.TermFrequencies;
+import es.ulpgc.bigdata.datalake.PackedStore;
+
+/**
+ * Read-only view of the datalake volume shared with an ingestion node: one directory per document
+ * under {@code docs/} and, once the node stores packed, the segment files under {@code segments/}
+ * (opened on first use, since they may appear while the indexer runs). A document in both is read
+ * from the segments, which hold the newer copy.
+ */
+public final class LocalDatalake {
+
+    private final Path root;
+    private final Path docs;
+    private final Path segments;
+    private final Gson gson = new Gson();
+    private volatile PackedStore packed;
+
+    public LocalDatalake(Path root) {
+        this.root = root;
+        this.docs = root.resolve("docs");
+        this.segments = root.resolve(PackedStore.SEGMENT_DIR);
+    }
+
+    public Path root() {
+        return root;
+    }
+
+    public boolean exists(String id) {
+        PackedStore store = packed();
+        return (store != null && store.contains(id)) || Files.isDirectory(docs.resolve(id));
+    }
+
+    /** Every document ID, sorted. */
+    public List<String> ids() throws IOException {
+        TreeSet<String> ids = new TreeSet<>();
+        if (Files.isDirectory(docs)) {
+            try (Stream<Path> list = Files.list(docs)) {
+                list.filter(Files::isDirectory).forEach(p -> ids.add(p.getFileName().toString()));
+            }
+        }
+        PackedStore store = packed();
+        if (store != null) ids.addAll(store.ids());
+        return List.copyOf(ids);
+    }
+
+    /** Metadata as stored by the ingestion service, or null when the document has none. */
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> metadata(String id) throws IOException {
+        PackedStore store = packed();
+        String json;
+        if (store != null && store.contains(id)) {
+            json = store.metadata(id);
+        } else {
+            Path file = docs.resolve(id).resolve("metadata.json");
+            json = Files.exists(file) ? Files.readString(file, StandardCharsets.UTF_8) : null;
+        }
+        return json == null ? null : gson.fromJson(json, Map.class);
+    }
+
+    /** The document's text, streamed: body only, or header and body like the reindex endpoint. */
+    public TermFrequencies.TextSource text(String id, boolean withHeader) {
+        PackedStore store = packed();
+        if (store != null && store.contains(id)) {
+            DocumentReader.Part body = () -> channel(store.openBody(id));
+            return DocumentReader.ofParts(withHeader
+                    ? List.of(() -> channel(store.openHeader(id)), body)
+                    : List.of(body));
+        }
+        Path dir = docs.resolve(id);
+        return DocumentReader.ofParts(withHeader
+                ? List.of(DocumentReader.file(dir.resolve("header.txt")), DocumentReader.body(dir))
+                : List.of(DocumentReader.body(dir)));
+    }
+
+    /** Where the document is stored, for its metadata. */
+    public String path(String id) {
+        PackedStore store = packed();
+        return (store != null && store.contains(id) ? segments : docs.resolve(id)).toString();
+    }
+
+    private static ReadableByteChannel channel(InputStream in) {
+        return in == null ? null : Channels.newChannel(in);
+    }
+
+    private PackedStore packed() {
+        PackedStore store = packed;
+        if (store != null || !Files.isDirectory(segments)) return store;
+        synchronized (this) {
+            if (packed == null) {
+                try {
+                    packed = PackedStore.openReadOnly(segments);
+                } catch (IOException e) {
+                    return null;
+                }
+            }
+            return packed;
+        }
+    }
+}
@@ -2,13 +2,18 @@ package es.ulpgc.bigdata.ingestion;
 
 import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 
 import es.ulpgc.bigdata.ingestion.api.IngestionController;
 import es.ulpgc.bigdata.ingestion.core.BrokerPublisher;
 import es.ulpgc.bigdata.ingestion.core.DatalakePartition;
 import es.ulpgc.bigdata.ingestion.core.DocumentDownloader;
+import es.ulpgc.bigdata.ingestion.core.IngestionExecutor;
+import es.ulpgc.bigdata.ingestion.core.IngestionPipeline;
 import es.ulpgc.bigdata.ingestion.core.IngestionService;
+import es.ulpgc.bigdata.ingestion.core.LocalBackup;
 import es.ulpgc.bigdata.ingestion.core.MetadataFetcher;
 import es.ulpgc.bigdata.ingestion.core.ReplicationManager;
 import io.javalin.Javalin;
@@ -21,29 +26,66 @@ public class IngestionApplication {
         String datalakeDir = System.getenv().getOrDefault("DATALAKE_DIR", "/data/datalake");
         String peersEnv = System.getenv().getOrDefault("INGESTION_PEERS", "");
         int replicationFactor = Integer.parseInt(System.getenv().getOrDefault("REPLICATION_FACTOR", "2"));
+        // peer acknowledgements to wait for; default: a majority of all copies, the local one included
+        int writeQuorum = Integer.parseInt(System.getenv().getOrDefault("REPLICATION_WRITE_QUORUM",
+                String.valueOf(replicationFactor / 2)));
+        long replicationTimeoutMs = Long.parseLong(System.getenv().getOrDefault("REPLICATION_TIMEOUT_MS", "30000"));
         String brokerUrl = System.getenv().getOrDefault("BROKER_URL", "tcp://activemq:61616");
         String queueName = System.getenv().getOrDefault("BROKER_QUEUE", "document.ingested");
         int port = Integer.parseInt(System.getenv().getOrDefault("INGESTION_PORT", "7001"));
+        int workers = Integer.parseInt(System.getenv().getOrDefault("INGESTION_WORKERS", "8"));
+        int queueCapacity = Integer.parseInt(System.getenv().getOrDefault("INGESTION_QUEUE_CAPACITY", "10000"));
+        // DATALAKE_FORMAT=packed stores new documents in segment files instead of a directory each
+        boolean packed = "packed".equalsIgnoreCase(System.getenv().getOrDefault("DATALAKE_FORMAT", "directories"));
+        long segmentBytes = Long.parseLong(System.getenv().getOrDefault("DATALAKE_SEGMENT_MB", "64")) << 20;
+        // DATALAKE_COMPRESS=true stores new bodies compressed (body.txt.gz, or deflated packed records)
+        boolean compress = Boolean.parseBoolean(System.getenv().getOrDefault("DATALAKE_COMPRESS", "false"));
+        String backupDir = System.getenv().getOrDefault("BACKUP_DIR", "/local-backup");
+        int backupBatchDocs = Integer.parseInt(System.getenv().getOrDefault("BACKUP_BATCH_DOCS", "64"));
+        long backupDelayMs = Long.parseLong(System.getenv().getOrDefault("BACKUP_MAX_DELAY_MS", "1000"));
 
         List<String> peers = peersEnv.isBlank()
                 ? List.of()
                 : Arrays.stream(peersEnv.split(",")).map(String::trim).toList();
 
-        DatalakePartition datalake = new DatalakePartition(Path.of(datalakeDir));
+        DatalakePartition datalake = new DatalakePartition(Path.of(datalakeDir), packed, segmentBytes, compress);
         DocumentDownloader downloader = new DocumentDownloader();
         MetadataFetcher metadataFetcher = new MetadataFetcher();
-        ReplicationManager replicationManager = new ReplicationManager(peers, replicationFactor);
+        ReplicationManager replicationManager = new ReplicationManager(peers, replicationFactor, writeQuorum, replicationTimeoutMs);
         BrokerPublisher brokerPublisher = new BrokerPublisher(brokerUrl, queueName);
 
-        IngestionService ingestionService
-                = new IngestionService(datalake, downloader, metadataFetcher, replicationManager, brokerPublisher);
+        // per-stage concurrency, e.g. STAGE_DOWNLOAD_CONCURRENCY=4; publishing shares one JMS session
+        Map<IngestionPipeline.Stage, Integer> stageLimits = new EnumMap<>(IngestionPipeline.Stage.class);
+        for (IngestionPipeline.Stage stage : IngestionPipeline.Stage.values()) {
+            String def = stage == IngestionPipeline.Stage.PUBLISH ? "1" : "4";
+            stageLimits.put(stage, Integer.parseInt(
+                    System.getenv().getOrDefault("STAGE_" + stage.name() + "_CONCURRENCY", def)));
+        }
+        IngestionPipeline pipeline = new IngestionPipeline(stageLimits);
+
+        // BACKUP_DIR= (empty) turns the local backup off
+        LocalBackup backup = backupDir.isBlank()
+                ? null
+                : new LocalBackup(Path.of(backupDir), backupBatchDocs, backupDelayMs, queueCapacity);
+        if (backup != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    backup.close();
+                } catch (InterruptedException ignored) {}
+            }));
+        }
+
+        IngestionService ingestionService = new IngestionService(
+                datalake, downloader, metadataFetcher, replicationManager, brokerPublisher, pipeline, backup);
 
         // JSON mapper conf
         Javalin app = Javalin.create(config -> {
             config.jsonMapper(new JavalinJackson());
         });
 
-        new IngestionController(app, ingestionService).registerRoutes();
+        // bounded worker pool instead of a thread per request; a full queue answers 429
+        IngestionExecutor executor = new IngestionExecutor(ingestionService, workers, queueCapacity);
+        new IngestionController(app, ingestionService, executor).registerRoutes();
 
         app.get("/ingest/raw/{id}", ctx -> {
             var doc = datalake.readDocumentWithMetadata(ctx.pathParam("id"));
@@ -1,14 +1,25 @@
 package es.ulpgc.bigdata.ingestion.api;
 
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import es.ulpgc.bigdata.ingestion.api.dto.BatchIngestionRequest;
 import es.ulpgc.bigdata.ingestion.api.dto.DocumentInfoResponse;
+import es.ulpgc.bigdata.ingestion.api.dto.DocumentListResponse;
 import es.ulpgc.bigdata.ingestion.api.dto.IngestionStatusResponse;
+import es.ulpgc.bigdata.ingestion.core.DocumentCatalog;
+import es.ulpgc.bigdata.ingestion.core.IngestionExecutor;
 import es.ulpgc.bigdata.ingestion.core.IngestionService;
 import es.ulpgc.bigdata.ingestion.core.IngestionStatus;
 import io.javalin.Javalin;
@@ -18,16 +29,31 @@ public class IngestionController {
 
     private static final Logger log = LoggerFactory.getLogger(IngestionController.class);
 
+    // largest batch accepted in one call (IDs or range size)
+    private static final int MAX_BATCH = 100_000;
+    // documents per page of /ingest/list
+    private static final int DEFAULT_PAGE = 1_000;
+    private static final int MAX_PAGE = 10_000;
+
     private final Javalin app;
     private final IngestionService ingestionService;
+    private final IngestionExecutor executor;
 
-    public IngestionController(Javalin app, IngestionService ingestionService) {
+    public IngestionController(Javalin app, IngestionService ingestionService, IngestionExecutor executor) {
         this.app = app;
         this.ingestionService = ingestionService;
+        this.executor = executor;
     }
 
     public void registerRoutes() {
+        // registered before /ingest/{id} so "batch" is not taken for a document ID
+        app.post("/ingest/batch", this::startBatch);
         app.post("/ingest/{id}", this::startIngestion);
+        app.get("/ingest/queue", ctx -> ctx.json(executor.stats()));
+        app.get("/ingest/stages", ctx -> ctx.json(ingestionService.stageStats()));
+        app.get("/ingest/log", ctx -> ctx.json(ingestionService.logStats()));
+        app.get("/ingest/backup", ctx -> ctx.json(ingestionService.backupStats()));
+        app.get("/ingest/storage", ctx -> ctx.json(ingestionService.storageStats()));
         app.get("/ingest/status/{id}", this::getStatus);
         app.get("/ingest/list", this::listDocuments);
         app.post("/internal/replica/{id}", this::receiveReplica);
@@ -37,51 +63,133 @@ public class IngestionController {
     private void startIngestion(Context ctx) {
         String id = ctx.pathParam("id");
 
-        // 1. Check if already ingested on disk
-        Path docDir = Path.of("/data/datalake/docs/" + id);
-        if (Files.exists(docDir) && Files.isDirectory(docDir)) {
+        // 1. Check if already ingested: stored (catalog lookup, unless it needs a repair) or completed in memory
+        if (alreadyIngested(id)) {
             ctx.status(409).result("Document already ingested: " + id);
             return;
         }
 
-        // 2. Check if already marked as COMPLETED in memory
-        IngestionStatus status = ingestionService.getStatus(id);
-        if (status == IngestionStatus.COMPLETED) {
-            ctx.status(409).result("Document already ingested: " + id);
+        // 2. Queue it for the ingestion workers; a full queue is reported, not waited on
+        switch (executor.submit(id)) {
+            case ACCEPTED -> ctx.status(202).result("Ingestion started for " + id);
+            case IN_PROGRESS -> ctx.status(409).result("Ingestion already in progress: " + id);
+            case QUEUE_FULL -> ctx.status(429).header("Retry-After", "5").result("Ingestion queue is full, retry later");
+        }
+    }
+
+    /**
+     * Queues a list of IDs ({@code {"ids": [...]}}) or an inclusive range ({@code {"from": 1, "to": 500}})
+     * in order, until the queue is full. The response lists the IDs that did not fit ("rejected"),
+     * to be sent again later; 429 when none fitted.
+     */
+    private void startBatch(Context ctx) {
+        BatchIngestionRequest request;
+        try {
+            request = ctx.bodyAsClass(BatchIngestionRequest.class);
+        } catch (Exception e) {
+            ctx.status(400).result("Expected {\"ids\": [...]} or {\"from\": n, \"to\": m}");
             return;
         }
 
-        // 3. Launch ingestion in a separate thread
-        new Thread(() -> {
-            try {
-                ingestionService.ingest(id);
-            } catch (Exception e) {
-                log.error("Ingestion thread error for {}: {}", id, e.getMessage(), e);
+        Set<String> ids = new LinkedHashSet<>();
+        if (request != null && request.ids != null) {
+            request.ids.forEach(id -> ids.add(id.trim()));
+        } else if (request != null && request.from != null && request.to != null && request.from <= request.to) {
+            if ((long) request.to - request.from >= MAX_BATCH) {
+                ctx.status(400).result("Range larger than " + MAX_BATCH);
+                return;
             }
-        }).start();
+            for (int id = request.from; id <= request.to; id++) ids.add(String.valueOf(id));
+        }
+        if (ids.isEmpty() || ids.size() > MAX_BATCH) {
+            ctx.status(400).result("Expected 1 to " + MAX_BATCH + " IDs, as \"ids\" or \"from\"/\"to\"");
+            return;
+        }
 
-        ctx.status(202).result("Ingestion started for " + id);
+        int accepted = 0;
+        List<String> skipped = new ArrayList<>();
+        List<String> invalid = new ArrayList<>();
+        List<String> rejected = new ArrayList<>();
+        for (String id : ids) {
+            if (!rejected.isEmpty()) {
+                // queue already full: keep the order, the caller resends these
+                rejected.add(id);
+            } else if (!id.matches("\\d+")) {
+                invalid.add(id);
+            } else if (alreadyIngested(id)) {
+                skipped.add(id);
+            } else {
+                switch (executor.submit(id)) {
+                    case ACCEPTED -> accepted++;
+                    case IN_PROGRESS -> skipped.add(id);
+                    case QUEUE_FULL -> rejected.add(id);
+                }
+            }
+        }
+        log.info("Batch of {} IDs: {} queued, {} skipped, {} invalid, {} rejected",
+                ids.size(), accepted, skipped.size(), invalid.size(), rejected.size());
+
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("accepted", accepted);
+        out.put("skipped", skipped.size());
+        out.put("invalid", invalid);
+        out.put("rejected", rejected);
+        if (accepted == 0 && !rejected.isEmpty()) {
+            ctx.status(429).header("Retry-After", "5");
+        } else {
+            ctx.status(accepted > 0 ? 202 : 200);
+        }
+        ctx.json(out);
+    }
+
+    // a stored document is only taken again when a failed ingestion left its replicas or event undone
+    private boolean alreadyIngested(String id) {
+        return (ingestionService.isStored(id) && !ingestionService.needsRepair(id))
+                || ingestionService.getStatus(id) == IngestionStatus.COMPLETED;
     }
 
     private void getStatus(Context ctx) {
         String id = ctx.pathParam("id");
         IngestionStatus status = ingestionService.getStatus(id);
-        ctx.json(new IngestionStatusResponse(id, status.name()));
+        ctx.json(new IngestionStatusResponse(id, status.name(), ingestionService.getStageMillis(id)));
     }
 
+    /**
+     * One page of the stored documents in ID order: {@code ?limit=} documents (1000 by default),
+     * {@code ?cursor=} the {@code nextCursor} of the previous page, optionally only those whose
+     * {@code ?language=} and {@code ?author=} match (ignoring case).
+     */
     private void listDocuments(Context ctx) {
-        Map<String, ?> docs = ingestionService.listDocuments();
-        DocumentInfoResponse[] resp = docs.entrySet().stream()
-                .map(e -> new DocumentInfoResponse(e.getKey(), e.getValue().toString()))
-                .toArray(DocumentInfoResponse[]::new);
-        ctx.json(resp);
+        int limit;
+        try {
+            limit = ctx.queryParamAsClass("limit", Integer.class).getOrDefault(DEFAULT_PAGE);
+        } catch (Exception e) {
+            limit = -1;
+        }
+        if (limit < 1 || limit > MAX_PAGE) {
+            ctx.status(400).result("limit must be between 1 and " + MAX_PAGE);
+            return;
+        }
+        DocumentCatalog.Page page = ingestionService.listDocuments(param(ctx, "cursor"), limit,
+                param(ctx, "language"), param(ctx, "author"));
+        List<DocumentInfoResponse> documents = page.entries().stream()
+                .map(e -> new DocumentInfoResponse(e.id(), e.location(), e.title(), e.author(), e.language()))
+                .toList();
+        ctx.json(new DocumentListResponse(documents, page.nextCursor(), page.total()));
+    }
+
+    private static String param(Context ctx, String name) {
+        String value = ctx.queryParam(name);
+        return value == null || value.isBlank() ? null : value.trim();
     }
 
     private void receiveReplica(Context ctx) {
         String id = ctx.pathParam("id");
-        String body = ctx.body();
         try {
-            ingestionService.storeReplicaFromJson(id, body);
+            // replicas arrive gzip-compressed from current peers, plain from older ones
+            InputStream in = ctx.bodyInputStream();
+            if ("gzip".equalsIgnoreCase(ctx.header("Content-Encoding"))) in = new GZIPInputStream(in, 64 * 1024);
+            ingestionService.storeReplicaFromJson(id, new InputStreamReader(in, StandardCharsets.UTF_8));
             ctx.status(201).result("Replica stored for " + id);
         } catch (Exception e) {
             log.error("Error storing replica {}: {}", id, e.getMessage(), e);
@@ -0,0 +1,10 @@
+package es.ulpgc.bigdata.ingestion.api.dto;
+
+import java.util.List;
+
+// Either an explicit list of IDs or an inclusive range [from, to]
+public class BatchIngestionRequest {
+    public List<String> ids;
+    public Integer from;
+    public Integer to;
+}
@@ -3,9 +3,15 @@ package es.ulpgc.bigdata.ingestion.api.dto;
 public class DocumentInfoResponse {
     public String documentId;
     public String path;
+    public String title;
+    public String author;
+    public String language;
 
-    public DocumentInfoResponse(String documentId, String path) {
+    public DocumentInfoResponse(String documentId, String path, String title, String author, String language) {
         this.documentId = documentId;
         this.path = path;
+        this.title = title;
+        this.author = author;
+        this.language = language;
     }
 }
@@ -0,0 +1,16 @@
+package es.ulpgc.bigdata.ingestion.api.dto;
+
+import java.util.List;
+
+public class DocumentListResponse {
+    public List<DocumentInfoResponse> documents;
+    // pass as ?cursor= for the next page; null on the last one
+    public String nextCursor;
+    public int total;
+
+    public DocumentListResponse(List<DocumentInfoResponse> documents, String nextCursor, int total) {
+        this.documents = documents;
+        this.nextCursor = nextCursor;
+        this.total = total;
+    }
+}
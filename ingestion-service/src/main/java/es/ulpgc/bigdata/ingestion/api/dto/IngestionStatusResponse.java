@@ -1,11 +1,16 @@
 package es.ulpgc.bigdata.ingestion.api.dto;
 
+import java.util.Map;
+
 public class IngestionStatusResponse {
     public String documentId;
     public String status;
+    // stage -> milliseconds spent in it
+    public Map<String, Long> stageMillis;
 
-    public IngestionStatusResponse(String documentId, String status) {
+    public IngestionStatusResponse(String documentId, String status, Map<String, Long> stageMillis) {
         this.documentId = documentId;
         this.status = status;
+        this.stageMillis = stageMillis;
     }
 }
@@ -2,31 +2,75 @@ package es.ulpgc.bigdata.ingestion.core;
 
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
+import es.ulpgc.bigdata.datalake.DocumentFiles;
+import es.ulpgc.bigdata.datalake.PackedStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.Type;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * The local datalake of an ingestion node. Documents are stored either as one directory each
+ * ({@code docs/<id>/header.txt, body.txt, metadata.json}) or, with packed storage, as records of
+ * append-only segment files ({@code segments/}, see {@link PackedStore}). Directories written before
+ * switching to packed storage stay readable until {@code PackedMigration} moves them.
+ * <p>
+ * With compression on, bodies are stored gzip-compressed ({@code body.txt.gz}, see
+ * {@link DocumentFiles}) or deflated inside the packed record; every reader gets the plain text.
+ * <p>
+ * Which documents are stored is answered by a {@link DocumentCatalog} kept in memory. On startup it
+ * is rebuilt from the IDs found on disk, with their metadata taken from the ingestion log
+ * ({@code metadata.json} or the packed record is only read for documents the log missed).
+ */
 public class DatalakePartition {
 
+    private static final Logger log = LoggerFactory.getLogger(DatalakePartition.class);
+
     private final Path rootDir;
     private final Path docsDir;
-    private final Path logFile;
+    private final IngestionLog ingestionLog;
+    private final PackedStore packed;
+    private final DocumentCatalog catalog;
+    private final boolean compress;
     private final Gson gson = new Gson();
 
+    // bodies written as directories since startup (packed records keep their own totals)
+    private final AtomicLong bodyTextBytes = new AtomicLong();
+    private final AtomicLong bodyStoredBytes = new AtomicLong();
+    private final AtomicLong reads = new AtomicLong();
+    private final AtomicLong readChars = new AtomicLong();
+    private final AtomicLong readNanos = new AtomicLong();
+
     public DatalakePartition(Path rootDir) {
+        this(rootDir, false, 0, false);
+    }
+
+    /**
+     * @param packed   store new documents in segment files of {@code segmentBytes} instead of directories
+     * @param compress store bodies compressed (gzip files, or deflated header and body in packed records)
+     */
+    public DatalakePartition(Path rootDir, boolean packed, long segmentBytes, boolean compress) {
         this.rootDir = rootDir.toAbsolutePath().normalize();
         this.docsDir = this.rootDir.resolve("docs");
-        this.logFile = this.rootDir.resolve("ingestion-log.json");
+        this.compress = compress;
         try {
             Files.createDirectories(docsDir);
-            if (!Files.exists(logFile)) {
-                Files.writeString(logFile, "{}", StandardCharsets.UTF_8, StandardOpenOption.CREATE_NEW);
-            }
+            // the old whole-map ingestion-log.json is imported on first start
+            this.ingestionLog = new IngestionLog(this.rootDir.resolve("ingestion-log.jsonl"),
+                    this.rootDir.resolve("ingestion-log.json"));
+            this.packed = packed
+                    ? PackedStore.open(this.rootDir.resolve(PackedStore.SEGMENT_DIR), segmentBytes, compress)
+                    : null;
+            this.catalog = loadCatalog();
         } catch (IOException e) {
             throw new RuntimeException("Failed to initialize datalake dir: " + e.getMessage(), e);
         }
@@ -35,18 +79,6 @@ public class DatalakePartition {
     public Path storeDocument(String documentId, String header, String body, String sourceUrl,
                               String title, String author, String language, String releaseDate) throws IOException {
 
-        Path docDir = docsDir.resolve(documentId);
-        Files.createDirectories(docDir);
-
-        Path headerFile = docDir.resolve("header.txt");
-        Path bodyFile = docDir.resolve("body.txt");
-        Path metadataFile = docDir.resolve("metadata.json");
-
-        Files.writeString(headerFile, header == null ? "" : header, StandardCharsets.UTF_8,
-                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-        Files.writeString(bodyFile, body == null ? "" : body, StandardCharsets.UTF_8,
-                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-
         Map<String, Object> meta = new LinkedHashMap<>();
         meta.put("id", documentId);
         meta.put("title", title);
@@ -55,82 +87,159 @@ public class DatalakePartition {
         meta.put("releaseDate", releaseDate);
         meta.put("sourceUrl", sourceUrl);
         meta.put("timestamp", ZonedDateTime.now(ZoneId.systemDefault()).toString());
-        meta.put("path", docDir.toString());
-
-        Files.writeString(metadataFile, gson.toJson(meta), StandardCharsets.UTF_8,
-                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
 
-        updateLog(documentId, meta);
-
-        return docDir;
+        return store(documentId, header, body, meta);
     }
 
     public Path storeReplica(String documentId, String header, String body, String sourceUrl,
                              Map<String, Object> incomingMetadata) throws IOException {
 
-        Path docDir = docsDir.resolve(documentId);
-        Files.createDirectories(docDir);
-
-        Path headerFile = docDir.resolve("header.txt");
-        Path bodyFile = docDir.resolve("body.txt");
-        Path metadataFile = docDir.resolve("metadata.json");
-
-        Files.writeString(headerFile, header == null ? "" : header, StandardCharsets.UTF_8,
-                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-        Files.writeString(bodyFile, body == null ? "" : body, StandardCharsets.UTF_8,
-                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-
         Map<String, Object> meta = new LinkedHashMap<>();
         if (incomingMetadata != null && !incomingMetadata.isEmpty()) {
             meta.putAll(incomingMetadata);
         }
-        meta.put("path", docDir.toString());
         if (!meta.containsKey("id")) meta.put("id", documentId);
         if (!meta.containsKey("timestamp")) {
             meta.put("timestamp", ZonedDateTime.now(ZoneId.systemDefault()).toString());
         }
         if (!meta.containsKey("sourceUrl")) meta.put("sourceUrl", sourceUrl == null ? "" : sourceUrl);
 
-        Files.writeString(metadataFile, gson.toJson(meta), StandardCharsets.UTF_8,
-                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        return store(documentId, header, body, meta);
+    }
+
+    /** Writes the document and logs it; returns its directory, or its segment file when packed. */
+    private Path store(String documentId, String header, String body, Map<String, Object> meta) throws IOException {
+        Path location;
+        if (packed != null) {
+            // the segment is only known once written: "path" names the store, the ID finds the record
+            meta.put("path", rootDir.resolve(PackedStore.SEGMENT_DIR).toString());
+            location = packed.append(documentId, gson.toJson(meta), header, body);
+        } else {
+            Path docDir = docsDir.resolve(documentId);
+            Files.createDirectories(docDir);
+            meta.put("path", docDir.toString());
+
+            replace(docDir.resolve("header.txt"), header == null ? "" : header);
+            DocumentFiles.Written written = DocumentFiles.writeBody(docDir, body, compress);
+            bodyTextBytes.addAndGet(written.textBytes());
+            bodyStoredBytes.addAndGet(written.storedBytes());
+            replace(docDir.resolve("metadata.json"), gson.toJson(meta));
+            location = docDir;
+        }
+
+        ingestionLog.append(documentId, meta);
+        catalog.put(documentId, location.toString(), meta);
+
+        return location;
+    }
+
+    public boolean contains(String documentId) {
+        return catalog.contains(documentId);
+    }
+
+    /** The document's directory, or the segment file holding it; null when not stored. */
+    public Path location(String documentId) {
+        DocumentCatalog.Entry entry = catalog.get(documentId);
+        return entry == null ? null : Path.of(entry.location());
+    }
+
+    /** The header text of a stored document (UTF-8); empty when it has none, null when not stored. */
+    public InputStream openHeader(String documentId) throws IOException {
+        return open(documentId, "header.txt");
+    }
 
-        updateLog(documentId, meta);
+    /** The body text of a stored document (UTF-8, decompressed); empty when it has none, null when not stored. */
+    public InputStream openBody(String documentId) throws IOException {
+        return open(documentId, DocumentFiles.BODY);
+    }
 
-        return docDir;
+    private InputStream open(String documentId, String file) throws IOException {
+        if (packed != null && packed.contains(documentId)) {
+            return file.equals("header.txt") ? packed.openHeader(documentId) : packed.openBody(documentId);
+        }
+        Path docDir = docsDir.resolve(documentId);
+        if (!Files.isDirectory(docDir)) return null;
+        InputStream in;
+        if (file.equals(DocumentFiles.BODY)) {
+            in = DocumentFiles.openBody(docDir);
+        } else {
+            Path path = docDir.resolve(file);
+            in = Files.exists(path) ? Files.newInputStream(path) : null;
+        }
+        return in != null ? in : new ByteArrayInputStream(new byte[0]);
     }
 
-    public Map<String, Path> listDocuments() {
-        if (!Files.exists(docsDir)) return Collections.emptyMap();
-        Map<String, Path> result = new HashMap<>();
-        try (DirectoryStream<Path> stream = Files.newDirectoryStream(docsDir)) {
-            for (Path p : stream) {
-                if (Files.isDirectory(p)) {
-                    result.put(p.getFileName().toString(), p);
+    /** One page of the stored documents, in ID order; see {@link DocumentCatalog#page}. */
+    public DocumentCatalog.Page listDocuments(String cursor, int limit, String language, String author) {
+        return catalog.page(cursor, limit, language, author);
+    }
+
+    // IDs from disk, metadata from the log: files are only parsed for documents the log missed
+    // (written just before a crash). A document both packed and still in a directory is the packed one.
+    private DocumentCatalog loadCatalog() throws IOException {
+        long start = System.currentTimeMillis();
+        DocumentCatalog catalog = new DocumentCatalog();
+        Map<String, Map<String, Object>> logged = ingestionLog.entries();
+        int fromFiles = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(docsDir, Files::isDirectory)) {
+            for (Path dir : stream) {
+                String id = dir.getFileName().toString();
+                Map<String, Object> meta = logged.get(id);
+                if (meta == null) {
+                    Path file = dir.resolve("metadata.json");
+                    meta = Files.exists(file) ? parseMetadata(Files.readString(file, StandardCharsets.UTF_8)) : null;
+                    fromFiles++;
+                }
+                catalog.put(id, dir.toString(), meta);
+            }
+        }
+        if (packed != null) {
+            for (String id : packed.ids()) {
+                Map<String, Object> meta = logged.get(id);
+                if (meta == null) {
+                    meta = parseMetadata(packed.metadata(id));
+                    fromFiles++;
                 }
+                catalog.put(id, packed.segmentOf(id).toString(), meta);
             }
-        } catch (IOException ignored) {}
-        return result;
+        }
+        log.info("Document catalog loaded: {} documents ({} not in the ingestion log) in {} ms",
+                catalog.size(), fromFiles, System.currentTimeMillis() - start);
+        return catalog;
+    }
+
+    private Map<String, Object> parseMetadata(String json) {
+        Type type = new TypeToken<Map<String, Object>>(){}.getType();
+        Map<String, Object> parsed = json == null ? null : gson.fromJson(json, type);
+        return parsed == null ? new LinkedHashMap<>() : parsed;
     }
 
     public Map<String, Object> readDocumentWithMetadata(String documentId) {
+        long start = System.nanoTime();
+        Map<String, Object> doc = packed != null && packed.contains(documentId)
+                ? readPacked(documentId)
+                : readDirectory(documentId);
+        if (doc != null) {
+            reads.incrementAndGet();
+            readChars.addAndGet(((String) doc.get("body")).length());
+            readNanos.addAndGet(System.nanoTime() - start);
+        }
+        return doc;
+    }
+
+    private Map<String, Object> readDirectory(String documentId) {
         Path docDir = docsDir.resolve(documentId);
         if (!Files.exists(docDir) || !Files.isDirectory(docDir)) return null;
 
         try {
-            Path bodyFile = docDir.resolve("body.txt");
             Path metadataFile = docDir.resolve("metadata.json");
 
-            String body = Files.exists(bodyFile)
-                    ? Files.readString(bodyFile, StandardCharsets.UTF_8)
-                    : "";
+            String body = DocumentFiles.readBody(docDir);
+            if (body == null) body = "";
 
-            Map<String, Object> meta = new LinkedHashMap<>();
-            if (Files.exists(metadataFile)) {
-                String raw = Files.readString(metadataFile, StandardCharsets.UTF_8);
-                Type type = new TypeToken<Map<String, Object>>(){}.getType();
-                Map<String, Object> parsed = gson.fromJson(raw, type);
-                if (parsed != null) meta.putAll(parsed);
-            }
+            Map<String, Object> meta = Files.exists(metadataFile)
+                    ? parseMetadata(Files.readString(metadataFile, StandardCharsets.UTF_8))
+                    : new LinkedHashMap<>();
 
             Map<String, Object> result = new LinkedHashMap<>();
             result.put("metadata", meta);
@@ -142,15 +251,62 @@ public class DatalakePartition {
         }
     }
 
-    private synchronized void updateLog(String documentId, Map<String, Object> meta) {
+    private Map<String, Object> readPacked(String documentId) {
         try {
-            String raw = Files.readString(logFile, StandardCharsets.UTF_8);
-            Type type = new TypeToken<Map<String, Object>>(){}.getType();
-            Map<String, Object> db = gson.fromJson(raw, type);
-            if (db == null) db = new LinkedHashMap<>();
-            db.put(documentId, meta);
-            Files.writeString(logFile, gson.toJson(db), StandardCharsets.UTF_8,
-                    StandardOpenOption.TRUNCATE_EXISTING);
-        } catch (IOException ignored) {}
-    }
-}
\ No newline at end of file
+            PackedStore.Document doc = packed.read(documentId);
+            if (doc == null) return null;
+            Map<String, Object> meta = parseMetadata(doc.metadataJson());
+            // migrated records still name their old directory
+            meta.put("path", rootDir.resolve(PackedStore.SEGMENT_DIR).toString());
+
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("metadata", meta);
+            result.put("body", doc.body());
+            return result;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // a new file moved over the old one, never rewritten in place: readers and hard-linked backups
+    // see either version whole
+    private static void replace(Path file, String content) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.writeString(tmp, content, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Latest logged metadata of every stored document, kept in memory by the ingestion log. */
+    public Map<String, Map<String, Object>> loggedDocuments() {
+        return ingestionLog.entries();
+    }
+
+    public Map<String, Object> logStats() {
+        Map<String, Object> out = new LinkedHashMap<>(ingestionLog.stats());
+        out.put("catalogDocuments", catalog.size());
+        return out;
+    }
+
+    /** Storage format, compression ratio of the bodies written and read throughput of full-document reads. */
+    public Map<String, Object> storageStats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("format", packed != null ? "packed" : "directories");
+        out.put("compress", compress);
+        if (packed != null) {
+            out.put("packed", packed.stats());
+        } else {
+            long text = bodyTextBytes.get();
+            long stored = bodyStoredBytes.get();
+            out.put("bodyTextBytes", text);
+            out.put("bodyStoredBytes", stored);
+            out.put("compressionRatio", stored > 0 ? (double) text / stored : 1.0);
+        }
+        double seconds = readNanos.get() / 1e9;
+        out.put("reads", reads.get());
+        out.put("readChars", readChars.get());
+        out.put("readMillis", readNanos.get() / 1_000_000);
+        out.put("readCharsPerSecond", seconds > 0 ? readChars.get() / seconds : 0.0);
+        return out;
+    }
+}
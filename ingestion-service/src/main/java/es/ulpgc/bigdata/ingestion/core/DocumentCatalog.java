@@ -0,0 +1,128 @@
+package es.ulpgc.bigdata.ingestion.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * In-memory catalog of the documents held by a datalake partition: ID, location and the metadata
+ * the listing filters on.
+ * <p>
+ * Existence checks are one hash lookup. Listing walks an ID-ordered set (numeric IDs in numeric
+ * order) from a cursor, the last ID of the previous page, so a page costs its own size however large
+ * the datalake grows. Language and author keep an ordered ID set per value (compared ignoring case),
+ * so a filtered page does not visit the other documents either.
+ * <p>
+ * Writers are serialized per catalog; readers never lock and see each document either before or
+ * after an update.
+ */
+public class DocumentCatalog {
+
+    /** Shorter IDs first, then lexicographic: numeric order for Gutenberg IDs. */
+    static final Comparator<String> ID_ORDER = Comparator.comparingInt(String::length)
+            .thenComparing(Comparator.naturalOrder());
+
+    private static final NavigableSet<String> NONE = Collections.emptyNavigableSet();
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final NavigableSet<String> ids = new ConcurrentSkipListSet<>(ID_ORDER);
+    private final Map<String, NavigableSet<String>> byLanguage = new ConcurrentHashMap<>();
+    private final Map<String, NavigableSet<String>> byAuthor = new ConcurrentHashMap<>();
+
+    /** Adds the document, or replaces what the catalog knew about it. */
+    public synchronized void put(String id, String location, Map<String, Object> metadata) {
+        Entry entry = new Entry(id, location, field(metadata, "title"), field(metadata, "author"),
+                field(metadata, "language"));
+        Entry previous = entries.put(id, entry);
+        if (previous != null) {
+            if (!Objects.equals(key(previous.language), key(entry.language))) unindex(byLanguage, previous.language, id);
+            if (!Objects.equals(key(previous.author), key(entry.author))) unindex(byAuthor, previous.author, id);
+        }
+        index(byLanguage, entry.language, id);
+        index(byAuthor, entry.author, id);
+        ids.add(id);
+    }
+
+    public boolean contains(String id) {
+        return entries.containsKey(id);
+    }
+
+    public Entry get(String id) {
+        return entries.get(id);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Up to {@code limit} documents in ID order after {@code cursor} (from the start when null),
+     * restricted to {@code language} and {@code author} when not null.
+     */
+    public Page page(String cursor, int limit, String language, String author) {
+        NavigableSet<String> source = language != null ? indexed(byLanguage, language)
+                : author != null ? indexed(byAuthor, author)
+                : ids;
+        if (cursor != null) source = source.tailSet(cursor, false);
+
+        List<Entry> out = new ArrayList<>(Math.min(limit, 1024));
+        String next = null;
+        for (String id : source) {
+            Entry entry = entries.get(id);
+            // the other filter when both are given; also skips an entry re-indexed meanwhile
+            if (entry == null || !matches(language, entry.language) || !matches(author, entry.author)) continue;
+            if (out.size() == limit) {
+                next = out.get(limit - 1).id;
+                break;
+            }
+            out.add(entry);
+        }
+        return new Page(out, next, entries.size());
+    }
+
+    private static boolean matches(String filter, String value) {
+        return filter == null || Objects.equals(key(filter), key(value));
+    }
+
+    private static NavigableSet<String> indexed(Map<String, NavigableSet<String>> index, String value) {
+        String key = key(value);
+        return key == null ? NONE : index.getOrDefault(key, NONE);
+    }
+
+    private static void index(Map<String, NavigableSet<String>> index, String value, String id) {
+        String key = key(value);
+        if (key != null) index.computeIfAbsent(key, k -> new ConcurrentSkipListSet<>(ID_ORDER)).add(id);
+    }
+
+    private static void unindex(Map<String, NavigableSet<String>> index, String value, String id) {
+        String key = key(value);
+        NavigableSet<String> set = key == null ? null : index.get(key);
+        if (set == null) return;
+        set.remove(id);
+        if (set.isEmpty()) index.remove(key, set);
+    }
+
+    private static String key(String value) {
+        return value == null || value.isBlank() ? null : value.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static String field(Map<String, Object> metadata, String name) {
+        Object value = metadata == null ? null : metadata.get(name);
+        return value == null ? null : value.toString();
+    }
+
+    /** What the catalog keeps per document; {@code location} is its directory or segment file. */
+    public record Entry(String id, String location, String title, String author, String language) {
+    }
+
+    /** One page of a listing; {@code nextCursor} is null on the last page, {@code total} counts all documents. */
+    public record Page(List<Entry> entries, String nextCursor, int total) {
+    }
+}
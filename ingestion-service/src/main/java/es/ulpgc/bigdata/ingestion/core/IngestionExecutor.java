@@ -0,0 +1,93 @@
+package es.ulpgc.bigdata.ingestion.core;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs ingestions on a fixed number of worker threads fed by a bounded queue. When the queue is full
+ * new work is rejected instead of piling up, so callers can be told to retry later (HTTP 429).
+ * A document already queued or being ingested is not queued a second time.
+ */
+public class IngestionExecutor {
+
+    private static final Logger log = LoggerFactory.getLogger(IngestionExecutor.class);
+
+    public enum Admission { ACCEPTED, IN_PROGRESS, QUEUE_FULL }
+
+    private final IngestionService ingestionService;
+    private final ThreadPoolExecutor executor;
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public IngestionExecutor(IngestionService ingestionService, int workers, int queueCapacity) {
+        this.ingestionService = ingestionService;
+        AtomicInteger threads = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)),
+                r -> {
+                    Thread t = new Thread(r, "ingest-" + threads.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    public Admission submit(String documentId) {
+        if (!pending.add(documentId)) return Admission.IN_PROGRESS;
+        // before execute: a worker may start (and move the status on) right away
+        IngestionStatus previous = ingestionService.markQueued(documentId);
+        try {
+            executor.execute(() -> run(documentId));
+        } catch (RejectedExecutionException e) {
+            ingestionService.unmarkQueued(documentId, previous);
+            pending.remove(documentId);
+            rejected.incrementAndGet();
+            return Admission.QUEUE_FULL;
+        }
+        return Admission.ACCEPTED;
+    }
+
+    private void run(String documentId) {
+        try {
+            ingestionService.ingest(documentId);
+        } catch (Exception e) {
+            log.error("Ingestion error for {}: {}", documentId, e.getMessage());
+        } finally {
+            pending.remove(documentId);
+            completed.incrementAndGet();
+        }
+    }
+
+    /** Free slots in the queue right now. */
+    public int remainingCapacity() {
+        return executor.getQueue().remainingCapacity();
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("workers", executor.getMaximumPoolSize());
+        out.put("active", executor.getActiveCount());
+        out.put("queued", executor.getQueue().size());
+        out.put("queueCapacity", executor.getQueue().size() + executor.getQueue().remainingCapacity());
+        out.put("completed", completed.get());
+        out.put("rejected", rejected.get());
+        return out;
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,261 @@
+package es.ulpgc.bigdata.ingestion.core;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.reflect.TypeToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Append-only log of the documents stored in a datalake partition: one JSON line
+ * ({@code {"id": ..., "metadata": {...}}}) per stored document or replica, the last line of an ID
+ * winning.
+ * <p>
+ * All writes go through one {@link FileChannel} on a single writer thread. Appends queue their line
+ * and wait; the writer takes everything queued, writes it in one call and forces it to disk once
+ * (group commit), so concurrent ingestions share the fsync instead of rewriting the whole file per
+ * document. The latest entry of every ID is kept in memory, rebuilt from the file on startup (a torn
+ * last line from a crash is cut off). When superseded lines make up most of the file it is rewritten
+ * with the live entries only.
+ */
+public class IngestionLog implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(IngestionLog.class);
+
+    // compact once the file holds this many lines and more than twice the live entries
+    private static final long COMPACT_MIN_LINES = 10_000;
+    private static final long COMPACT_EVERY_MS = 60_000;
+
+    private final Path file;
+    private final Gson gson = new Gson();
+    private final Map<String, Map<String, Object>> entries = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Pending> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final ScheduledExecutorService writer;
+    private final AtomicLong commits = new AtomicLong();
+    private final AtomicLong appended = new AtomicLong();
+    private FileChannel channel;
+    private long lines;
+
+    /**
+     * Opens (or creates) the log at {@code file}. A legacy whole-map JSON log at {@code legacy} is
+     * imported once and renamed to {@code *.migrated}.
+     */
+    public IngestionLog(Path file, Path legacy) throws IOException {
+        this.file = file;
+        if (Files.exists(file)) {
+            load();
+        } else if (legacy != null && Files.exists(legacy)) {
+            importLegacy(legacy);
+        }
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        this.writer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ingestion-log");
+            t.setDaemon(true);
+            return t;
+        });
+        writer.scheduleWithFixedDelay(this::compactQuietly, COMPACT_EVERY_MS, COMPACT_EVERY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /** Records {@code metadata} as the latest entry of {@code documentId}; returns once it is on disk. */
+    public void append(String documentId, Map<String, Object> metadata) throws IOException {
+        Map<String, Object> copy = new LinkedHashMap<>(metadata);
+        Pending pending = new Pending(documentId, copy, line(documentId, copy));
+        queue.add(pending);
+        if (flushScheduled.compareAndSet(false, true)) {
+            writer.execute(this::flush);
+        }
+        try {
+            pending.done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing the ingestion log", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+        }
+    }
+
+    public Map<String, Object> get(String documentId) {
+        return entries.get(documentId);
+    }
+
+    /** Latest entry of every logged document (a live, unmodifiable view). */
+    public Map<String, Map<String, Object>> entries() {
+        return Collections.unmodifiableMap(entries);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("documents", entries.size());
+        out.put("appended", appended.get());
+        out.put("commits", commits.get());
+        return out;
+    }
+
+    // ---- writer thread ----
+
+    private void flush() {
+        // cleared first: an append queued after the drain below schedules another flush
+        flushScheduled.set(false);
+        List<Pending> group = new ArrayList<>();
+        Pending p;
+        while ((p = queue.poll()) != null) group.add(p);
+        if (group.isEmpty()) return;
+
+        ByteBuffer[] buffers = new ByteBuffer[group.size()];
+        for (int i = 0; i < buffers.length; i++) buffers[i] = ByteBuffer.wrap(group.get(i).line);
+        try {
+            long remaining = 0;
+            for (ByteBuffer b : buffers) remaining += b.remaining();
+            while (remaining > 0) remaining -= channel.write(buffers);
+            channel.force(false);
+            lines += group.size();
+            commits.incrementAndGet();
+            appended.addAndGet(group.size());
+            // applied here, before anyone is acknowledged: a compaction right after this flush (same
+            // thread) rewrites the file from entries that include every line just forced
+            group.forEach(g -> entries.put(g.documentId, g.metadata));
+            group.forEach(g -> g.done.complete(null));
+        } catch (IOException e) {
+            log.error("Ingestion log write failed: {}", e.getMessage());
+            group.forEach(g -> g.done.completeExceptionally(e));
+        }
+    }
+
+    private void compactQuietly() {
+        try {
+            if (lines >= COMPACT_MIN_LINES && lines > 2L * entries.size()) compact();
+        } catch (IOException e) {
+            log.error("Ingestion log compaction failed: {}", e.getMessage());
+        }
+    }
+
+    /** Rewrites the file with the live entries only (writer thread: no append runs meanwhile). */
+    private void compact() throws IOException {
+        flush();
+        long before = lines;
+        writeAll(entries);
+        channel.close();
+        channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        lines = entries.size();
+        log.info("Compacted ingestion log from {} to {} lines", before, lines);
+    }
+
+    private void writeAll(Map<String, Map<String, Object>> live) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Map.Entry<String, Map<String, Object>> e : live.entrySet()) {
+                ByteBuffer b = ByteBuffer.wrap(line(e.getKey(), e.getValue()));
+                while (b.hasRemaining()) out.write(b);
+            }
+            out.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // ---- startup ----
+
+    private void load() throws IOException {
+        Type type = new TypeToken<Map<String, Object>>(){}.getType();
+        long good = 0;
+        long offset = 0;
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(
+                     Channels.newInputStream(in), StandardCharsets.UTF_8), 1 << 16)) {
+            long size = in.size();
+            String text;
+            while ((text = reader.readLine()) != null) {
+                offset += text.getBytes(StandardCharsets.UTF_8).length + 1;
+                if (offset > size) break; // last line without its newline: cut by a crash
+                try {
+                    JsonObject obj = JsonParser.parseString(text).getAsJsonObject();
+                    Map<String, Object> metadata = gson.fromJson(obj.get("metadata"), type);
+                    entries.put(obj.get("id").getAsString(), metadata == null ? new LinkedHashMap<>() : metadata);
+                } catch (RuntimeException e) {
+                    break;
+                }
+                good = offset;
+                lines++;
+            }
+        }
+        if (good < Files.size(file)) {
+            log.warn("Ingestion log {} has a damaged tail after byte {}, truncating", file, good);
+            try (FileChannel out = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                out.truncate(good);
+                out.force(true);
+            }
+        }
+        log.info("Ingestion log loaded: {} documents from {} lines", entries.size(), lines);
+    }
+
+    private void importLegacy(Path legacy) throws IOException {
+        Type type = new TypeToken<Map<String, Map<String, Object>>>(){}.getType();
+        Map<String, Map<String, Object>> db = gson.fromJson(Files.readString(legacy, StandardCharsets.UTF_8), type);
+        if (db != null) entries.putAll(db);
+        writeAll(entries);
+        lines = entries.size();
+        Files.move(legacy, legacy.resolveSibling(legacy.getFileName() + ".migrated"), StandardCopyOption.REPLACE_EXISTING);
+        log.info("Imported {} documents from the legacy log {}", entries.size(), legacy);
+    }
+
+    private byte[] line(String documentId, Map<String, Object> metadata) {
+        JsonObject obj = new JsonObject();
+        obj.addProperty("id", documentId);
+        obj.add("metadata", gson.toJsonTree(metadata));
+        return (gson.toJson(obj) + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            writer.submit(this::flush).get(10, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            log.warn("Final ingestion log flush failed: {}", e.getMessage());
+        }
+        writer.shutdown();
+        channel.close();
+    }
+
+    private static final class Pending {
+        final String documentId;
+        final Map<String, Object> metadata;
+        final byte[] line;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Pending(String documentId, Map<String, Object> metadata, byte[] line) {
+            this.documentId = documentId;
+            this.metadata = metadata;
+            this.line = line;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package es.ulpgc.bigdata.ingestion.core;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The stages of an ingestion, each with its own concurrency limit and latency counters. A stage is
+ * run either in the calling thread ({@link #run}) or on the pipeline's threads ({@link #async}) so
+ * independent stages of one document overlap; a stage at its limit makes callers wait, whatever
+ * thread they run on. Every stage reports under the {@link IngestionStatus} the document is in
+ * while it runs.
+ */
+public class IngestionPipeline {
+
+    public enum Stage {
+        DOWNLOAD(IngestionStatus.DOWNLOADING),
+        METADATA(IngestionStatus.DOWNLOADING),
+        STORE(IngestionStatus.STORING),
+        REPLICATE(IngestionStatus.REPLICATING),
+        PUBLISH(IngestionStatus.PUBLISHING_EVENT);
+
+        private final IngestionStatus status;
+
+        Stage(IngestionStatus status) {
+            this.status = status;
+        }
+
+        public IngestionStatus status() {
+            return status;
+        }
+    }
+
+    private final Map<Stage, StageRunner> stages = new LinkedHashMap<>();
+    private final ExecutorService threads;
+
+    /** {@code limits}: maximum documents in each stage at once; stages left out default to 4. */
+    public IngestionPipeline(Map<Stage, Integer> limits) {
+        for (Stage stage : Stage.values()) {
+            stages.put(stage, new StageRunner(Math.max(1, limits.getOrDefault(stage, 4))));
+        }
+        AtomicInteger count = new AtomicInteger();
+        this.threads = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "ingest-stage-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Runs {@code task} as {@code stage} in the calling thread, waiting for a free slot first; the time
+     * spent in the stage (not waiting for it) is added to {@code timings}.
+     */
+    public <T> T run(Stage stage, Map<String, Long> timings, Callable<T> task) throws Exception {
+        StageRunner runner = stages.get(stage);
+        runner.permits.acquire();
+        long start = System.nanoTime();
+        boolean ok = false;
+        try {
+            T result = task.call();
+            ok = true;
+            return result;
+        } finally {
+            long nanos = System.nanoTime() - start;
+            runner.permits.release();
+            runner.record(nanos, ok);
+            timings.put(stage.name(), nanos / 1_000_000);
+        }
+    }
+
+    /** {@link #run} on a pipeline thread; failures complete the future exceptionally. */
+    public <T> CompletableFuture<T> async(Stage stage, Map<String, Long> timings, Callable<T> task) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return run(stage, timings, task);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, threads);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        stages.forEach((stage, runner) -> out.put(stage.name(), runner.snapshot(stage)));
+        return out;
+    }
+
+    public void shutdown() {
+        threads.shutdown();
+    }
+
+    private static final class StageRunner {
+
+        final int limit;
+        final Semaphore permits;
+        final AtomicLong completed = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        final AtomicLong totalNanos = new AtomicLong();
+        final AtomicLong maxNanos = new AtomicLong();
+
+        StageRunner(int limit) {
+            this.limit = limit;
+            this.permits = new Semaphore(limit, true);
+        }
+
+        void record(long nanos, boolean ok) {
+            (ok ? completed : failed).incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        Map<String, Object> snapshot(Stage stage) {
+            long done = completed.get() + failed.get();
+            Map<String, Object> out = new LinkedHashMap<>();
+            out.put("status", stage.status().name());
+            out.put("limit", limit);
+            out.put("running", limit - permits.availablePermits());
+            out.put("waiting", permits.getQueueLength());
+            out.put("completed", completed.get());
+            out.put("failed", failed.get());
+            out.put("avgMillis", done > 0 ? totalNanos.get() / 1e6 / done : 0.0);
+            out.put("maxMillis", maxNanos.get() / 1_000_000);
+            return out;
+        }
+    }
+}
@@ -1,18 +1,25 @@
 package es.ulpgc.bigdata.ingestion.core;
 
 import com.google.gson.Gson;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
-import java.nio.file.Files;
+import java.io.Reader;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 
+import es.ulpgc.bigdata.ingestion.core.IngestionPipeline.Stage;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -25,67 +32,66 @@ public class IngestionService {
     private final MetadataFetcher metadataFetcher;
     private final ReplicationManager replicationManager;
     private final BrokerPublisher brokerPublisher;
+    private final IngestionPipeline pipeline;
+    private final LocalBackup backup;
     private final Map<String, IngestionStatus> statusMap = new ConcurrentHashMap<>();
+    // document -> stage -> milliseconds spent in it
+    private final Map<String, Map<String, Long>> stageMillis = new ConcurrentHashMap<>();
+    // stored documents whose replication or event failed -> the stages still to run
+    private final Map<String, Set<Stage>> unfinished = new ConcurrentHashMap<>();
     private final Gson gson = new Gson();
 
     public IngestionService(DatalakePartition datalake,
                             DocumentDownloader downloader,
                             MetadataFetcher metadataFetcher,
                             ReplicationManager replicationManager,
-                            BrokerPublisher brokerPublisher) {
+                            BrokerPublisher brokerPublisher,
+                            IngestionPipeline pipeline,
+                            LocalBackup backup) {
         this.datalake = datalake;
         this.downloader = downloader;
         this.metadataFetcher = metadataFetcher;
         this.replicationManager = replicationManager;
         this.brokerPublisher = brokerPublisher;
+        this.pipeline = pipeline;
+        this.backup = backup;
     }
 
-    private void copyToLocalBackup(String documentId) {
-        try {
-            log.info("Copying document {} to local backup...", documentId);
-
-            Path source = Path.of("/data/datalake/docs/" + documentId);
-            Path target = Path.of("/local-backup/docs/" + documentId);
-
-            Files.createDirectories(target);
-
-            Files.walk(source).forEach(path -> {
-                try {
-                    Path relative = source.relativize(path);
-                    Path dest = target.resolve(relative);
-
-                    if (Files.isDirectory(path)) {
-                        Files.createDirectories(dest);
-                    } else {
-                        Files.copy(path, dest, StandardCopyOption.REPLACE_EXISTING);
-                    }
-                } catch (Exception e) {
-                    log.error("Error copying file {}: {}", path, e.getMessage());
-                }
-            });
-
-            log.info("Local backup completed for {}", documentId);
-
-        } catch (Exception e) {
-            log.error("Error copying to local backup for {}: {}", documentId, e.getMessage());
-        }
-    }
-
+    /**
+     * Downloads, stores, replicates and announces one document. Independent stages overlap: the text
+     * and the metadata page are fetched at the same time, and once the local copy is stored replication
+     * and the indexing event run concurrently. The document is COMPLETED when both are done; the local
+     * backup is only queued (see {@link LocalBackup}).
+     * <p>
+     * A document stored locally whose replication (write quorum not reached) or event failed is
+     * FAILED but remembers the stages it has left; ingesting it again only runs those (see
+     * {@link #needsRepair}).
+     */
     public void ingest(String documentId) {
         if (statusMap.get(documentId) == IngestionStatus.COMPLETED) {
             log.info("Skipping ingestion for {} (already completed)", documentId);
             return;
         }
 
+        Map<String, Long> timings = new ConcurrentHashMap<>();
+        stageMillis.put(documentId, timings);
+        Set<Stage> left = unfinished.remove(documentId);
+        if (left != null) {
+            repair(documentId, left, timings);
+            return;
+        }
+        left = Collections.synchronizedSet(EnumSet.of(Stage.REPLICATE, Stage.PUBLISH));
         try {
             log.info("Starting ingestion for {}", documentId);
             statusMap.put(documentId, IngestionStatus.DOWNLOADING);
 
-            log.info("Downloading document {}", documentId);
-            var dl = downloader.download(documentId);
-
             int idNum = Integer.parseInt(documentId);
-            MetadataFetcher.Metadata metaInfo = metadataFetcher.fetch(idNum);
+            CompletableFuture<MetadataFetcher.Metadata> metadataPage
+                    = pipeline.async(Stage.METADATA, timings, () -> metadataFetcher.fetch(idNum));
+
+            log.info("Downloading document {}", documentId);
+            var dl = pipeline.run(Stage.DOWNLOAD, timings, () -> downloader.download(documentId));
+            MetadataFetcher.Metadata metaInfo = metadataPage.join();
 
             Map<String, Object> metadata = new LinkedHashMap<>();
             metadata.put("id", documentId);
@@ -99,7 +105,7 @@ public class IngestionService {
             log.info("Storing document {} in datalake", documentId);
             statusMap.put(documentId, IngestionStatus.STORING);
 
-            Path localPath = datalake.storeDocument(
+            Path localPath = pipeline.run(Stage.STORE, timings, () -> datalake.storeDocument(
                     documentId,
                     dl.header,
                     dl.body,
@@ -108,42 +114,108 @@ public class IngestionService {
                     metaInfo.author,
                     metaInfo.language,
                     metaInfo.releaseDate
-            );
+            ));
 
-            log.info("Creating local backup for {}", documentId);
-            copyToLocalBackup(documentId);
+            if (backup != null) backup.submit(documentId, localPath);
 
-            log.info("Replicating document {}", documentId);
-            statusMap.put(documentId, IngestionStatus.REPLICATING);
-            replicationManager.replicate(documentId, dl.header, dl.body, dl.sourceUrl, metadata);
+            distribute(documentId, localPath, dl.sourceUrl, metadata, left, timings);
 
-            log.info("Publishing ingestion event for {}", documentId);
-            statusMap.put(documentId, IngestionStatus.PUBLISHING_EVENT);
-            brokerPublisher.publishDocumentIngested(documentId, localPath.toString(), dl.sourceUrl);
+            statusMap.put(documentId, IngestionStatus.COMPLETED);
+            log.info("Completed ingestion for {} (stage ms: {})", documentId, timings);
+
+        } catch (Exception e) {
+            fail(documentId, left, e);
+        }
+    }
+
+    /** Runs the stages a failed ingestion left over, from the stored copy. */
+    private void repair(String documentId, Set<Stage> left, Map<String, Long> timings) {
+        try {
+            Map<String, Object> stored = datalake.loggedDocuments().get(documentId);
+            Path location = datalake.location(documentId);
+            if (stored == null || location == null) {
+                throw new IllegalStateException("Document " + documentId + " is no longer stored");
+            }
+            Map<String, Object> metadata = new LinkedHashMap<>(stored);
+            metadata.remove("path");
+            Object sourceUrl = metadata.get("sourceUrl");
+            log.info("Resuming {} with {}", documentId, left);
+            distribute(documentId, location, sourceUrl == null ? "" : sourceUrl.toString(), metadata, left, timings);
 
             statusMap.put(documentId, IngestionStatus.COMPLETED);
-            log.info("Completed ingestion for {}", documentId);
+            log.info("Completed ingestion for {} (stage ms: {})", documentId, timings);
 
         } catch (Exception e) {
-            statusMap.put(documentId, IngestionStatus.FAILED);
-            log.error("Ingestion FAILED for {}: {}", documentId, e.getMessage(), e);
-            throw new RuntimeException(e);
+            fail(documentId, left, e);
         }
     }
 
-    public void storeReplicaFromJson(String documentId, String jsonPayload) {
+    /**
+     * Replicates and announces a stored document, running only the {@code stages} given and removing
+     * each from it once done. The indexers read the local copy, so the event does not wait for the
+     * replicas; the status names what still holds the document: the event (replicas running
+     * alongside), then the replicas alone.
+     */
+    private void distribute(String documentId, Path localPath, String sourceUrl, Map<String, Object> metadata,
+                            Set<Stage> stages, Map<String, Long> timings) throws Exception {
+        log.info("Replicating and publishing {}", documentId);
+        CompletableFuture<Void> replicas = CompletableFuture.completedFuture(null);
+        if (stages.contains(Stage.REPLICATE)) {
+            statusMap.put(documentId, IngestionStatus.REPLICATING);
+            replicas = pipeline.async(Stage.REPLICATE, timings, () -> {
+                replicationManager.replicate(documentId, datalake, sourceUrl, metadata);
+                stages.remove(Stage.REPLICATE);
+                return null;
+            });
+        }
+        if (stages.contains(Stage.PUBLISH)) {
+            statusMap.put(documentId, IngestionStatus.PUBLISHING_EVENT);
+            pipeline.run(Stage.PUBLISH, timings, () -> {
+                brokerPublisher.publishDocumentIngested(documentId, localPath.toString(), sourceUrl);
+                stages.remove(Stage.PUBLISH);
+                return null;
+            });
+        }
+        if (!replicas.isDone()) statusMap.put(documentId, IngestionStatus.REPLICATING);
+        replicas.join();
+    }
+
+    private void fail(String documentId, Set<Stage> left, Exception e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        // stored already: a new attempt only has to finish what failed
+        if (!left.isEmpty() && datalake.contains(documentId)) unfinished.put(documentId, left);
+        statusMap.put(documentId, IngestionStatus.FAILED);
+        log.error("Ingestion FAILED for {}: {}", documentId, cause.getMessage(), cause);
+        throw new RuntimeException(cause);
+    }
+
+    /** Stores a replica sent by {@link ReplicationManager}, parsed straight from the request stream. */
+    public void storeReplicaFromJson(String documentId, Reader jsonPayload) {
         try {
             log.info("Storing replica for {}", documentId);
 
-            JsonObject obj = JsonParser.parseString(jsonPayload).getAsJsonObject();
-            String header = obj.has("header") ? obj.get("header").getAsString() : "";
-            String body = obj.has("body") ? obj.get("body").getAsString() : "";
-            String sourceUrl = obj.has("sourceUrl") ? obj.get("sourceUrl").getAsString() : "";
-
+            String header = "";
+            String body = "";
+            String sourceUrl = "";
             Map<String, Object> metadata = null;
-            if (obj.has("metadata") && obj.get("metadata").isJsonObject()) {
-                metadata = gson.fromJson(obj.get("metadata"), Map.class);
+
+            JsonReader reader = new JsonReader(jsonPayload);
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                    continue;
+                }
+                switch (name) {
+                    case "header" -> header = reader.nextString();
+                    case "body" -> body = reader.nextString();
+                    case "sourceUrl" -> sourceUrl = reader.nextString();
+                    case "metadata" -> metadata = gson.fromJson(reader, new TypeToken<Map<String, Object>>(){}.getType());
+                    default -> reader.skipValue();
+                }
             }
+            reader.endObject();
 
             datalake.storeReplica(documentId, header, body, sourceUrl, metadata);
 
@@ -155,11 +227,62 @@ public class IngestionService {
         }
     }
 
+    /** Status of a document accepted by the {@link IngestionExecutor} but not started yet; returns the previous one. */
+    IngestionStatus markQueued(String documentId) {
+        IngestionStatus previous = statusMap.put(documentId, IngestionStatus.QUEUED);
+        return previous == null ? IngestionStatus.UNKNOWN : previous;
+    }
+
+    // the queue turned the document down after all
+    void unmarkQueued(String documentId, IngestionStatus previous) {
+        if (previous == IngestionStatus.UNKNOWN) {
+            statusMap.remove(documentId, IngestionStatus.QUEUED);
+        } else {
+            statusMap.replace(documentId, IngestionStatus.QUEUED, previous);
+        }
+    }
+
+    /** Whether the local datalake holds the document. */
+    public boolean isStored(String documentId) {
+        return datalake.contains(documentId);
+    }
+
+    /**
+     * Whether the document is stored but a failed ingestion left its replicas or its event undone; an
+     * ingestion request for it then only runs those stages. Kept in memory only: after a restart the
+     * document counts as ingested again.
+     */
+    public boolean needsRepair(String documentId) {
+        return unfinished.containsKey(documentId);
+    }
+
     public IngestionStatus getStatus(String documentId) {
         return statusMap.getOrDefault(documentId, IngestionStatus.UNKNOWN);
     }
 
-    public Map<String, Path> listDocuments() {
-        return datalake.listDocuments();
+    /** Milliseconds the document spent in each stage so far; empty when it never started. */
+    public Map<String, Long> getStageMillis(String documentId) {
+        Map<String, Long> timings = stageMillis.get(documentId);
+        return timings == null ? Map.of() : new LinkedHashMap<>(timings);
+    }
+
+    public Map<String, Object> stageStats() {
+        return pipeline.stats();
+    }
+
+    public Map<String, Object> backupStats() {
+        return backup == null ? Map.of("enabled", false) : backup.stats();
+    }
+
+    public Map<String, Object> storageStats() {
+        return datalake.storageStats();
+    }
+
+    public Map<String, Object> logStats() {
+        return datalake.logStats();
+    }
+
+    public DocumentCatalog.Page listDocuments(String cursor, int limit, String language, String author) {
+        return datalake.listDocuments(cursor, limit, language, author);
     }
 }
@@ -1,5 +1,5 @@
 package es.ulpgc.bigdata.ingestion.core;
 
 public enum IngestionStatus {
-    UNKNOWN, DOWNLOADING, STORING, REPLICATING, PUBLISHING_EVENT, COMPLETED, FAILED
+    UNKNOWN, QUEUED, DOWNLOADING, STORING, REPLICATING, PUBLISHING_EVENT, COMPLETED, FAILED
 }
@@ -0,0 +1,275 @@
+package es.ulpgc.bigdata.ingestion.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Copies stored documents to the local backup directory off the ingestion path.
+ * <p>
+ * {@link #submit} only queues the document; one background thread takes up to {@code batchDocs}
+ * queued documents at a time, or whatever arrived within {@code maxDelayMillis}. Every file is
+ * hard-linked into the backup when both directories are on the same filesystem, which copies no data
+ * (the datalake replaces its files instead of rewriting them, so a link keeps the stored version).
+ * Otherwise the file is copied with {@link FileChannel#transferTo}. Copies are forced to disk together
+ * at the end of the batch rather than one document at a time. A file lands under its final name only
+ * once it is complete.
+ * <p>
+ * Packed datalakes submit the segment file that received the document instead. Segments are only
+ * ever appended to, so a segment is linked once, or in copy mode extended with the bytes added since
+ * the previous batch; a segment submitted for several documents of a batch is backed up once.
+ */
+public class LocalBackup implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(LocalBackup.class);
+
+    private static final Task STOP = new Task(null, null);
+
+    private final Path backupDocs;
+    private final Path backupSegments;
+    private final int batchDocs;
+    private final long maxDelayMillis;
+    private final BlockingQueue<Task> queue;
+    private final Thread worker;
+    private volatile boolean linksSupported = true;
+
+    private final AtomicLong documents = new AtomicLong();
+    private final AtomicLong linked = new AtomicLong();
+    private final AtomicLong copied = new AtomicLong();
+    private final AtomicLong bytesCopied = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+
+    /** @param backupRoot receives {@code docs/<id>/} per document and {@code segments/} for packed datalakes */
+    public LocalBackup(Path backupRoot, int batchDocs, long maxDelayMillis, int queueCapacity) {
+        this.backupDocs = backupRoot.resolve("docs");
+        this.backupSegments = backupRoot.resolve("segments");
+        this.batchDocs = Math.max(1, batchDocs);
+        this.maxDelayMillis = Math.max(0, maxDelayMillis);
+        this.queue = new LinkedBlockingQueue<>(Math.max(1, queueCapacity));
+        this.worker = new Thread(this::loop, "local-backup");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Queues the document stored in {@code location} (its directory, or the segment file holding it);
+     * waits only when the backup is that far behind.
+     */
+    public void submit(String documentId, Path location) throws InterruptedException {
+        queue.put(new Task(documentId, location));
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("queued", queue.size());
+        out.put("documents", documents.get());
+        out.put("filesLinked", linked.get());
+        out.put("filesCopied", copied.get());
+        out.put("bytesCopied", bytesCopied.get());
+        out.put("failed", failed.get());
+        out.put("batches", batches.get());
+        out.put("hardLinks", linksSupported);
+        return out;
+    }
+
+    private void loop() {
+        List<Task> batch = new ArrayList<>(batchDocs);
+        boolean stopping = false;
+        while (!stopping) {
+            try {
+                Task first = queue.take();
+                if (first == STOP) break;
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+                while (batch.size() < batchDocs) {
+                    Task next = queue.poll(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    if (next == STOP) {
+                        stopping = true;
+                        break;
+                    }
+                    batch.add(next);
+                }
+                backup(batch);
+            } catch (InterruptedException e) {
+                break;
+            } catch (RuntimeException e) {
+                log.error("Local backup batch failed: {}", e.getMessage(), e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void backup(List<Task> batch) {
+        List<FileChannel> unsynced = new ArrayList<>();
+        Set<Path> dirs = new LinkedHashSet<>();
+        // segment -> documents of the batch it holds
+        Map<Path, Integer> segments = new LinkedHashMap<>();
+        try {
+            for (Task task : batch) {
+                if (Files.isRegularFile(task.location)) {
+                    segments.merge(task.location, 1, Integer::sum);
+                    continue;
+                }
+                try {
+                    Path target = backupDocs.resolve(task.documentId);
+                    Files.createDirectories(target);
+                    try (DirectoryStream<Path> files = Files.newDirectoryStream(task.location,
+                            f -> Files.isRegularFile(f) && !f.getFileName().toString().endsWith(".tmp"))) {
+                        for (Path file : files) {
+                            backupFile(file, target.resolve(file.getFileName().toString()), unsynced);
+                        }
+                    }
+                    dirs.add(target);
+                    documents.incrementAndGet();
+                } catch (IOException e) {
+                    failed.incrementAndGet();
+                    log.error("Error backing up {}: {}", task.documentId, e.getMessage());
+                }
+            }
+            for (Map.Entry<Path, Integer> e : segments.entrySet()) {
+                Path segment = e.getKey();
+                try {
+                    Files.createDirectories(backupSegments);
+                    backupSegment(segment, backupSegments.resolve(segment.getFileName().toString()), unsynced);
+                    dirs.add(backupSegments);
+                    documents.addAndGet(e.getValue());
+                } catch (IOException ex) {
+                    failed.addAndGet(e.getValue());
+                    log.error("Error backing up segment {}: {}", segment, ex.getMessage());
+                }
+            }
+            // one pass of syncs for the whole batch: copied data first, then the directory entries
+            for (FileChannel channel : unsynced) {
+                force(channel);
+            }
+            dirs.add(backupDocs);
+            for (Path dir : dirs) {
+                syncDirectory(dir);
+            }
+            batches.incrementAndGet();
+        } finally {
+            for (FileChannel channel : unsynced) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    private void backupFile(Path source, Path dest, List<FileChannel> unsynced) throws IOException {
+        Path tmp = dest.resolveSibling(dest.getFileName() + ".tmp");
+        Files.deleteIfExists(tmp);
+        if (linksSupported) {
+            try {
+                Files.createLink(tmp, source);
+                Files.move(tmp, dest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                linked.incrementAndGet();
+                return;
+            } catch (NoSuchFileException e) {
+                throw e;
+            } catch (UnsupportedOperationException | IOException e) {
+                // typically another filesystem (a bind mount): copy from now on
+                linksSupported = false;
+                Files.deleteIfExists(tmp);
+                log.info("Hard links to {} are not possible ({}), copying files instead", backupDocs, e.getMessage());
+            }
+        }
+        FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        unsynced.add(out);
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+            bytesCopied.addAndGet(size);
+        }
+        Files.move(tmp, dest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        copied.incrementAndGet();
+    }
+
+    // append-only source: link it once, or copy what was added since the last batch
+    private void backupSegment(Path source, Path dest, List<FileChannel> unsynced) throws IOException {
+        if (Files.exists(dest)) {
+            if (Files.isSameFile(source, dest)) return;
+        } else if (linksSupported) {
+            try {
+                Files.createLink(dest, source);
+                linked.incrementAndGet();
+                return;
+            } catch (UnsupportedOperationException | IOException e) {
+                linksSupported = false;
+                log.info("Hard links to {} are not possible ({}), copying files instead", backupSegments, e.getMessage());
+            }
+        }
+        FileChannel out = FileChannel.open(dest, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        unsynced.add(out);
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+            long size = in.size();
+            // a record cut by a crash was dropped from the source: drop it here too
+            if (out.size() > size) out.truncate(size);
+            long position = out.size();
+            long from = position;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out.position(position));
+            }
+            bytesCopied.addAndGet(size - from);
+        }
+        copied.incrementAndGet();
+    }
+
+    private static void force(FileChannel channel) {
+        try {
+            channel.force(true);
+        } catch (IOException e) {
+            log.warn("Could not sync a backup file: {}", e.getMessage());
+        }
+    }
+
+    private static void syncDirectory(Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ignored) {
+            // not every platform can open or sync a directory
+        }
+    }
+
+    /** Backs up what is queued, then stops. */
+    @Override
+    public void close() throws InterruptedException {
+        queue.put(STOP);
+        worker.join(TimeUnit.SECONDS.toMillis(30));
+    }
+
+    private static final class Task {
+        final String documentId;
+        final Path location;
+
+        Task(String documentId, Path location) {
+            this.documentId = documentId;
+            this.location = location;
+        }
+    }
+}
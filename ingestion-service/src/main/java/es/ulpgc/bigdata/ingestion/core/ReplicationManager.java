@@ -2,54 +2,206 @@ package es.ulpgc.bigdata.ingestion.core;
 
 import com.google.gson.Gson;
 import org.apache.hc.client5.http.classic.methods.HttpPost;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
 import org.apache.hc.client5.http.impl.classic.HttpClients;
-import org.apache.hc.core5.http.io.entity.StringEntity;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.io.entity.EntityTemplate;
+import org.apache.hc.core5.util.Timeout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
 
-public class ReplicationManager {
+/**
+ * Copies stored documents to peer ingestion nodes.
+ * <p>
+ * {@code replicationFactor - 1} copies are sent in parallel over one pooled HTTP client; when a peer
+ * fails, the copy is retried on the next peer not used yet. The payload is gzip-compressed JSON
+ * streamed from the datalake, so the book is never held in memory as a JSON string.
+ * {@link #replicate} returns as soon as {@code writeQuorum} peers have acknowledged (the remaining
+ * copies complete in the background) and fails when that is no longer possible.
+ */
+public class ReplicationManager implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplicationManager.class);
 
     private final List<String> peers;
     private final int replicationFactor;
+    private final int writeQuorum;
+    private final long timeoutMillis;
+    private final CloseableHttpClient client;
+    private final ExecutorService senders;
     private final Gson gson = new Gson();
 
-    public ReplicationManager(List<String> peers, int replicationFactor) {
-        this.peers = peers;
+    /** @param writeQuorum peer acknowledgements to wait for; clamped to the number of copies sent */
+    public ReplicationManager(List<String> peers, int replicationFactor, int writeQuorum, long timeoutMillis) {
+        this.peers = peers == null ? List.of() : peers;
         this.replicationFactor = replicationFactor;
+        this.writeQuorum = writeQuorum;
+        this.timeoutMillis = timeoutMillis;
+
+        int copies = Math.max(1, Math.min(replicationFactor - 1, this.peers.size()));
+        this.client = HttpClients.custom()
+                .setConnectionManager(PoolingHttpClientConnectionManagerBuilder.create()
+                        .setMaxConnTotal(Math.max(8, 4 * this.peers.size()))
+                        .setMaxConnPerRoute(8)
+                        .setDefaultConnectionConfig(ConnectionConfig.custom()
+                                .setConnectTimeout(Timeout.ofSeconds(3))
+                                .build())
+                        .build())
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setResponseTimeout(Timeout.ofMilliseconds(timeoutMillis))
+                        .build())
+                .build();
+        AtomicInteger count = new AtomicInteger();
+        this.senders = Executors.newFixedThreadPool(Math.max(2, 4 * copies), r -> {
+            Thread t = new Thread(r, "replication-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
     }
 
-    public void replicate(String documentId, String header, String body, String sourceUrl,
-                          Map<String, Object> metadata) {
+    /**
+     * Sends the document stored in {@code datalake} to the peers and waits for the write quorum.
+     *
+     * @throws ReplicationException when fewer than the quorum of peers stored the copy
+     */
+    public void replicate(String documentId, DatalakePartition datalake, String sourceUrl, Map<String, Object> metadata)
+            throws InterruptedException {
 
-        if (peers == null || peers.isEmpty() || replicationFactor <= 1) return;
+        if (peers.isEmpty() || replicationFactor <= 1) return;
 
-        int replicasNeeded = Math.min(replicationFactor - 1, peers.size());
-        int replicasDone = 0;
+        int copies = Math.min(replicationFactor - 1, peers.size());
+        int quorum = Math.max(1, Math.min(writeQuorum, copies));
+        Queue<String> candidates = new ConcurrentLinkedQueue<>(peers);
+        CountDownLatch acks = new CountDownLatch(quorum);
+        AtomicInteger failedCopies = new AtomicInteger();
+        CountDownLatch hopeless = new CountDownLatch(1);
 
-        Map<String, Object> payload = Map.of(
-                "header", header == null ? "" : header,
-                "body", body == null ? "" : body,
-                "sourceUrl", sourceUrl == null ? "" : sourceUrl,
-                "metadata", metadata == null ? Map.of() : metadata
-        );
+        for (int i = 0; i < copies; i++) {
+            CompletableFuture.runAsync(() -> {
+                // one copy: peers are tried in order until one accepts it or none is left
+                String peer;
+                while ((peer = candidates.poll()) != null) {
+                    if (send(peer, documentId, datalake, sourceUrl, metadata)) {
+                        acks.countDown();
+                        return;
+                    }
+                }
+                if (failedCopies.incrementAndGet() > copies - quorum) hopeless.countDown();
+            }, senders);
+        }
 
-        try (CloseableHttpClient client = HttpClients.createDefault()) {
-            for (String peer : peers) {
-                if (replicasDone >= replicasNeeded) break;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis * peers.size());
+        while (acks.getCount() > 0 && hopeless.getCount() > 0 && System.nanoTime() < deadline) {
+            acks.await(50, TimeUnit.MILLISECONDS);
+        }
+        if (acks.getCount() > 0) {
+            throw new ReplicationException("Replication of " + documentId + " reached "
+                    + (quorum - acks.getCount()) + " of " + quorum + " required copies");
+        }
+    }
 
-                String url = peer.endsWith("/")
-                        ? peer + "internal/replica/" + documentId
-                        : peer + "/internal/replica/" + documentId;
+    private boolean send(String peer, String documentId, DatalakePartition datalake, String sourceUrl,
+                         Map<String, Object> metadata) {
+        String url = peer.endsWith("/")
+                ? peer + "internal/replica/" + documentId
+                : peer + "/internal/replica/" + documentId;
+        HttpPost post = new HttpPost(url);
+        post.setEntity(new EntityTemplate(-1, ContentType.APPLICATION_JSON, "gzip",
+                out -> writePayload(out, documentId, datalake, sourceUrl, metadata)));
+        try {
+            int code = client.execute(post, response -> response.getCode());
+            if (code / 100 == 2) return true;
+            log.warn("Peer {} answered {} to replica {}", peer, code, documentId);
+        } catch (IOException e) {
+            log.warn("Replica {} to {} failed: {}", documentId, peer, e.getMessage());
+        }
+        return false;
+    }
 
-                HttpPost post = new HttpPost(url);
-                post.setHeader("Content-Type", "application/json");
-                post.setEntity(new StringEntity(gson.toJson(payload)));
+    // {"sourceUrl":..., "metadata":{...}, "header":"...", "body":"..."}, gzip, text escaped while read from disk
+    private void writePayload(OutputStream out, String documentId, DatalakePartition datalake, String sourceUrl,
+                              Map<String, Object> metadata) throws IOException {
+        GZIPOutputStream gzip = new GZIPOutputStream(out, 64 * 1024);
+        Writer w = new OutputStreamWriter(gzip, StandardCharsets.UTF_8);
+        w.write("{\"sourceUrl\":");
+        w.write(gson.toJson(sourceUrl == null ? "" : sourceUrl));
+        w.write(",\"metadata\":");
+        w.write(gson.toJson(metadata == null ? Map.of() : metadata));
+        w.write(",\"header\":");
+        writeJsonString(w, datalake.openHeader(documentId));
+        w.write(",\"body\":");
+        writeJsonString(w, datalake.openBody(documentId));
+        w.write('}');
+        w.flush();
+        gzip.finish();
+    }
 
-                client.execute(post, response -> null);
-                replicasDone++;
+    private static void writeJsonString(Writer w, InputStream text) throws IOException {
+        w.write('"');
+        if (text != null) {
+            char[] buf = new char[16 * 1024];
+            try (Reader r = new InputStreamReader(text, StandardCharsets.UTF_8)) {
+                int n;
+                while ((n = r.read(buf)) > 0) {
+                    int from = 0;
+                    for (int i = 0; i < n; i++) {
+                        String escape = escape(buf[i]);
+                        if (escape != null) {
+                            w.write(buf, from, i - from);
+                            w.write(escape);
+                            from = i + 1;
+                        }
+                    }
+                    w.write(buf, from, n - from);
+                }
             }
-        } catch (Exception ignored) {}
+        }
+        w.write('"');
+    }
+
+    private static String escape(char c) {
+        switch (c) {
+            case '"': return "\\\"";
+            case '\\': return "\\\\";
+            case '\n': return "\\n";
+            case '\r': return "\\r";
+            case '\t': return "\\t";
+            default: return c < 0x20 ? String.format("\\u%04x", (int) c) : null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        senders.shutdown();
+        client.close();
+    }
+
+    public static class ReplicationException extends RuntimeException {
+        public ReplicationException(String message) {
+            super(message);
+        }
     }
 }
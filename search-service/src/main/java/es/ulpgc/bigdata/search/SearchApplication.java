@@ -1,5 +1,6 @@
 package es.ulpgc.bigdata.search;
 
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
 
@@ -8,8 +9,13 @@ import org.slf4j.LoggerFactory;
 
 import com.hazelcast.core.HazelcastInstance;
 
+import es.ulpgc.bigdata.analysis.AnalysisConfig;
+import es.ulpgc.bigdata.search.core.CollectionStatsCache;
 import es.ulpgc.bigdata.search.core.HazelcastClientProvider;
+import es.ulpgc.bigdata.search.core.NearCacheMetrics;
+import es.ulpgc.bigdata.search.core.ResultCache;
 import es.ulpgc.bigdata.search.core.SearchEngine;
+import es.ulpgc.bigdata.search.core.SegmentCatalogCache;
 import es.ulpgc.bigdata.search.model.SearchResponse;
 import io.javalin.Javalin;
 import io.javalin.http.Context;
@@ -23,7 +29,31 @@ public class SearchApplication {
         int port = resolvePort();
 
         HazelcastInstance hazelcast = HazelcastClientProvider.getInstance();
-        SearchEngine searchEngine = new SearchEngine(hazelcast);
+        long statsRefreshMs = Long.parseLong(System.getenv().getOrDefault("STATS_REFRESH_MS", "1000"));
+        CollectionStatsCache collectionStats = new CollectionStatsCache(hazelcast, statsRefreshMs);
+        // "local" pulls posting lists and scores here; "pushdown" scores on the Hazelcast members
+        boolean pushDown = "pushdown".equalsIgnoreCase(System.getenv().getOrDefault("SCORING_MODE", "local"));
+        // final results per normalized query, dropped whenever the index generation moves (0 disables)
+        long resultCacheBytes = Long.parseLong(System.getenv().getOrDefault("RESULT_CACHE_MAX_BYTES", "16777216"));
+        // no results are stored for this long after a change, covering the near cache invalidation delay
+        long resultCacheSettleMs = Long.parseLong(System.getenv().getOrDefault("RESULT_CACHE_SETTLE_MS", "2000"));
+        ResultCache resultCache = new ResultCache(resultCacheBytes, resultCacheSettleMs, collectionStats::generation);
+        // budget for the index lookups of one query; slower terms are dropped from that query's ranking
+        long queryDeadlineMs = Long.parseLong(System.getenv().getOrDefault("QUERY_DEADLINE_MS", "2000"));
+        // must match the indexer's ANALYZER settings
+        AnalysisConfig analysis = AnalysisConfig.fromEnv();
+        // on-disk segments written by the indexer (same directory, shared volume); unset = Hazelcast only
+        String segmentDir = System.getenv("SEGMENT_DIR");
+        SegmentCatalogCache segments = segmentDir == null || segmentDir.isBlank() ? null
+                : new SegmentCatalogCache(hazelcast, Path.of(segmentDir),
+                        Long.parseLong(System.getenv().getOrDefault("SEGMENT_REFRESH_MS", "1000")));
+        if (pushDown && segments != null) {
+            // members only score their in-memory postings: push-down switches off once a segment exists
+            log.warn("SCORING_MODE=pushdown has no effect with SEGMENT_DIR set: queries are scored locally "
+                    + "as soon as the indexer has flushed a segment");
+        }
+        SearchEngine searchEngine = new SearchEngine(
+                hazelcast, collectionStats, pushDown, resultCache, queryDeadlineMs, analysis, segments);
 
         Javalin app = Javalin.create(config -> {
             config.http.defaultContentType = "application/json";
@@ -34,6 +64,12 @@ public class SearchApplication {
 
         app.get("/search", ctx -> handleSearch(ctx, searchEngine));
 
+        NearCacheMetrics nearCacheMetrics = new NearCacheMetrics(hazelcast);
+        app.get("/cache/stats", ctx -> ctx.json(Map.of(
+                "nearCache", nearCacheMetrics.snapshot(),
+                "results", resultCache.snapshot(),
+                "segments", segments == null ? Map.of("enabled", false) : segments.snapshot())));
+
         // Direct search for a specific term
         app.get("/index/terms/{term}", ctx -> {
             String term = ctx.pathParam("term");
@@ -46,7 +82,11 @@ public class SearchApplication {
             ctx.status(500).json(Map.of("error", "internal server error"));
         });
 
-        app.events(events -> events.serverStopped(HazelcastClientProvider::shutdown));
+        app.events(events -> events.serverStopped(() -> {
+            collectionStats.close();
+            if (segments != null) segments.close();
+            HazelcastClientProvider.shutdown();
+        }));
 
         app.start(port);
         log.info("Search-service started on port {}", port);
@@ -72,7 +112,10 @@ public class SearchApplication {
 
         int limit = ctx.queryParamAsClass("limit", Integer.class).getOrDefault(10);
 
-        List<?> hits = searchEngine.search(query, limit);
+        // stop words and stemming of this language (?lang=es); the configured default otherwise
+        String language = ctx.queryParam("lang");
+
+        List<?> hits = searchEngine.search(query, limit, language);
 
         ctx.status(200).json(new SearchResponse(query, (List) hits));
     }
@@ -0,0 +1,67 @@
+package es.ulpgc.bigdata.search.core;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.map.IMap;
+
+import es.ulpgc.bigdata.index.CollectionStats;
+import es.ulpgc.bigdata.index.IndexGeneration;
+
+/**
+ * Local copy of the collection statistics and the index generation maintained by the indexing service.
+ * Queries read them in O(1); a background task refreshes them every {@code refreshMillis}.
+ */
+public class CollectionStatsCache implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(CollectionStatsCache.class);
+
+    private final IMap<String, CollectionStats> indexStats;
+    private final ScheduledExecutorService refresher;
+    private final IndexGeneration indexGeneration;
+    private volatile CollectionStats current = CollectionStats.EMPTY;
+    private volatile long generation = -1;
+
+    public CollectionStatsCache(HazelcastInstance hazelcast, long refreshMillis) {
+        this.indexStats = hazelcast.getMap(CollectionStats.MAP);
+        this.indexGeneration = new IndexGeneration(hazelcast);
+        this.refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "collection-stats-refresh");
+            t.setDaemon(true);
+            return t;
+        });
+        refresh();
+        refresher.scheduleWithFixedDelay(this::refresh, refreshMillis, refreshMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public CollectionStats current() {
+        return current;
+    }
+
+    /** Last seen index generation; -1 until it could be read once. */
+    public long generation() {
+        return generation;
+    }
+
+    public void refresh() {
+        try {
+            // generation first: stats read afterwards are at least as new as the generation they are paired with
+            long latestGeneration = indexGeneration.current();
+            CollectionStats latest = indexStats.get(CollectionStats.KEY);
+            current = latest == null ? CollectionStats.EMPTY : latest;
+            generation = latestGeneration;
+        } catch (Exception e) {
+            log.warn("Could not refresh collection stats: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        refresher.shutdownNow();
+    }
+}
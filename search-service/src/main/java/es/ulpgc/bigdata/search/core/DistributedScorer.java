@@ -0,0 +1,158 @@
+package es.ulpgc.bigdata.search.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.hazelcast.cluster.Member;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IExecutorService;
+
+import es.ulpgc.bigdata.index.PartialScoringTask;
+import es.ulpgc.bigdata.index.ScoredDocument;
+import es.ulpgc.bigdata.index.TopKScorer;
+
+/**
+ * Push-down scoring: every member scores the query terms it owns with a {@link PartialScoringTask}
+ * and only scored ordinals come back, never posting lists.
+ * <p>
+ * The index is partitioned by term, so a document's score is the sum of the partial scores of the
+ * members involved, and merging partial top-k lists alone could miss documents. The merge is the
+ * three-phase uniform threshold algorithm (TPUT), which is exact:
+ * <ol>
+ *     <li>each member returns its partial top-k; tau1 is the k-th best sum of what was seen;</li>
+ *     <li>each member returns the documents whose partial score is at least tau1 / m, which bounds the
+ *     score of everything still unseen below tau1; tau2 is recomputed from the new lower bounds;</li>
+ *     <li>documents whose upper bound still reaches tau2 get their missing partial scores resolved.</li>
+ * </ol>
+ * With a single member involved the first phase is already exact.
+ */
+public class DistributedScorer {
+
+    private final HazelcastInstance hazelcast;
+    private final IExecutorService executor;
+
+    public DistributedScorer(HazelcastInstance hazelcast) {
+        this.hazelcast = hazelcast;
+        this.executor = hazelcast.getExecutorService("scoring");
+    }
+
+    /** @param deadline {@link System#nanoTime()} by which every phase must have answered */
+    public List<ScoredDocument> topK(Map<String, Integer> queryTf, long totalDocs, int k, long deadline)
+            throws Exception {
+        Map<Member, Map<String, Integer>> byOwner = new HashMap<>();
+        for (Map.Entry<String, Integer> e : queryTf.entrySet()) {
+            Member owner = hazelcast.getPartitionService().getPartition(e.getKey()).getOwner();
+            byOwner.computeIfAbsent(owner, m -> new HashMap<>()).put(e.getKey(), e.getValue());
+        }
+        List<Member> members = new ArrayList<>(byOwner.keySet());
+        int m = members.size();
+
+        // Phase 1: partial top-k per member
+        List<List<ScoredDocument>> phase1 = run(members, deadline, member ->
+                PartialScoringTask.topK(byOwner.get(member), totalDocs, k));
+        if (m == 1) return phase1.get(0);
+
+        Map<Integer, double[]> partials = new HashMap<>();
+        merge(partials, phase1, m);
+        double tau1 = kthLowerBound(partials, k);
+
+        // Phase 2: everything each member scores at least tau1 / m
+        double perMember = tau1 / m;
+        List<List<ScoredDocument>> phase2 = run(members, deadline, member ->
+                PartialScoringTask.atLeast(byOwner.get(member), totalDocs, perMember));
+        merge(partials, phase2, m);
+        double tau2 = kthLowerBound(partials, k);
+
+        // Phase 3: resolve the unknown partial scores of documents that can still reach tau2
+        Map<Member, List<Integer>> missing = new HashMap<>();
+        List<Integer> candidates = new ArrayList<>();
+        for (Map.Entry<Integer, double[]> e : partials.entrySet()) {
+            double[] p = e.getValue();
+            double upper = 0.0;
+            for (double v : p) upper += Double.isNaN(v) ? perMember : v;
+            if (upper < tau2) continue;
+            candidates.add(e.getKey());
+            for (int i = 0; i < m; i++) {
+                if (Double.isNaN(p[i])) missing.computeIfAbsent(members.get(i), x -> new ArrayList<>()).add(e.getKey());
+            }
+        }
+        if (!missing.isEmpty()) {
+            List<Member> toAsk = new ArrayList<>(missing.keySet());
+            List<List<ScoredDocument>> phase3 = run(toAsk, deadline, member -> {
+                int[] ordinals = missing.get(member).stream().mapToInt(Integer::intValue).toArray();
+                Arrays.sort(ordinals);
+                return PartialScoringTask.exact(byOwner.get(member), totalDocs, ordinals);
+            });
+            for (int j = 0; j < toAsk.size(); j++) {
+                int i = members.indexOf(toAsk.get(j));
+                for (ScoredDocument d : phase3.get(j)) {
+                    partials.get(d.ordinal())[i] = d.score();
+                }
+            }
+        }
+
+        List<ScoredDocument> ranked = new ArrayList<>(candidates.size());
+        for (int ordinal : candidates) {
+            double score = 0.0;
+            for (double v : partials.get(ordinal)) score += Double.isNaN(v) ? 0.0 : v;
+            ranked.add(new ScoredDocument(ordinal, score));
+        }
+        ranked.sort(TopKScorer.BEST_FIRST);
+        return ranked.size() > k ? ranked.subList(0, k) : ranked;
+    }
+
+    private interface TaskFactory {
+        PartialScoringTask create(Member member);
+    }
+
+    private List<List<ScoredDocument>> run(List<Member> members, long deadline, TaskFactory factory)
+            throws Exception {
+        List<Future<List<ScoredDocument>>> futures = new ArrayList<>(members.size());
+        for (Member member : members) {
+            futures.add(executor.submitToMember(factory.create(member), member));
+        }
+        List<List<ScoredDocument>> results = new ArrayList<>(members.size());
+        try {
+            for (Future<List<ScoredDocument>> f : futures) {
+                results.add(f.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+            }
+        } catch (TimeoutException e) {
+            futures.forEach(f -> f.cancel(true));
+            throw e;
+        }
+        return results;
+    }
+
+    // partials: ordinal -> partial score per member, NaN while unknown
+    private static void merge(Map<Integer, double[]> partials, List<List<ScoredDocument>> results, int m) {
+        for (int i = 0; i < results.size(); i++) {
+            for (ScoredDocument d : results.get(i)) {
+                double[] p = partials.computeIfAbsent(d.ordinal(), x -> {
+                    double[] fresh = new double[m];
+                    Arrays.fill(fresh, Double.NaN);
+                    return fresh;
+                });
+                p[i] = d.score();
+            }
+        }
+    }
+
+    private static double kthLowerBound(Map<Integer, double[]> partials, int k) {
+        if (partials.size() < k) return 0.0;
+        double[] lower = new double[partials.size()];
+        int j = 0;
+        for (double[] p : partials.values()) {
+            double sum = 0.0;
+            for (double v : p) sum += Double.isNaN(v) ? 0.0 : v;
+            lower[j++] = sum;
+        }
+        Arrays.sort(lower);
+        return lower[lower.length - k];
+    }
+}
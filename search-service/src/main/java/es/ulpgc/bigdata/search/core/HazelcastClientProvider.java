@@ -3,7 +3,16 @@ package es.ulpgc.bigdata.search.core;
 import com.hazelcast.client.HazelcastClient;
 import com.hazelcast.client.config.ClientConfig;
 import com.hazelcast.client.config.ClientNetworkConfig;
+import com.hazelcast.config.EvictionConfig;
+import com.hazelcast.config.EvictionPolicy;
+import com.hazelcast.config.InMemoryFormat;
+import com.hazelcast.config.MaxSizePolicy;
+import com.hazelcast.config.NearCacheConfig;
 import com.hazelcast.core.HazelcastInstance;
+import es.ulpgc.bigdata.index.CollectionStatsSerializer;
+import es.ulpgc.bigdata.index.DocumentMetadataSerializer;
+import es.ulpgc.bigdata.index.PostingListSerializer;
+import es.ulpgc.bigdata.index.SegmentInfoSerializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -35,11 +44,43 @@ public class HazelcastClientProvider {
         ClientNetworkConfig networkConfig = config.getNetworkConfig();
         networkConfig.addAddress(address);
 
+        // Posting lists travel in their compressed form; stats, metadata and the segment catalog as typed records
+        config.getSerializationConfig().getCompactSerializationConfig()
+                .addSerializer(new PostingListSerializer())
+                .addSerializer(new CollectionStatsSerializer())
+                .addSerializer(new DocumentMetadataSerializer())
+                .addSerializer(new SegmentInfoSerializer());
+
+        // Near caches for the hot part of the index. Members send an invalidation on every mutation
+        // (indexing entry processors, reindex removals), but delivery is asynchronous, so a cached entry
+        // can briefly outlive a write; the TTL bounds how long a missed invalidation leaves it stale
+        int ttlSeconds = Integer.parseInt(System.getenv().getOrDefault("NEAR_CACHE_TTL_SECONDS", "300"));
+        EvictionPolicy policy = EvictionPolicy.valueOf(
+                System.getenv().getOrDefault("NEAR_CACHE_EVICTION", "LFU").toUpperCase());
+        int postingEntries = Integer.parseInt(System.getenv().getOrDefault("NEAR_CACHE_POSTINGS_MAX", "1000"));
+        int metadataEntries = Integer.parseInt(System.getenv().getOrDefault("NEAR_CACHE_METADATA_MAX", "10000"));
+
+        config.addNearCacheConfig(nearCache("inverted-index", InMemoryFormat.OBJECT, policy, postingEntries, ttlSeconds));
+        config.addNearCacheConfig(nearCache("metadata-index", InMemoryFormat.OBJECT, policy, metadataEntries, ttlSeconds));
+        config.addNearCacheConfig(nearCache("doc-ids", InMemoryFormat.OBJECT, policy, metadataEntries, ttlSeconds));
+
         log.info("Connecting to Hazelcast cluster '{}' at {}", clusterName, address);
 
         return HazelcastClient.newHazelcastClient(config);
     }
 
+    private static NearCacheConfig nearCache(String map, InMemoryFormat format, EvictionPolicy policy,
+                                             int maxEntries, int ttlSeconds) {
+        return new NearCacheConfig(map)
+                .setInMemoryFormat(format)
+                .setInvalidateOnChange(true)
+                .setTimeToLiveSeconds(ttlSeconds)
+                .setEvictionConfig(new EvictionConfig()
+                        .setEvictionPolicy(policy)
+                        .setMaxSizePolicy(MaxSizePolicy.ENTRY_COUNT)
+                        .setSize(maxEntries));
+    }
+
     public static void shutdown() {
         if (instance != null) {
             try {
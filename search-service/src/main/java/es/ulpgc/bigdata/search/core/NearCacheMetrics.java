@@ -0,0 +1,41 @@
+package es.ulpgc.bigdata.search.core;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.nearcache.NearCacheStats;
+
+/** Hit-ratio view over the client near caches configured in {@link HazelcastClientProvider}. */
+public class NearCacheMetrics {
+
+    private static final List<String> MAPS = List.of("inverted-index", "metadata-index", "doc-ids");
+
+    private final HazelcastInstance hazelcast;
+
+    public NearCacheMetrics(HazelcastInstance hazelcast) {
+        this.hazelcast = hazelcast;
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        for (String name : MAPS) {
+            NearCacheStats stats = hazelcast.getMap(name).getLocalMapStats().getNearCacheStats();
+            if (stats == null) continue;
+
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("entries", stats.getOwnedEntryCount());
+            m.put("memoryBytes", stats.getOwnedEntryMemoryCost());
+            m.put("hits", stats.getHits());
+            m.put("misses", stats.getMisses());
+            long lookups = stats.getHits() + stats.getMisses();
+            m.put("hitRatio", lookups == 0 ? 0.0 : (double) stats.getHits() / lookups);
+            m.put("evictions", stats.getEvictions());
+            m.put("expirations", stats.getExpirations());
+            m.put("invalidations", stats.getInvalidations());
+            out.put(name, m);
+        }
+        return out;
+    }
+}
@@ -0,0 +1,136 @@
+package es.ulpgc.bigdata.search.core;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import es.ulpgc.bigdata.search.model.SearchHit;
+
+/**
+ * LRU cache of final search results, bounded by an estimate of the memory the cached hits take.
+ * <p>
+ * Entries belong to the index generation they were computed under. When the generation reported by
+ * {@code generation} moves, the whole cache is dropped at once on the next access, so there is no
+ * per-entry listener or TTL to maintain. A result computed while the generation changed is simply not
+ * stored, and neither is anything computed during the first {@code settleMillis} of a new generation:
+ * the client near caches may still be serving pre-change postings for that long, and a result built
+ * from them would otherwise stay cached until the next change.
+ */
+public class ResultCache {
+
+    // rough per-object costs (header + fields + reference), enough to keep the bound meaningful
+    private static final int ENTRY_OVERHEAD = 96;
+    private static final int HIT_OVERHEAD = 64;
+
+    private final long maxBytes;
+    private final long settleNanos;
+    private final LongSupplier generation;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+
+    private long currentGeneration = -1;
+    private long generationSince = System.nanoTime();
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+    private long savedNanos;
+
+    public ResultCache(long maxBytes, long settleMillis, LongSupplier generation) {
+        this.maxBytes = maxBytes;
+        this.settleNanos = TimeUnit.MILLISECONDS.toNanos(settleMillis);
+        this.generation = generation;
+    }
+
+    /** Builds the cache key from the query term frequencies (order-insensitive) and the limit. */
+    public static String key(Map<String, Integer> queryTf, int limit) {
+        StringBuilder sb = new StringBuilder().append(limit);
+        queryTf.entrySet().stream()
+                .sorted(Map.Entry.comparingByKey())
+                .forEach(e -> sb.append('|').append(e.getKey()).append(':').append(e.getValue()));
+        return sb.toString();
+    }
+
+    /** Generation to pass to {@link #put} for a result that is about to be computed. */
+    public long generation() {
+        return generation.getAsLong();
+    }
+
+    public synchronized List<SearchHit> get(String key) {
+        sync(generation.getAsLong());
+        Entry e = entries.get(key);
+        if (e == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        savedNanos += e.costNanos;
+        return e.hits;
+    }
+
+    /**
+     * Stores {@code result}, computed under {@code computedAt} in {@code costNanos}. Ignored when the
+     * generation is unknown, has moved since the computation started, or is still settling.
+     */
+    public synchronized void put(String key, long computedAt, List<SearchHit> result, long costNanos) {
+        if (maxBytes <= 0 || computedAt < 0) return;
+        sync(generation.getAsLong());
+        if (computedAt != currentGeneration || System.nanoTime() - generationSince < settleNanos) return;
+
+        Entry e = new Entry(List.copyOf(result), estimate(key, result), costNanos);
+        if (e.bytes > maxBytes) return;
+        Entry previous = entries.put(key, e);
+        if (previous != null) bytes -= previous.bytes;
+        bytes += e.bytes;
+
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            bytes -= eldest.next().bytes;
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized Map<String, Object> snapshot() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        long lookups = hits + misses;
+        m.put("generation", currentGeneration);
+        m.put("entries", entries.size());
+        m.put("memoryBytes", bytes);
+        m.put("maxBytes", maxBytes);
+        m.put("hits", hits);
+        m.put("misses", misses);
+        m.put("hitRatio", lookups == 0 ? 0.0 : (double) hits / lookups);
+        m.put("evictions", evictions);
+        m.put("invalidations", invalidations);
+        m.put("savedMillis", savedNanos / 1_000_000);
+        return m;
+    }
+
+    private void sync(long latest) {
+        if (latest == currentGeneration) return;
+        if (!entries.isEmpty()) invalidations++;
+        entries.clear();
+        bytes = 0;
+        currentGeneration = latest;
+        generationSince = System.nanoTime();
+    }
+
+    private static long estimate(String key, List<SearchHit> result) {
+        long size = ENTRY_OVERHEAD + 2L * key.length();
+        for (SearchHit h : result) {
+            size += HIT_OVERHEAD + 2L * (length(h.getDocumentId()) + length(h.getTitle()) + length(h.getUrl()));
+        }
+        return size;
+    }
+
+    private static int length(String s) {
+        return s == null ? 0 : s.length();
+    }
+
+    private record Entry(List<SearchHit> hits, long bytes, long costNanos) {
+    }
+}
@@ -1,41 +1,78 @@
 package es.ulpgc.bigdata.search.core;
 
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
-import java.util.regex.Pattern;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 
-import com.hazelcast.collection.ISet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.hazelcast.core.HazelcastInstance;
 import com.hazelcast.map.IMap;
-import com.hazelcast.multimap.MultiMap;
 
+import es.ulpgc.bigdata.analysis.AnalysisConfig;
+import es.ulpgc.bigdata.analysis.TermFrequencies;
+import es.ulpgc.bigdata.index.DocumentDictionary;
+import es.ulpgc.bigdata.index.DocumentMetadata;
+import es.ulpgc.bigdata.index.PostingList;
+import es.ulpgc.bigdata.index.ScoredDocument;
+import es.ulpgc.bigdata.index.SegmentSet;
+import es.ulpgc.bigdata.index.TfIdf;
+import es.ulpgc.bigdata.index.TopKScorer;
 import es.ulpgc.bigdata.search.model.SearchHit;
 
 public class SearchEngine {
 
-    // Same as in indexing-service (TextTokenizer) for consistency
-    private static final Pattern SPLIT = Pattern.compile("[^\\p{L}\\p{Nd}]+");
-
-    private final MultiMap<String, String> invertedIndex;
-    private final ISet<String> indexedDocs;
-    private final IMap<String, Map<String, Object>> metadataIndex;
-
-    public SearchEngine(HazelcastInstance hazelcast) {
-        this.invertedIndex = hazelcast.getMultiMap("inverted-index");
-        this.indexedDocs = hazelcast.getSet("indexed-docs");
-        this.metadataIndex = hazelcast.getMap("metadata-index");
+    private static final Logger log = LoggerFactory.getLogger(SearchEngine.class);
+
+    private final IMap<String, PostingList> invertedIndex;
+    private final IMap<String, DocumentMetadata> metadataIndex;
+    private final DocumentDictionary dictionary;
+    private final CollectionStatsCache collectionStats;
+    private final DistributedScorer distributedScorer;
+    private final ResultCache resultCache;
+    private final long deadlineNanos;
+    private final AnalysisConfig analysis;
+    private final SegmentCatalogCache segments;
+
+    /**
+     * @param pushDown score on the members owning the query terms ({@link DistributedScorer}) instead
+     *                 of pulling the posting lists into this service
+     * @param resultCache final results by normalized query, invalidated by index generation
+     * @param deadlineMillis time budget of the index lookups of one query; lookups still pending when
+     *                       it runs out are abandoned and the query is answered with what arrived
+     * @param analysis same analyzer selection as the indexer, so query terms match indexed terms
+     * @param segments on-disk segments of the index, or null when the whole index is in Hazelcast
+     */
+    public SearchEngine(HazelcastInstance hazelcast, CollectionStatsCache collectionStats, boolean pushDown,
+                        ResultCache resultCache, long deadlineMillis, AnalysisConfig analysis,
+                        SegmentCatalogCache segments) {
+        this.analysis = analysis;
+        this.segments = segments;
+        this.invertedIndex = hazelcast.getMap("inverted-index");
+        this.deadlineNanos = TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+        this.collectionStats = collectionStats;
+        this.resultCache = resultCache;
+        this.distributedScorer = pushDown ? new DistributedScorer(hazelcast) : null;
+        this.metadataIndex = hazelcast.getMap(DocumentMetadata.MAP);
+        this.dictionary = new DocumentDictionary(hazelcast);
     }
 
     public List<SearchHit> search(String queryText, int limit) {
+        return search(queryText, limit, null);
+    }
+
+    /** @param language query language (ISO code or name); null for the configured default */
+    public List<SearchHit> search(String queryText, int limit, String language) {
         if (queryText == null || queryText.isBlank()) {
             return Collections.emptyList();
         }
@@ -43,92 +80,148 @@ public class SearchEngine {
             limit = 10;
         }
 
-        List<String> terms = tokenize(queryText);
-        if (terms.isEmpty()) {
+        // TF of the query (avoids double counting if the user repeats terms); same analysis as documents
+        Map<String, Integer> queryTf = TermFrequencies.of(queryText, analysis.analyzerFor(language));
+        if (queryTf.isEmpty()) {
             return Collections.emptyList();
         }
 
-        // N = total number of indexed documents
-        int totalDocs = indexedDocs.size();
+        // taken before anything is read from the index, so a result is never tagged newer than its inputs
+        long generation = resultCache.generation();
+
+        // N = total number of indexed documents (local copy, refreshed in the background)
+        long totalDocs = collectionStats.current().getDocuments();
         if (totalDocs == 0) {
             return Collections.emptyList();
         }
 
-        // TF of the query (avoids double counting if the user repeats terms)
-        Map<String, Integer> queryTf = new HashMap<>();
-        for (String t : terms) {
-            queryTf.merge(t, 1, Integer::sum);
+        String cacheKey = ResultCache.key(queryTf, limit);
+        List<SearchHit> cached = resultCache.get(cacheKey);
+        if (cached != null) {
+            return cached;
+        }
+
+        long start = System.nanoTime();
+        long deadline = start + deadlineNanos;
+        // members only hold the in-memory part of the index, so push-down is limited to heap-only indexes
+        boolean pushDown = distributedScorer != null && (segments == null || segments.isEmpty());
+        Ranking ranking = pushDown
+                ? pushDownTopK(queryTf, totalDocs, limit, deadline)
+                : localTopK(queryTf, totalDocs, limit, deadline);
+        List<SearchHit> hits = buildHits(ranking.top());
+        // a ranking cut short by the deadline is served but never cached
+        if (ranking.complete()) {
+            resultCache.put(cacheKey, generation, hits, System.nanoTime() - start);
         }
+        return hits;
+    }
 
-        Map<String, Double> scoreByDoc = new HashMap<>();
+    private List<SearchHit> buildHits(List<ScoredDocument> top) {
+        if (top.isEmpty()) {
+            return Collections.emptyList();
+        }
 
-        for (Map.Entry<String, Integer> qEntry : queryTf.entrySet()) {
-            String term = qEntry.getKey();
-            int qf = qEntry.getValue();
+        // IDs are resolved for the returned hits only
+        Set<Integer> ordinals = top.stream().map(ScoredDocument::ordinal).collect(Collectors.toSet());
+        Map<Integer, String> ids = dictionary.documentIds(ordinals);
 
-            Collection<String> postings = invertedIndex.get(term);
-            if (postings == null || postings.isEmpty()) {
-                continue;
-            }
+        // one batched read for all hits (served from the near cache when possible)
+        Map<String, DocumentMetadata> metadata = metadataIndex.getAll(new HashSet<>(ids.values()));
 
-            // df = number of distinct documents containing the term
-            Set<String> docsWithTerm = new HashSet<>(postings);
-            int df = docsWithTerm.size();
-            if (df == 0) {
-                continue;
+        List<SearchHit> hits = new ArrayList<>(top.size());
+        for (ScoredDocument d : top) {
+            String docId = ids.get(d.ordinal());
+            if (docId != null) {
+                hits.add(buildHit(docId, metadata.get(docId), d.score()));
             }
+        }
+        return hits;
+    }
 
-            // Smoothed IDF: avoids idf=0 when N=df (very common with few docs)
-            // idf = log((N+1)/(df+1)) + 1
-            double idf = Math.log((totalDocs + 1.0) / (df + 1.0)) + 1.0;
+    private Ranking pushDownTopK(Map<String, Integer> queryTf, long totalDocs, int limit, long deadline) {
+        try {
+            return new Ranking(distributedScorer.topK(queryTf, totalDocs, limit, deadline), true);
+        } catch (Exception e) {
+            log.warn("Push-down scoring failed, scoring locally: {}", e.getMessage());
+            return localTopK(queryTf, totalDocs, limit, deadline);
+        }
+    }
 
-            // Query weight (optional, but standard): (1 + log(qf))
-            double qWeight = 1.0 + Math.log(qf);
+    /**
+     * All posting lists are requested at once with getAsync, so the query waits for its slowest lookup
+     * rather than for the sum of them. Each list is turned into its scoring term as soon as it arrives;
+     * MaxScore needs the bound of every term, so scoring itself starts when the last list is in or the
+     * deadline passes, whichever comes first. Postings already written to segments are read from the
+     * local mappings meanwhile and combined with the in-memory ones, which win for the same document.
+     */
+    private Ranking localTopK(Map<String, Integer> queryTf, long totalDocs, int limit, long deadline) {
+        List<CompletableFuture<TopKScorer.Term>> pending = new ArrayList<>(queryTf.size());
 
-            // TF per document counting actual occurrences (requires MultiMap with LIST for duplicates)
-            Map<String, Integer> tfByDoc = new HashMap<>();
-            for (String docId : postings) {
-                tfByDoc.merge(docId, 1, Integer::sum);
+        for (Map.Entry<String, Integer> qEntry : queryTf.entrySet()) {
+            int qf = qEntry.getValue();
+            CompletableFuture<PostingList> inMemory = invertedIndex.getAsync(qEntry.getKey()).toCompletableFuture();
+            if (segments != null && !segments.isEmpty()) {
+                PostingList stored = segments.postings(qEntry.getKey());
+                inMemory = inMemory.thenApply(recent -> SegmentSet.combine(Arrays.asList(stored, recent)));
             }
+            pending.add(inMemory.thenApply(postings -> toTerm(postings, qf, totalDocs)));
+        }
 
-            for (Map.Entry<String, Integer> e : tfByDoc.entrySet()) {
-                String docId = e.getKey();
-                int tf = e.getValue();
-
-                // TF log-normalized: (1 + log(tf))
-                double tfWeight = 1.0 + Math.log(tf);
+        boolean complete = true;
+        try {
+            CompletableFuture.allOf(pending.toArray(new CompletableFuture[0]))
+                    .get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            complete = false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while fetching postings", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Posting lookup failed", e.getCause());
+        }
 
-                double tfidf = (tfWeight * idf) * qWeight;
-                scoreByDoc.merge(docId, tfidf, Double::sum);
+        List<TopKScorer.Term> scoredTerms = new ArrayList<>(pending.size());
+        int missing = 0;
+        for (CompletableFuture<TopKScorer.Term> f : pending) {
+            if (f.isDone()) {
+                TopKScorer.Term term = f.join();
+                if (term != null) scoredTerms.add(term);
+            } else {
+                f.cancel(false);
+                missing++;
             }
         }
-
-        if (scoreByDoc.isEmpty()) {
-            return Collections.emptyList();
+        if (!complete) {
+            log.warn("Query deadline reached, scoring without {} of {} terms", missing, pending.size());
         }
 
-        return scoreByDoc.entrySet().stream()
-                .sorted(Comparator.comparingDouble(Map.Entry<String, Double>::getValue).reversed())
-                .limit(limit)
-                .map(e -> buildHit(e.getKey(), e.getValue()))
-                .collect(Collectors.toList());
+        // bounded top-k with MaxScore skipping; only `limit` documents are ever kept
+        return new Ranking(TopKScorer.topK(scoredTerms, limit), complete);
+    }
+
+    private static TopKScorer.Term toTerm(PostingList postings, int qf, long totalDocs) {
+        if (postings == null || postings.isEmpty()) {
+            return null;
+        }
+        // df = number of distinct documents containing the term, kept in the posting list header
+        int df = postings.size();
+        return new TopKScorer.Term(postings, TfIdf.idf(totalDocs, df), TfIdf.queryWeight(qf));
     }
 
-    private SearchHit buildHit(String docId, double score) {
-        Map<String, Object> meta = metadataIndex.get(docId);
+    /** Top documents of a query; {@code complete} is false when some lookups missed the deadline. */
+    private record Ranking(List<ScoredDocument> top, boolean complete) {
+    }
 
+    // Only the fields the response needs are read from the record
+    private SearchHit buildHit(String docId, DocumentMetadata meta, double score) {
         String title = docId;
         String url = null;
 
         if (meta != null) {
-            Object t = meta.get("title");
-            if (t != null) {
-                title = t.toString();
-            }
-            Object s = meta.get("sourceUrl");
-            if (s != null) {
-                url = s.toString();
+            if (meta.getTitle() != null) {
+                title = meta.getTitle();
             }
+            url = meta.getSourceUrl();
         }
 
         return new SearchHit(docId, title, url, score);
@@ -137,10 +230,4 @@ public class SearchEngine {
     public List<SearchHit> searchTerm(String term) {
         return search(term, 100);
     }
-
-    private List<String> tokenize(String q) {
-        return Arrays.stream(SPLIT.split(q.toLowerCase(Locale.ROOT)))
-                .filter(s -> !s.isBlank())
-                .collect(Collectors.toList());
-    }
 }
@@ -0,0 +1,72 @@
+package es.ulpgc.bigdata.search.core;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.map.IMap;
+
+import es.ulpgc.bigdata.index.PostingList;
+import es.ulpgc.bigdata.index.SegmentInfo;
+import es.ulpgc.bigdata.index.SegmentSet;
+
+/**
+ * The on-disk segments written by the indexing service, memory-mapped from the shared segment
+ * directory. Hazelcast only holds the (small) catalog; a background task re-reads it every
+ * {@code refreshMillis} to open new segments, release merged ones and pick up deleted documents.
+ */
+public class SegmentCatalogCache implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(SegmentCatalogCache.class);
+
+    private final IMap<String, SegmentInfo> catalog;
+    private final SegmentSet segments;
+    private final ScheduledExecutorService refresher;
+
+    public SegmentCatalogCache(HazelcastInstance hazelcast, Path directory, long refreshMillis) {
+        this.catalog = hazelcast.getMap(SegmentInfo.MAP);
+        this.segments = new SegmentSet(directory);
+        this.refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "segment-catalog-refresh");
+            t.setDaemon(true);
+            return t;
+        });
+        refresh();
+        refresher.scheduleWithFixedDelay(this::refresh, refreshMillis, refreshMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public boolean isEmpty() {
+        return segments.isEmpty();
+    }
+
+    /** Live postings of {@code term} in all segments, or null. */
+    public PostingList postings(String term) {
+        return segments.postings(term);
+    }
+
+    public Map<String, Object> snapshot() {
+        return segments.snapshot();
+    }
+
+    public void refresh() {
+        try {
+            for (String failure : segments.refresh(catalog.values())) {
+                log.warn("Could not open segment {}", failure);
+            }
+        } catch (Exception e) {
+            log.warn("Could not refresh segment catalog: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        refresher.shutdownNow();
+        segments.close();
+    }
+}
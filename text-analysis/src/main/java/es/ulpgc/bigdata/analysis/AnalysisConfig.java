@@ -0,0 +1,41 @@
+package es.ulpgc.bigdata.analysis;
+
+/**
+ * Which analyzer applies to a document or a query. Both services read the same environment, so the
+ * indexer and the search service always agree:
+ * <ul>
+ *     <li>{@code ANALYZER}: {@code language} (default) picks the chain of the document's language;
+ *     {@code standard} disables stop words and stemming everywhere;</li>
+ *     <li>{@code ANALYZER_DEFAULT_LANGUAGE}: chain for documents and queries whose language is unknown
+ *     or unsupported ({@code en} by default, {@code none} for the standard analyzer).</li>
+ * </ul>
+ */
+public final class AnalysisConfig {
+
+    private final boolean languageAware;
+    private final Language defaultLanguage;
+
+    public AnalysisConfig(boolean languageAware, Language defaultLanguage) {
+        this.languageAware = languageAware;
+        this.defaultLanguage = defaultLanguage;
+    }
+
+    public static AnalysisConfig fromEnv() {
+        boolean languageAware = !"standard".equalsIgnoreCase(System.getenv().getOrDefault("ANALYZER", "language"));
+        Language defaultLanguage = Language.of(System.getenv().getOrDefault("ANALYZER_DEFAULT_LANGUAGE", "en"));
+        return new AnalysisConfig(languageAware, defaultLanguage);
+    }
+
+    /** Analyzer for a document or query in {@code language} (metadata value or ISO code, may be null). */
+    public Analyzer analyzerFor(String language) {
+        if (!languageAware) return Analyzer.STANDARD;
+        Language l = Language.of(language);
+        return Analyzer.of(l != null ? l : defaultLanguage);
+    }
+
+    public String describe() {
+        return languageAware
+                ? "language (default " + (defaultLanguage == null ? "none" : defaultLanguage.code()) + ")"
+                : "standard";
+    }
+}
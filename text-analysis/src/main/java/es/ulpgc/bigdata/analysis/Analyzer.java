@@ -0,0 +1,53 @@
+package es.ulpgc.bigdata.analysis;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Tokenizer followed by a chain of {@link TokenFilter}s. {@link #STANDARD} only lowercases and
+ * splits; a language analyzer also removes that language's stop words and applies its light stemmer.
+ * Documents and queries must go through the same analyzer for their terms to meet in the index.
+ */
+public final class Analyzer {
+
+    public static final Analyzer STANDARD = new Analyzer("standard");
+
+    private static final Map<Language, Analyzer> BY_LANGUAGE = new EnumMap<>(Language.class);
+
+    static {
+        for (Language l : Language.values()) {
+            BY_LANGUAGE.put(l, new Analyzer(l.code(), new StopFilter(l.stopWords()), l.stemmer()));
+        }
+    }
+
+    private final String name;
+    private final TokenFilter[] filters;
+
+    private Analyzer(String name, TokenFilter... filters) {
+        this.name = name;
+        this.filters = filters;
+    }
+
+    public static Analyzer of(Language language) {
+        return language == null ? STANDARD : BY_LANGUAGE.get(language);
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public void analyze(CharSequence text, Tokenizer tokenizer, Tokenizer.TermConsumer out) {
+        tokenizer.tokenize(text, filters.length == 0 ? out : filtered(out));
+    }
+
+    /** Wraps {@code out} so it only sees terms that went through every filter. */
+    public Tokenizer.TermConsumer filtered(Tokenizer.TermConsumer out) {
+        return (term, length) -> {
+            for (TokenFilter f : filters) {
+                length = f.filter(term, length);
+                if (length == 0) return;
+            }
+            out.accept(term, length);
+        };
+    }
+}
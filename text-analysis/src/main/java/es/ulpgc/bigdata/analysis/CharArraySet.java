@@ -0,0 +1,35 @@
+package es.ulpgc.bigdata.analysis;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/** Immutable set of short strings that can be probed with a char buffer, without building a String. */
+final class CharArraySet {
+
+    private final char[][] slots;
+
+    CharArraySet(Collection<String> words) {
+        int capacity = Integer.highestOneBit(Math.max(4, words.size() * 4) - 1) << 1;
+        slots = new char[capacity][];
+        for (String w : words) {
+            char[] chars = w.toCharArray();
+            int i = hash(chars, chars.length) & (capacity - 1);
+            while (slots[i] != null && !Arrays.equals(slots[i], chars)) i = (i + 1) & (capacity - 1);
+            slots[i] = chars;
+        }
+    }
+
+    boolean contains(char[] term, int length) {
+        int mask = slots.length - 1;
+        for (int i = hash(term, length) & mask; slots[i] != null; i = (i + 1) & mask) {
+            if (Arrays.equals(slots[i], 0, slots[i].length, term, 0, length)) return true;
+        }
+        return false;
+    }
+
+    private static int hash(char[] term, int length) {
+        int h = 0;
+        for (int i = 0; i < length; i++) h = 31 * h + term[i];
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,66 @@
+package es.ulpgc.bigdata.analysis;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Languages with a dedicated analysis chain: stop words plus a {@link LightStemmer}. A document's
+ * language comes from the {@code language} field captured by the ingestion service ("English",
+ * "Spanish", ...); ISO codes are accepted as well, for the {@code lang} query parameter.
+ */
+public enum Language {
+
+    ENGLISH("en", LightStemmer.ENGLISH,
+            "a an and are as at be been but by for from had has have he her him his i if in into is it its"
+                    + " me my no not of on or our she so such that the their them then there these they this"
+                    + " to was we were which will with would you your"),
+
+    SPANISH("es", LightStemmer.SPANISH,
+            "a al algo como con de del desde donde el ella ellos en entre era es esa ese eso esta este"
+                    + " esto fue ha hay la las le les lo los mas más me mi muy ni no nos o para pero por que"
+                    + " qué se sin sobre su sus también te tu un una y ya yo"),
+
+    FRENCH("fr", LightStemmer.FRENCH,
+            "a à au aux avec ce ces cette dans de des du elle en est et il ils je l la le les leur lui"
+                    + " ma mais me mon ne nous on ou où par pas pour qu que qui sa se ses son sont sur ta te"
+                    + " tu un une vous y"),
+
+    GERMAN("de", LightStemmer.GERMAN,
+            "aber als am an auch auf aus bei bin bis das dass dem den der des die doch du ein eine einem"
+                    + " einen einer er es für hat ich ihr im in ist ja mit nach nicht noch nur oder sein sich"
+                    + " sie sind so um und von vor war was wie wir zu zum zur über");
+
+    private final String code;
+    private final LightStemmer stemmer;
+    private final List<String> stopWords;
+
+    Language(String code, LightStemmer stemmer, String stopWords) {
+        this.code = code;
+        this.stemmer = stemmer;
+        this.stopWords = List.of(stopWords.split(" "));
+    }
+
+    public String code() {
+        return code;
+    }
+
+    public LightStemmer stemmer() {
+        return stemmer;
+    }
+
+    public List<String> stopWords() {
+        return stopWords;
+    }
+
+    /** Resolves "English", "english", "en", "en-US"...; null when the language has no chain. */
+    public static Language of(String name) {
+        if (name == null || name.isBlank()) return null;
+        String n = name.trim().toLowerCase(Locale.ROOT);
+        for (Language l : values()) {
+            if (n.equals(l.code) || n.startsWith(l.code + "-") || n.startsWith(l.name().toLowerCase(Locale.ROOT))) {
+                return l;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,107 @@
+package es.ulpgc.bigdata.analysis;
+
+/**
+ * Light (inflectional) stemmers: they conflate plural and gender forms and little else, so terms
+ * stay readable and unrelated words are rarely merged. English is the S-stemmer (Harman, 1991); the
+ * others follow the minimal stemmers of Savoy used for CLEF.
+ */
+public enum LightStemmer implements TokenFilter {
+
+    ENGLISH {
+        @Override
+        public int filter(char[] s, int len) {
+            if (len < 4) return len;
+            if (endsWith(s, len, "ies") && !endsWith(s, len, "eies") && !endsWith(s, len, "aies")) {
+                s[len - 3] = 'y';
+                return len - 2;
+            }
+            if (endsWith(s, len, "es") && !endsWith(s, len, "aes") && !endsWith(s, len, "ees")
+                    && !endsWith(s, len, "oes")) {
+                return len - 1;
+            }
+            if (s[len - 1] == 's' && s[len - 2] != 'u' && s[len - 2] != 's') {
+                return len - 1;
+            }
+            return len;
+        }
+    },
+
+    SPANISH {
+        @Override
+        public int filter(char[] s, int len) {
+            foldAccents(s, len);
+            if (len < 5) return len;
+            if (endsWith(s, len, "eses")) return len - 2;
+            if (endsWith(s, len, "ces")) {
+                s[len - 3] = 'z';
+                return len - 2;
+            }
+            char last = s[len - 1];
+            if (last == 'o' || last == 'a' || last == 'e') return len - 1;
+            if (last == 's' && (s[len - 2] == 'o' || s[len - 2] == 'a' || s[len - 2] == 'e')) return len - 2;
+            return len;
+        }
+    },
+
+    FRENCH {
+        @Override
+        public int filter(char[] s, int len) {
+            if (len < 6) return len;
+            if (s[len - 1] == 'x') {
+                if (s[len - 3] == 'a' && s[len - 2] == 'u') s[len - 2] = 'l';
+                return len - 1;
+            }
+            if (s[len - 1] == 's') len--;
+            if (s[len - 1] == 'r') len--;
+            if (s[len - 1] == 'e') len--;
+            if (s[len - 1] == 'é') len--;
+            if (s[len - 1] == s[len - 2] && Character.isLetter(s[len - 1])) len--;
+            return len;
+        }
+    },
+
+    GERMAN {
+        @Override
+        public int filter(char[] s, int len) {
+            for (int i = 0; i < len; i++) {
+                switch (s[i]) {
+                    case 'ä' -> s[i] = 'a';
+                    case 'ö' -> s[i] = 'o';
+                    case 'ü' -> s[i] = 'u';
+                    default -> { }
+                }
+            }
+            if (len < 5) return len;
+            if (len > 6 && endsWith(s, len, "nen")) return len - 3;
+            if (len > 5 && (endsWith(s, len, "en") || endsWith(s, len, "se")
+                    || endsWith(s, len, "es") || endsWith(s, len, "er"))) {
+                return len - 2;
+            }
+            char last = s[len - 1];
+            if (last == 'n' || last == 'e' || last == 's' || last == 'r') return len - 1;
+            return len;
+        }
+    };
+
+    static boolean endsWith(char[] s, int len, String suffix) {
+        int n = suffix.length();
+        if (len < n) return false;
+        for (int i = 0; i < n; i++) {
+            if (s[len - n + i] != suffix.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    static void foldAccents(char[] s, int len) {
+        for (int i = 0; i < len; i++) {
+            switch (s[i]) {
+                case 'á' -> s[i] = 'a';
+                case 'é' -> s[i] = 'e';
+                case 'í' -> s[i] = 'i';
+                case 'ó' -> s[i] = 'o';
+                case 'ú' -> s[i] = 'u';
+                default -> { }
+            }
+        }
+    }
+}
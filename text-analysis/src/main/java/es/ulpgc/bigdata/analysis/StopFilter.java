@@ -0,0 +1,18 @@
+package es.ulpgc.bigdata.analysis;
+
+import java.util.Collection;
+
+/** Drops the most frequent function words of a language, whose posting lists span almost every document. */
+public final class StopFilter implements TokenFilter {
+
+    private final CharArraySet words;
+
+    public StopFilter(Collection<String> words) {
+        this.words = new CharArraySet(words);
+    }
+
+    @Override
+    public int filter(char[] term, int length) {
+        return words.contains(term, length) ? 0 : length;
+    }
+}
@@ -0,0 +1,113 @@
+package es.ulpgc.bigdata.analysis;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Term frequency table fed straight from {@link Tokenizer}'s term buffer.
+ * <p>
+ * Open addressing over parallel int arrays, with the characters of every distinct term copied once
+ * into a shared pool: a repeated term costs a hash and a compare, and Strings are only created for
+ * the distinct terms, by {@link #toMap()}. {@link #clear()} keeps the arrays, so one counter can be
+ * reused for every document a thread processes.
+ */
+public final class TermCounter implements Tokenizer.TermConsumer {
+
+    private char[] pool = new char[1 << 14];
+    private int poolLength;
+
+    // slot -> entry + 1 (0 = empty); capacity is a power of two kept at most half full
+    private int[] slots = new int[1 << 12];
+    private int[] start = new int[1 << 11];
+    private int[] length = new int[1 << 11];
+    private int[] hash = new int[1 << 11];
+    private int[] count = new int[1 << 11];
+    private int size;
+    private long tokens;
+
+    @Override
+    public void accept(char[] term, int len) {
+        tokens++;
+        int h = hash(term, len);
+        int mask = slots.length - 1;
+        for (int i = h & mask; ; i = (i + 1) & mask) {
+            int e = slots[i] - 1;
+            if (e < 0) {
+                slots[i] = insert(term, len, h) + 1;
+                if (size * 2 > slots.length) rehash();
+                return;
+            }
+            if (hash[e] == h && length[e] == len
+                    && Arrays.equals(pool, start[e], start[e] + len, term, 0, len)) {
+                count[e]++;
+                return;
+            }
+        }
+    }
+
+    /** Number of distinct terms. */
+    public int size() {
+        return size;
+    }
+
+    /** Number of terms counted, repetitions included (the document length). */
+    public long tokens() {
+        return tokens;
+    }
+
+    public Map<String, Integer> toMap() {
+        Map<String, Integer> out = new HashMap<>(size * 4 / 3 + 1);
+        for (int e = 0; e < size; e++) {
+            out.put(new String(pool, start[e], length[e]), count[e]);
+        }
+        return out;
+    }
+
+    public void clear() {
+        Arrays.fill(slots, 0);
+        size = 0;
+        poolLength = 0;
+        tokens = 0;
+    }
+
+    private int insert(char[] term, int len, int h) {
+        if (size == start.length) {
+            int n = size * 2;
+            start = Arrays.copyOf(start, n);
+            length = Arrays.copyOf(length, n);
+            hash = Arrays.copyOf(hash, n);
+            count = Arrays.copyOf(count, n);
+        }
+        if (poolLength + len > pool.length) {
+            pool = Arrays.copyOf(pool, Math.max(pool.length * 2, poolLength + len));
+        }
+        System.arraycopy(term, 0, pool, poolLength, len);
+        int e = size++;
+        start[e] = poolLength;
+        length[e] = len;
+        hash[e] = h;
+        count[e] = 1;
+        poolLength += len;
+        return e;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int e = 0; e < size; e++) {
+            int i = hash[e] & mask;
+            while (slots[i] != 0) i = (i + 1) & mask;
+            slots[i] = e + 1;
+        }
+    }
+
+    private static int hash(char[] term, int len) {
+        int h = 0;
+        for (int i = 0; i < len; i++) {
+            h = 31 * h + term[i];
+        }
+        // spread the bits, String-style hashes cluster in the low ones
+        return h ^ (h >>> 16);
+    }
+}
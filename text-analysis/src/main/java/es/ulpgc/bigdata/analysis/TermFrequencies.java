@@ -0,0 +1,51 @@
+package es.ulpgc.bigdata.analysis;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Entry point used by the services: term -> number of occurrences after analysis, with one
+ * {@link Tokenizer} and one {@link TermCounter} reused per thread.
+ */
+public final class TermFrequencies {
+
+    private static final ThreadLocal<Tokenizer> TOKENIZER = ThreadLocal.withInitial(Tokenizer::new);
+    private static final ThreadLocal<TermCounter> COUNTER = ThreadLocal.withInitial(TermCounter::new);
+
+    private TermFrequencies() {
+    }
+
+    public static Map<String, Integer> of(CharSequence text) {
+        return of(text, Analyzer.STANDARD);
+    }
+
+    public static Map<String, Integer> of(CharSequence text, Analyzer analyzer) {
+        if (text == null || text.length() == 0) return Map.of();
+        TermCounter counter = COUNTER.get();
+        counter.clear();
+        analyzer.analyze(text, TOKENIZER.get(), counter);
+        return counter.toMap();
+    }
+
+    /**
+     * Streaming variant: {@code source} pushes the text in chunks (e.g. decoded file buffers), so the
+     * document never has to be on the heap as a whole. Each chunk is only read during the call.
+     */
+    public static Map<String, Integer> of(TextSource source, Analyzer analyzer) throws IOException {
+        TermCounter counter = COUNTER.get();
+        counter.clear();
+        Tokenizer tokenizer = TOKENIZER.get();
+        tokenizer.reset();
+        Tokenizer.TermConsumer sink = analyzer.filtered(counter);
+        source.feed(chunk -> tokenizer.feed(chunk, 0, chunk.length(), sink));
+        tokenizer.finish(sink);
+        return counter.toMap();
+    }
+
+    /** Producer of the chunks of one text, in order. */
+    @FunctionalInterface
+    public interface TextSource {
+        void feed(Consumer<CharSequence> chunks) throws IOException;
+    }
+}
@@ -0,0 +1,12 @@
+package es.ulpgc.bigdata.analysis;
+
+/**
+ * One step of an {@link Analyzer} chain. Works in place on the term buffer produced by the
+ * {@link Tokenizer}, so a chain allocates nothing per token.
+ */
+@FunctionalInterface
+public interface TokenFilter {
+
+    /** Rewrites {@code term[0..length)} in place; returns the new length, or 0 to drop the term. */
+    int filter(char[] term, int length);
+}
@@ -0,0 +1,107 @@
+package es.ulpgc.bigdata.analysis;
+
+import java.util.Arrays;
+
+/**
+ * Splits text into lowercase terms: maximal runs of letters and decimal digits, the same terms the
+ * previous regex split on {@code [^\p{L}\p{Nd}]+} produced. Lowercasing is per code point, so the one
+ * context-dependent rule of {@link String#toLowerCase()} (Greek final sigma) is not applied.
+ * <p>
+ * The text is scanned code point by code point and each term is built in a reusable buffer handed to
+ * a {@link TermConsumer}; nothing is allocated per token. Text can be fed in chunks ({@link #feed}
+ * then {@link #finish}), so a term or a surrogate pair cut at a chunk boundary is still one term.
+ * <p>
+ * Instances keep state between calls and are not thread-safe.
+ */
+public final class Tokenizer {
+
+    /** Receives each term as {@code term[0..length)}; the buffer is reused for the next term. */
+    @FunctionalInterface
+    public interface TermConsumer {
+        void accept(char[] term, int length);
+    }
+
+    private char[] buffer = new char[64];
+    private int length;
+    private char pendingHigh;
+
+    /** Tokenizes the whole {@code text}. */
+    public void tokenize(CharSequence text, TermConsumer out) {
+        reset();
+        feed(text, 0, text.length(), out);
+        finish(out);
+    }
+
+    /** Feeds {@code text[start..end)}; a term running up to {@code end} is kept until the next call. */
+    public void feed(CharSequence text, int start, int end, TermConsumer out) {
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (pendingHigh != 0 && !Character.isLowSurrogate(c)) {
+                // unpaired high surrogate: a separator
+                pendingHigh = 0;
+                emit(out);
+            }
+            if (c < 0x80) {
+                // ASCII fast path: the bulk of Gutenberg text
+                if (c >= 'a' && c <= 'z' || c >= '0' && c <= '9') {
+                    append(c);
+                } else if (c >= 'A' && c <= 'Z') {
+                    append((char) (c + ('a' - 'A')));
+                } else {
+                    emit(out);
+                }
+                continue;
+            }
+            int cp;
+            if (pendingHigh != 0) {
+                cp = Character.toCodePoint(pendingHigh, c);
+                pendingHigh = 0;
+            } else if (Character.isHighSurrogate(c)) {
+                pendingHigh = c;
+                continue;
+            } else {
+                cp = c;
+            }
+            if (Character.isLetterOrDigit(cp)) {
+                appendCodePoint(Character.toLowerCase(cp));
+            } else {
+                emit(out);
+            }
+        }
+    }
+
+    /** Discards a partial term left by an interrupted stream. */
+    public void reset() {
+        length = 0;
+        pendingHigh = 0;
+    }
+
+    /** Flushes the last term of the text. */
+    public void finish(TermConsumer out) {
+        pendingHigh = 0;
+        emit(out);
+    }
+
+    private void emit(TermConsumer out) {
+        if (length > 0) {
+            out.accept(buffer, length);
+            length = 0;
+        }
+    }
+
+    private void append(char c) {
+        if (length == buffer.length) {
+            buffer = Arrays.copyOf(buffer, length * 2);
+        }
+        buffer[length++] = c;
+    }
+
+    private void appendCodePoint(int cp) {
+        if (Character.isBmpCodePoint(cp)) {
+            append((char) cp);
+        } else {
+            append(Character.highSurrogate(cp));
+            append(Character.lowSurrogate(cp));
+        }
+    }
+}